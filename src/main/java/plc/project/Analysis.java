@@ -0,0 +1,94 @@
+package plc.project;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * What one run of the {@link Analyzer} found out about a tree, kept beside it
+ * rather than set on its nodes, so one parsed {@link Ast.Source} can be
+ * analyzed by any number of analyzers at once, each with its own {@code
+ * Analysis}, and the results used by as many {@link Generator}s.
+ *
+ * Nodes are keyed by identity, as nodes which are {@code equals} are still
+ * different places in the program. An analysis is filled in by a single
+ * analyzer, and then by the passes rewriting the tree, such as {@link
+ * Transformer}s, which give the nodes they create results of their own. Once
+ * that is done it is only read, and can be shared by threads like any object
+ * handed over through a thread-safe channel (such as a {@link
+ * java.util.concurrent.Future}).
+ */
+public final class Analysis {
+
+    private final Map<Ast.Expr, Environment.Type> types = new IdentityHashMap<>();
+    private final Map<Ast, Environment.Variable> variables = new IdentityHashMap<>();
+    private final Map<Ast, Environment.Function> functions = new IdentityHashMap<>();
+
+    /**
+     * Returns the type of the expression, which is that of the variable or
+     * the return type of the function it is bound to for accesses and
+     * functions, like {@link Ast.Expr#getType()}.
+     */
+    public Environment.Type getType(Ast.Expr ast) {
+        if(ast instanceof Ast.Expr.Access) {
+            return getVariable(ast).getType();
+        }
+        else if(ast instanceof Ast.Expr.Function) {
+            return getFunction(ast).getReturnType();
+        }
+        return require(types.get(ast), "type");
+    }
+
+    /**
+     * Returns the variable of a field, declaration or access.
+     */
+    public Environment.Variable getVariable(Ast ast) {
+        return require(variables.get(ast), "variable");
+    }
+
+    /**
+     * Returns the function of a method or function expression.
+     */
+    public Environment.Function getFunction(Ast ast) {
+        return require(functions.get(ast), "function");
+    }
+
+    public void setType(Ast.Expr ast, Environment.Type type) {
+        types.put(ast, type);
+    }
+
+    public void setVariable(Ast ast, Environment.Variable variable) {
+        variables.put(ast, variable);
+    }
+
+    public void setFunction(Ast ast, Environment.Function function) {
+        functions.put(ast, function);
+    }
+
+    /**
+     * Gives {@code copy} the results of {@code ast}, which it was copied
+     * from after analysis.
+     */
+    void copy(Ast ast, Ast copy) {
+        Environment.Type type = types.get(ast);
+        if(type != null) {
+            types.put((Ast.Expr) copy, type);
+        }
+        Environment.Variable variable = variables.get(ast);
+        if(variable != null) {
+            variables.put(copy, variable);
+        }
+        Environment.Function function = functions.get(ast);
+        if(function != null) {
+            functions.put(copy, function);
+        }
+    }
+
+    //the nodes' getters throw the same for what analysis didn't get to
+    private static <T> T require(T value, String name) {
+        if(value == null) {
+            throw new IllegalStateException(name + " is uninitialized");
+        }
+        return value;
+    }
+
+}
@@ -17,16 +17,38 @@ public final class Analyzer implements Ast.Visitor<Void> {
 
     public Scope scope;
     private Ast.Method method;
+    private final Analysis analysis;
+    //whether results are set on the nodes too, as when no analysis is given
+    private final boolean inPlace;
 
     public Analyzer(Scope parent) {
+        this(parent, new Analysis(), true);
+    }
+
+    /**
+     * Creates an analyzer which records what it finds in the analysis only,
+     * leaving the tree as it is, so the same tree can be analyzed by several
+     * analyzers at once.
+     */
+    public Analyzer(Scope parent, Analysis analysis) {
+        this(parent, analysis, false);
+    }
+
+    private Analyzer(Scope parent, Analysis analysis, boolean inPlace) {
         scope = new Scope(parent);
         scope.defineFunction("print", "System.out.println", Arrays.asList(Environment.Type.ANY), Environment.Type.NIL, args -> Environment.NIL);
+        this.analysis = analysis;
+        this.inPlace = inPlace;
     }
 
     public Scope getScope() {
         return scope;
     }
 
+    public Analysis getAnalysis() {
+        return analysis;
+    }
+
     @Override
     public Void visit(Ast.Source ast) {
         ast.getFields().forEach(this::visit);
@@ -89,9 +111,9 @@ public final class Analyzer implements Ast.Visitor<Void> {
             throw new RuntimeException("invalid type name");
         }
         scope.defineVariable(ast.getName(), ast.getName(), type, Environment.NIL);
-        ast.setVariable(scope.lookupVariable(ast.getName()));
+        setVariable(ast, scope.lookupVariable(ast.getName()));
 
-        requireAssignable(type,ast.getValue().get().getType());
+        requireAssignable(type,type(ast.getValue().get()));
 
         return null;
     }
@@ -112,10 +134,10 @@ public final class Analyzer implements Ast.Visitor<Void> {
         }
         if(ast.getReturnTypeName().isPresent()) {
             Environment.Type returnType = Environment.getType(ast.getReturnTypeName().get());
-            ast.setFunction(scope.defineFunction(ast.getName(), ast.getName(), paramTypes, returnType, args -> Environment.NIL));
+            setFunction(ast, scope.defineFunction(ast.getName(), ast.getName(), paramTypes, returnType, args -> Environment.NIL));
         }
         else {
-            ast.setFunction(scope.defineFunction(ast.getName(), ast.getName(), paramTypes, Environment.Type.NIL, args -> Environment.NIL));
+            setFunction(ast, scope.defineFunction(ast.getName(), ast.getName(), paramTypes, Environment.Type.NIL, args -> Environment.NIL));
         }
 
         //Then, visits all of the method's statements inside of a new scope containing variables for each parameter.
@@ -188,13 +210,13 @@ public final class Analyzer implements Ast.Visitor<Void> {
             visit(ast.getValue().get()); //visit does not evaluate
 
             if(type == null) {
-                type = ast.getValue().get().getType();
+                type = type(ast.getValue().get());
             }
 
-            requireAssignable(type, ast.getValue().get().getType());
+            requireAssignable(type, type(ast.getValue().get()));
         }
 
-        ast.setVariable(scope.defineVariable(ast.getName(), ast.getName(), type, Environment.NIL));
+        setVariable(ast, scope.defineVariable(ast.getName(), ast.getName(), type, Environment.NIL));
 
         return null;
     }
@@ -212,7 +234,7 @@ public final class Analyzer implements Ast.Visitor<Void> {
 
             visit(ast.getValue());
 
-            requireAssignable(ast.getReceiver().getType(), ast.getValue().getType());
+            requireAssignable(type(ast.getReceiver()), type(ast.getValue()));
         }
         else
         {
@@ -233,15 +255,12 @@ public final class Analyzer implements Ast.Visitor<Void> {
         visit(ast.getCondition());
 
         Scope temp = scope;
-        requireAssignable(ast.getCondition().getType(), Environment.Type.BOOLEAN);
+        requireAssignable(type(ast.getCondition()), Environment.Type.BOOLEAN);
         if(ast.getThenStatements().isEmpty()) {
             throw new RuntimeException("thenStatements is empty");
         }
 
-        Ast.Expr.Literal truth = new Ast.Expr.Literal(true);
-        truth.setType(Environment.Type.BOOLEAN);
-
-        if(ast.getCondition().equals(truth)) {
+        if(ast.getCondition() instanceof Ast.Expr.Literal && Boolean.TRUE.equals(((Ast.Expr.Literal) ast.getCondition()).getLiteral())) {
             scope = new Scope(temp);
             ast.getThenStatements().forEach(this::visit);
         }
@@ -260,7 +279,7 @@ public final class Analyzer implements Ast.Visitor<Void> {
         Scope temp = scope;
         //Validates a for statement. Throws a RuntimeException if:
         visit(ast.getValue());
-        if(!(ast.getValue().getType() == Environment.Type.INTEGER_ITERABLE)) {
+        if(!(type(ast.getValue()) == Environment.Type.INTEGER_ITERABLE)) {
             throw new RuntimeException("Invalid type");
         }
         if(ast.getStatements().isEmpty()) {
@@ -292,7 +311,7 @@ public final class Analyzer implements Ast.Visitor<Void> {
         Scope temp = scope;
         visit(ast.getCondition());
 
-        if(ast.getCondition().getType() != Environment.Type.BOOLEAN) {
+        if(type(ast.getCondition()) != Environment.Type.BOOLEAN) {
             throw new RuntimeException("Invalid type");
         }
         else {
@@ -330,26 +349,26 @@ public final class Analyzer implements Ast.Visitor<Void> {
             if(astVal.compareTo(BigInteger.valueOf(Integer.MAX_VALUE)) == 1 || astVal.compareTo(BigInteger.valueOf(Integer.MIN_VALUE)) == -1) {
                 throw new RuntimeException("Invalid integer");
             }
-            ast.setType(Environment.Type.INTEGER);
+            setType(ast, Environment.Type.INTEGER);
         }
         else if(ast.getLiteral() instanceof BigDecimal) {
             BigDecimal astVal= (BigDecimal) ast.getLiteral();
             if(astVal.compareTo(BigDecimal.valueOf(Double.MAX_VALUE)) == 1 || astVal.compareTo(BigDecimal.valueOf(Double.MIN_VALUE)) == -1) {
                 throw new RuntimeException("Invalid decimal");
             }
-            ast.setType(Environment.Type.DECIMAL);
+            setType(ast, Environment.Type.DECIMAL);
         }
         else if(ast.getLiteral() instanceof Boolean) {
-            ast.setType(Environment.Type.BOOLEAN);
+            setType(ast, Environment.Type.BOOLEAN);
         }
         else if(ast.getLiteral() instanceof String) {
-            ast.setType(Environment.Type.STRING);
+            setType(ast, Environment.Type.STRING);
         }
         else if(ast.getLiteral() instanceof Character) {
-            ast.setType(Environment.Type.CHARACTER);
+            setType(ast, Environment.Type.CHARACTER);
         }
         else {
-            ast.setType(Environment.Type.NIL);
+            setType(ast, Environment.Type.NIL);
         }
 
         return null;
@@ -363,7 +382,7 @@ public final class Analyzer implements Ast.Visitor<Void> {
             throw new RuntimeException("Not a Binary Expression!");
         }
 
-        ast.setType(ast.getExpression().getType());
+        setType(ast, type(ast.getExpression()));
 
         return null;
     }
@@ -377,9 +396,9 @@ public final class Analyzer implements Ast.Visitor<Void> {
         // AND / OR //
         if(ast.getOperator().equals("AND") || ast.getOperator().equals("OR"))
         {
-            ast.setType(Environment.Type.BOOLEAN);
+            setType(ast, Environment.Type.BOOLEAN);
 
-            if(ast.getLeft().getType() != Environment.Type.BOOLEAN || ast.getRight().getType() != Environment.Type.BOOLEAN)
+            if(type(ast.getLeft()) != Environment.Type.BOOLEAN || type(ast.getRight()) != Environment.Type.BOOLEAN)
             {
                 throw new RuntimeException("Mismatched Types!");
             }
@@ -387,14 +406,14 @@ public final class Analyzer implements Ast.Visitor<Void> {
         // < / <= / > / >= / == / != //
         if(ast.getOperator().equals("<") || ast.getOperator().equals("<=") || ast.getOperator().equals(">") || ast.getOperator().equals(">=") || ast.getOperator().equals("==") || ast.getOperator().equals("!="))
         {
-            ast.setType(Environment.Type.BOOLEAN);
+            setType(ast, Environment.Type.BOOLEAN);
 
             if(!(ast.getLeft() instanceof Comparable || ast.getRight() instanceof Comparable))
             {
                 throw new RuntimeException("Incorrect Types!");
             }
 
-            if(ast.getLeft().getType() != ast.getRight().getType())
+            if(type(ast.getLeft()) != type(ast.getRight()))
             {
                 throw new RuntimeException("Mismatched Types!");
             }
@@ -402,18 +421,17 @@ public final class Analyzer implements Ast.Visitor<Void> {
         // + //
         if(ast.getOperator().equals("+"))
         {
-            System.out.println(ast.getLeft().getType());
-            if(ast.getLeft().getType() == Environment.Type.STRING || ast.getRight().getType() == Environment.Type.STRING)
+            if(type(ast.getLeft()) == Environment.Type.STRING || type(ast.getRight()) == Environment.Type.STRING)
             {
-                ast.setType(Environment.Type.STRING);
+                setType(ast, Environment.Type.STRING);
             }
-            else if(ast.getLeft().getType() == Environment.Type.INTEGER && ast.getRight().getType() == Environment.Type.INTEGER)
+            else if(type(ast.getLeft()) == Environment.Type.INTEGER && type(ast.getRight()) == Environment.Type.INTEGER)
             {
-                ast.setType(Environment.Type.INTEGER);
+                setType(ast, Environment.Type.INTEGER);
             }
-            else if(ast.getLeft().getType() == Environment.Type.DECIMAL && ast.getRight().getType() == Environment.Type.DECIMAL)
+            else if(type(ast.getLeft()) == Environment.Type.DECIMAL && type(ast.getRight()) == Environment.Type.DECIMAL)
             {
-                ast.setType(Environment.Type.DECIMAL);
+                setType(ast, Environment.Type.DECIMAL);
             }
             else
             {
@@ -425,15 +443,15 @@ public final class Analyzer implements Ast.Visitor<Void> {
         // - / * / / //
         if(ast.getOperator().equals("-") || ast.getOperator().equals("*") || ast.getOperator().equals("/"))
         {
-            ast.setType(Environment.Type.INTEGER);
+            setType(ast, Environment.Type.INTEGER);
 
-            if(ast.getLeft().getType() == Environment.Type.INTEGER && ast.getRight().getType() == Environment.Type.INTEGER)
+            if(type(ast.getLeft()) == Environment.Type.INTEGER && type(ast.getRight()) == Environment.Type.INTEGER)
             {
-                ast.setType(Environment.Type.INTEGER);
+                setType(ast, Environment.Type.INTEGER);
             }
-            else if(ast.getLeft().getType() == Environment.Type.DECIMAL && ast.getRight().getType() == Environment.Type.DECIMAL)
+            else if(type(ast.getLeft()) == Environment.Type.DECIMAL && type(ast.getRight()) == Environment.Type.DECIMAL)
             {
-                ast.setType(Environment.Type.DECIMAL);
+                setType(ast, Environment.Type.DECIMAL);
             }
             else
             {
@@ -459,14 +477,14 @@ public final class Analyzer implements Ast.Visitor<Void> {
             //object.field, scope = {object: ObjectType {field: Integer}
             //ast.getType() == Integer
             visit(ast.getReceiver().get());
-            Environment.Type type = ast.getReceiver().get().getType().getScope().lookupVariable(ast.getName()).getType();
+            Environment.Type type = type(ast.getReceiver().get()).getScope().lookupVariable(ast.getName()).getType();
             scope.defineVariable(ast.getName(), ast.getName(), type, Environment.NIL);
             Environment.Variable var = scope.lookupVariable(ast.getName());
-            ast.setVariable(var);
+            setVariable(ast, var);
         }
         else
         {
-            ast.setVariable(scope.lookupVariable(ast.getName()));
+            setVariable(ast, scope.lookupVariable(ast.getName()));
         }
 
         return null;
@@ -491,22 +509,68 @@ public final class Analyzer implements Ast.Visitor<Void> {
 
         if(ast.getReceiver().isPresent()) {
             visit(ast.getReceiver().get());
-            Environment.Function func = ast.getReceiver().get().getType().getMethod(ast.getName(), ast.getArguments().size());
+            Environment.Function func = type(ast.getReceiver().get()).getMethod(ast.getName(), ast.getArguments().size());
             scope.defineFunction(func.getName(),func.getJvmName(),func.getParameterTypes(), func.getReturnType(), args -> Environment.NIL);
-            ast.setFunction(func);
+            setFunction(ast, func);
 
             for(int i = 0; i < ast.getArguments().size(); i++) {
-                requireAssignable(ast.getArguments().get(i).getType(), scope.lookupFunction(func.getName(), ast.getArguments().size()).getParameterTypes().get(i));
+                requireAssignable(type(ast.getArguments().get(i)), scope.lookupFunction(func.getName(), ast.getArguments().size()).getParameterTypes().get(i));
             }
         }
         else {
-            ast.setFunction(scope.lookupFunction(ast.getName(), ast.getArguments().size()));
+            setFunction(ast, scope.lookupFunction(ast.getName(), ast.getArguments().size()));
         }
 
 
         return null;
     }
 
+    private Environment.Type type(Ast.Expr ast) {
+        return analysis.getType(ast);
+    }
+
+    private void setType(Ast.Expr ast, Environment.Type type) {
+        analysis.setType(ast, type);
+        if(inPlace) {
+            if(ast instanceof Ast.Expr.Literal) {
+                ((Ast.Expr.Literal) ast).setType(type);
+            }
+            else if(ast instanceof Ast.Expr.Group) {
+                ((Ast.Expr.Group) ast).setType(type);
+            }
+            else {
+                ((Ast.Expr.Binary) ast).setType(type);
+            }
+        }
+    }
+
+    private void setVariable(Ast ast, Environment.Variable variable) {
+        analysis.setVariable(ast, variable);
+        if(inPlace) {
+            if(ast instanceof Ast.Field) {
+                ((Ast.Field) ast).setVariable(variable);
+            }
+            else if(ast instanceof Ast.Stmt.Declaration) {
+                ((Ast.Stmt.Declaration) ast).setVariable(variable);
+            }
+            else {
+                ((Ast.Expr.Access) ast).setVariable(variable);
+            }
+        }
+    }
+
+    private void setFunction(Ast ast, Environment.Function function) {
+        analysis.setFunction(ast, function);
+        if(inPlace) {
+            if(ast instanceof Ast.Method) {
+                ((Ast.Method) ast).setFunction(function);
+            }
+            else {
+                ((Ast.Expr.Function) ast).setFunction(function);
+            }
+        }
+    }
+
     public static void requireAssignable(Environment.Type target, Environment.Type type) {
         //When the two types are the same, the assignment can be performed.
         //When the target type is Any, anything from our language can be assigned to it.  Any in our language is similar to the Object class in Java.
@@ -534,4 +598,4 @@ public final class Analyzer implements Ast.Visitor<Void> {
         //else is fine
     }
 
-}
\ No newline at end of file
+}
\ No newline at end of file
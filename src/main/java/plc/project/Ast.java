@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.function.Supplier;
 
 /**
  * See the Parser assignment specification for specific notes on each AST class
@@ -11,6 +12,38 @@ import java.util.Optional;
  */
 public abstract class Ast {
 
+    /**
+     * Calls the method of the visitor for this kind of node, which is what
+     * {@link Visitor#visit(Ast)} does in a single virtual call.
+     */
+    public abstract <T> T accept(Visitor<T> visitor);
+
+    //cached, and 0 until computed
+    private int hash;
+
+    /**
+     * Returns a hash of the structure of the node, which like {@code equals}
+     * goes over the whole subtree the first time but is then cached, so the
+     * lists a node is created with mustn't be changed once it is hashed. The
+     * variables, functions and types set by the {@link Analyzer} aren't
+     * part of it, since they can change.
+     */
+    @Override
+    public final int hashCode() {
+        int hash = this.hash;
+        if (hash == 0) {
+            hash = hash();
+            if (hash == 0) {
+                hash = 1;
+            }
+            this.hash = hash;
+        }
+        return hash;
+    }
+
+    //the hash of the kind of node and its children, which are cached
+    abstract int hash();
+
     public static final class Source extends Ast {
 
         private final List<Field> fields;
@@ -29,9 +62,19 @@ public abstract class Ast {
             return methods;
         }
 
+        @Override
+        public <T> T accept(Visitor<T> visitor) {
+            return visitor.visit(this);
+        }
+
+        @Override
+        int hash() {
+            return Objects.hash(0, fields, methods);
+        }
+
         @Override
         public boolean equals(Object obj) {
-            return obj instanceof Source &&
+            return obj == this || obj instanceof Source &&
                     fields.equals(((Source) obj).fields) &&
                     methods.equals(((Source) obj).methods);
         }
@@ -86,9 +129,19 @@ public abstract class Ast {
             this.variable = variable;
         }
 
+        @Override
+        public <T> T accept(Visitor<T> visitor) {
+            return visitor.visit(this);
+        }
+
+        @Override
+        int hash() {
+            return Objects.hash(1, name, typeName, value);
+        }
+
         @Override
         public boolean equals(Object obj) {
-            return obj instanceof Field &&
+            return obj == this || obj instanceof Field &&
                     name.equals(((Field) obj).name) &&
                     typeName.equals(((Field) obj).typeName) &&
                     value.equals(((Field) obj).value) &&
@@ -113,7 +166,9 @@ public abstract class Ast {
         private final List<String> parameters;
         private final List<String> parameterTypeNames;
         private final Optional<String> returnTypeName;
-        private final List<Stmt> statements;
+        private volatile List<Stmt> statements;
+        //creates the statements when first asked for, null once they are
+        private Supplier<List<Stmt>> body;
         private Environment.Function function = null;
 
         public Method(String name, List<String> parameters, List<Stmt> statements) {
@@ -131,6 +186,21 @@ public abstract class Ast {
             this.statements = statements;
         }
 
+        /**
+         * Creates a method whose statements are only created by {@code body}
+         * when {@link #getStatements()} is first called, such as by a {@link
+         * Parser#withLazyMethods lazy parser}. The body is called once, even
+         * by racing threads, unless it throws, in which case the next call
+         * tries again.
+         */
+        public Method(String name, List<String> parameters, List<String> parameterTypeNames, Optional<String> returnTypeName, Supplier<List<Stmt>> body) {
+            this.name = name;
+            this.parameters = parameters;
+            this.parameterTypeNames = parameterTypeNames;
+            this.returnTypeName = returnTypeName;
+            this.body = body;
+        }
+
         public String getName() {
             return name;
         }
@@ -148,6 +218,16 @@ public abstract class Ast {
         }
 
         public List<Stmt> getStatements() {
+            List<Stmt> statements = this.statements;
+            if (statements == null) {
+                synchronized (this) {
+                    if (this.statements == null) {
+                        this.statements = body.get();
+                        body = null;
+                    }
+                    statements = this.statements;
+                }
+            }
             return statements;
         }
 
@@ -162,14 +242,27 @@ public abstract class Ast {
             this.function = function;
         }
 
+        @Override
+        public <T> T accept(Visitor<T> visitor) {
+            return visitor.visit(this);
+        }
+
+        //only the signature, so hashing doesn't create the statements of a
+        //lazy method, which may throw, and methods are still told apart by
+        //equals, which does
+        @Override
+        int hash() {
+            return Objects.hash(2, name, parameters, parameterTypeNames, returnTypeName);
+        }
+
         @Override
         public boolean equals(Object obj) {
-            return obj instanceof Method &&
+            return obj == this || obj instanceof Method &&
                     name.equals(((Method) obj).name) &&
                     parameters.equals(((Method) obj).parameters) &&
                     parameterTypeNames.equals(((Method) obj).parameterTypeNames) &&
                     returnTypeName.equals(((Method) obj).returnTypeName) &&
-                    statements.equals(((Method) obj).statements) &&
+                    getStatements().equals(((Method) obj).getStatements()) &&
                     Objects.equals(function, ((Method) obj).function);
         }
 
@@ -180,7 +273,7 @@ public abstract class Ast {
                     ", parameters=" + parameters +
                     ", parameterTypeNames=" + parameterTypeNames +
                     ", returnTypeName='" + returnTypeName + '\'' +
-                    ", statements=" + statements +
+                    ", statements=" + getStatements() +
                     ", function=" + function +
                     '}';
         }
@@ -201,9 +294,19 @@ public abstract class Ast {
                 return expression;
             }
 
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
+            @Override
+            int hash() {
+                return Objects.hash(3, expression);
+            }
+
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof Expression &&
+                return obj == this || obj instanceof Expression &&
                         expression.equals(((Expression) obj).expression);
             }
 
@@ -256,9 +359,19 @@ public abstract class Ast {
                 this.variable = variable;
             }
 
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
+            @Override
+            int hash() {
+                return Objects.hash(4, name, typeName, value);
+            }
+
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof Declaration &&
+                return obj == this || obj instanceof Declaration &&
                         name.equals(((Declaration) obj).name) &&
                         typeName.equals(((Declaration) obj).typeName) &&
                         value.equals(((Declaration) obj).value) &&
@@ -295,9 +408,19 @@ public abstract class Ast {
                 return value;
             }
 
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
+            @Override
+            int hash() {
+                return Objects.hash(5, receiver, value);
+            }
+
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof Assignment &&
+                return obj == this || obj instanceof Assignment &&
                         receiver.equals(((Assignment) obj).receiver) &&
                         value.equals(((Assignment) obj).value);
             }
@@ -337,9 +460,19 @@ public abstract class Ast {
                 return elseStatements;
             }
 
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
+            @Override
+            int hash() {
+                return Objects.hash(6, condition, thenStatements, elseStatements);
+            }
+
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof If &&
+                return obj == this || obj instanceof If &&
                         condition.equals(((If) obj).condition) &&
                         thenStatements.equals(((If) obj).thenStatements) &&
                         elseStatements.equals(((If) obj).elseStatements);
@@ -380,9 +513,19 @@ public abstract class Ast {
                 return statements;
             }
 
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
+            @Override
+            int hash() {
+                return Objects.hash(7, name, value, statements);
+            }
+
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof For &&
+                return obj == this || obj instanceof For &&
                         name.equals(((For) obj).name) &&
                         value.equals(((For) obj).value) &&
                         statements.equals(((For) obj).statements);
@@ -417,9 +560,19 @@ public abstract class Ast {
                 return statements;
             }
 
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
+            @Override
+            int hash() {
+                return Objects.hash(8, condition, statements);
+            }
+
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof While &&
+                return obj == this || obj instanceof While &&
                         condition.equals(((While) obj).condition) &&
                         statements.equals(((While) obj).statements);
             }
@@ -446,9 +599,19 @@ public abstract class Ast {
                 return value;
             }
 
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
+            @Override
+            int hash() {
+                return Objects.hash(9, value);
+            }
+
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof Return &&
+                return obj == this || obj instanceof Return &&
                         value.equals(((Return) obj).value);
             }
 
@@ -492,9 +655,19 @@ public abstract class Ast {
                 this.type = type;
             }
 
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
+            @Override
+            int hash() {
+                return Objects.hash(10, literal);
+            }
+
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof Literal &&
+                return obj == this || obj instanceof Literal &&
                         Objects.equals(literal, ((Literal) obj).literal) &&
                         Objects.equals(type, ((Literal) obj).type);
             }
@@ -533,9 +706,20 @@ public abstract class Ast {
             public void setType(Environment.Type type) {
                 this.type = type;
             }
+
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
+            @Override
+            int hash() {
+                return Objects.hash(11, expression);
+            }
+
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof Group &&
+                return obj == this || obj instanceof Group &&
                         expression.equals(((Group) obj).expression) &&
                         Objects.equals(type, ((Group) obj).type);
             }
@@ -587,9 +771,19 @@ public abstract class Ast {
                 this.type = type;
             }
 
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
+            @Override
+            int hash() {
+                return Objects.hash(12, operator, left, right);
+            }
+
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof Binary &&
+                return obj == this || obj instanceof Binary &&
                         operator.equals(((Binary) obj).operator) &&
                         left.equals(((Binary) obj).left) &&
                         right.equals(((Binary) obj).right) &&
@@ -643,9 +837,19 @@ public abstract class Ast {
                 return getVariable().getType();
             }
 
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
+            @Override
+            int hash() {
+                return Objects.hash(13, receiver, name);
+            }
+
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof Access &&
+                return obj == this || obj instanceof Access &&
                         receiver.equals(((Access) obj).receiver) &&
                         name.equals(((Access) obj).name) &&
                         Objects.equals(variable, ((Access) obj).variable);
@@ -703,9 +907,19 @@ public abstract class Ast {
                 return getFunction().getReturnType();
             }
 
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
+            @Override
+            int hash() {
+                return Objects.hash(14, receiver, name, arguments);
+            }
+
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof Function &&
+                return obj == this || obj instanceof Function &&
                         receiver.equals(((Function) obj).receiver) &&
                         name.equals(((Function) obj).name) &&
                         arguments.equals(((Function) obj).arguments) &&
@@ -729,39 +943,7 @@ public abstract class Ast {
     public interface Visitor<T> {
 
         default T visit(Ast ast) {
-            if (ast instanceof Source) {
-                return visit((Source) ast);
-            } else if (ast instanceof Field) {
-                return visit((Field) ast);
-            } else if (ast instanceof Method) {
-                return visit((Method) ast);
-            } else if (ast instanceof Stmt.Expression) {
-                return visit((Stmt.Expression) ast);
-            } else if (ast instanceof Stmt.Declaration) {
-                return visit((Stmt.Declaration) ast);
-            } else if (ast instanceof Stmt.Assignment) {
-                return visit((Stmt.Assignment) ast);
-            } else if (ast instanceof Stmt.If) {
-                return visit((Stmt.If) ast);
-            } else if (ast instanceof Stmt.For) {
-                return visit((Stmt.For) ast);
-            } else if (ast instanceof Stmt.While) {
-                return visit((Stmt.While) ast);
-            } else if (ast instanceof Stmt.Return) {
-                return visit((Stmt.Return) ast);
-            } else if (ast instanceof Expr.Literal) {
-                return visit((Expr.Literal) ast);
-            } else if (ast instanceof Expr.Group) {
-                return visit((Expr.Group) ast);
-            } else if (ast instanceof Expr.Binary) {
-                return visit((Expr.Binary) ast);
-            } else if (ast instanceof Expr.Access) {
-                return visit((Expr.Access) ast);
-            } else if (ast instanceof Expr.Function) {
-                return visit((Expr.Function) ast);
-            } else {
-                throw new AssertionError("Unimplemented AST type: " + ast.getClass().getName() + ".");
-            }
+            return ast.accept(this);
         }
 
         T visit(Source ast);
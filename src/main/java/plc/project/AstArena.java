@@ -0,0 +1,495 @@
+package plc.project;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * An {@link Ast.Source} flattened into a few arrays, a fraction of the size of
+ * the tree of objects, which can be converted to and from the {@link Ast}
+ * classes so code can move over to it a piece at a time.
+ *
+ * Nodes are numbered in pre-order, so the children of a node come right
+ * after it and its whole subtree is the range from it to its end, where its
+ * next sibling is. Per node there is a {@link Kind}, the end, a name (an index
+ * into the table of strings) and an int whose meaning depends on the kind:
+ *
+ * <ul>
+ *     <li>{@link Kind#SOURCE}: the number of fields, the children after them
+ *     being methods.</li>
+ *     <li>{@link Kind#FIELD} and {@link Kind#DECLARATION}: the type name, as
+ *     a string index or -1. Its value, if any, is the child.</li>
+ *     <li>{@link Kind#METHOD}: where its parameters, their type names and its
+ *     return type name start in a table of signatures.</li>
+ *     <li>{@link Kind#IF}: the number of then statements, the children after
+ *     the condition and them being else statements.</li>
+ *     <li>{@link Kind#ACCESS} and {@link Kind#FUNCTION}: 1 if the first child
+ *     is a receiver, otherwise 0.</li>
+ *     <li>{@link Kind#LITERAL}: an index into the table of literals.</li>
+ * </ul>
+ *
+ * A binary expression's name is its operator. Only what the parser produces
+ * is kept; the variables, functions and types the {@link Analyzer} fills in
+ * are not.
+ */
+public final class AstArena {
+
+    public enum Kind {
+        SOURCE, FIELD, METHOD,
+        EXPRESSION, DECLARATION, ASSIGNMENT, IF, FOR, WHILE, RETURN,
+        LITERAL, GROUP, BINARY, ACCESS, FUNCTION
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+
+    private final byte[] kinds;
+    private final int[] ends;
+    private final int[] names;
+    private final int[] data;
+    private final String[] strings;
+    private final Object[] literals;
+    //per method its parameter count and names, type name count and names,
+    //and return type name or -1
+    private final int[] signatures;
+
+    private AstArena(Builder builder) {
+        this.kinds = Arrays.copyOf(builder.kinds, builder.size);
+        this.ends = Arrays.copyOf(builder.ends, builder.size);
+        this.names = Arrays.copyOf(builder.names, builder.size);
+        this.data = Arrays.copyOf(builder.data, builder.size);
+        this.strings = builder.strings.toArray(new String[0]);
+        this.literals = builder.literals.toArray();
+        this.signatures = Arrays.copyOf(builder.signatures, builder.signatureSize);
+    }
+
+    public static AstArena of(Ast.Source source) {
+        Builder builder = new Builder();
+        AstWalker.walk(source, builder);
+        return new AstArena(builder);
+    }
+
+    /**
+     * Returns the number of nodes, the root being node 0.
+     */
+    public int size() {
+        return kinds.length;
+    }
+
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    public Kind getKind(int node) {
+        return KINDS[kinds[node]];
+    }
+
+    /**
+     * Returns the node after the subtree of the given one.
+     */
+    public int getEnd(int node) {
+        return ends[node];
+    }
+
+    public int getChildCount(int node) {
+        int count = 0;
+        for(int child = node + 1; child < ends[node]; child = ends[child]) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the name of a field, method, declaration, for loop, access or
+     * function, or the operator of a binary expression, otherwise null.
+     */
+    public String getName(int node) {
+        return string(names[node]);
+    }
+
+    /**
+     * Returns the type name of a field or declaration, or null if it has
+     * none.
+     */
+    public String getTypeName(int node) {
+        Kind kind = getKind(node);
+        return kind == Kind.FIELD || kind == Kind.DECLARATION ? string(data[node]) : null;
+    }
+
+    public Object getLiteral(int node) {
+        check(node, Kind.LITERAL);
+        return literals[data[node]];
+    }
+
+    public List<String> getParameters(int node) {
+        check(node, Kind.METHOD);
+        return strings(data[node]);
+    }
+
+    public List<String> getParameterTypeNames(int node) {
+        check(node, Kind.METHOD);
+        return strings(data[node] + signatures[data[node]] + 1);
+    }
+
+    public Optional<String> getReturnTypeName(int node) {
+        check(node, Kind.METHOD);
+        int types = data[node] + signatures[data[node]] + 1;
+        return Optional.ofNullable(string(signatures[types + signatures[types] + 1]));
+    }
+
+    public int getFieldCount(int node) {
+        check(node, Kind.SOURCE);
+        return data[node];
+    }
+
+    public int getThenCount(int node) {
+        check(node, Kind.IF);
+        return data[node];
+    }
+
+    public boolean hasReceiver(int node) {
+        Kind kind = getKind(node);
+        return (kind == Kind.ACCESS || kind == Kind.FUNCTION) && data[node] != 0;
+    }
+
+    public Ast.Source toSource() {
+        return (Ast.Source) toAst(0);
+    }
+
+    /**
+     * Returns the subtree of the node as a tree of {@link Ast} objects.
+     */
+    public Ast toAst(int node) {
+        //built in reverse pre-order, without recursion so subtrees of any
+        //depth can be, each node after its children which are then on top of
+        //the stack, the first one topmost
+        ArrayDeque<Ast> built = new ArrayDeque<>();
+        for(int i = ends[node] - 1; i >= node; i--) {
+            List<Ast> children = new ArrayList<>();
+            for(int child = i + 1; child < ends[i]; child = ends[child]) {
+                children.add(built.pop());
+            }
+            built.push(toAst(i, children));
+        }
+        return built.pop();
+    }
+
+    //the node made from its children, already converted
+    private Ast toAst(int node, List<Ast> children) {
+        switch(getKind(node)) {
+            case SOURCE:
+                List<Ast.Field> fields = new ArrayList<>();
+                List<Ast.Method> methods = new ArrayList<>();
+                for(Ast child : children) {
+                    if(fields.size() < data[node]) {
+                        fields.add((Ast.Field) child);
+                    }
+                    else {
+                        methods.add((Ast.Method) child);
+                    }
+                }
+                return new Ast.Source(fields, methods);
+            case FIELD:
+                return new Ast.Field(getName(node), getTypeName(node), optional(children));
+            case METHOD:
+                return new Ast.Method(getName(node), getParameters(node), getParameterTypeNames(node),
+                        getReturnTypeName(node), statements(children, 0, children.size()));
+            case EXPRESSION:
+                return new Ast.Stmt.Expression((Ast.Expr) children.get(0));
+            case DECLARATION:
+                return new Ast.Stmt.Declaration(getName(node), Optional.ofNullable(getTypeName(node)), optional(children));
+            case ASSIGNMENT:
+                return new Ast.Stmt.Assignment((Ast.Expr) children.get(0), (Ast.Expr) children.get(1));
+            case IF:
+                int elses = 1 + data[node];
+                return new Ast.Stmt.If((Ast.Expr) children.get(0), statements(children, 1, elses), statements(children, elses, children.size()));
+            case FOR:
+                return new Ast.Stmt.For(getName(node), (Ast.Expr) children.get(0), statements(children, 1, children.size()));
+            case WHILE:
+                return new Ast.Stmt.While((Ast.Expr) children.get(0), statements(children, 1, children.size()));
+            case RETURN:
+                return new Ast.Stmt.Return((Ast.Expr) children.get(0));
+            case LITERAL:
+                return new Ast.Expr.Literal(getLiteral(node));
+            case GROUP:
+                return new Ast.Expr.Group((Ast.Expr) children.get(0));
+            case BINARY:
+                return new Ast.Expr.Binary(getName(node), (Ast.Expr) children.get(0), (Ast.Expr) children.get(1));
+            case ACCESS:
+                return new Ast.Expr.Access(optional(children), getName(node));
+            case FUNCTION:
+                Optional<Ast.Expr> receiver = Optional.empty();
+                int first = 0;
+                if(data[node] != 0) {
+                    receiver = Optional.of((Ast.Expr) children.get(first++));
+                }
+                List<Ast.Expr> arguments = new ArrayList<>();
+                for(int i = first; i < children.size(); i++) {
+                    arguments.add((Ast.Expr) children.get(i));
+                }
+                return new Ast.Expr.Function(receiver, getName(node), arguments);
+            default:
+                throw new AssertionError(getKind(node));
+        }
+    }
+
+    private static List<Ast.Stmt> statements(List<Ast> children, int from, int to) {
+        List<Ast.Stmt> statements = new ArrayList<>();
+        for(int i = from; i < to; i++) {
+            statements.add((Ast.Stmt) children.get(i));
+        }
+        return statements;
+    }
+
+    //the child of a node which has at most one, as an optional
+    private static Optional<Ast.Expr> optional(List<Ast> children) {
+        return children.isEmpty() ? Optional.empty() : Optional.of((Ast.Expr) children.get(0));
+    }
+
+    private String string(int index) {
+        return index >= 0 ? strings[index] : null;
+    }
+
+    private List<String> strings(int index) {
+        List<String> strings = new ArrayList<>(signatures[index]);
+        for(int i = 1; i <= signatures[index]; i++) {
+            strings.add(this.strings[signatures[index + i]]);
+        }
+        return strings;
+    }
+
+    private void check(int node, Kind kind) {
+        if(getKind(node) != kind) {
+            throw new IllegalArgumentException("Node " + node + " is " + getKind(node) + ", not " + kind + ".");
+        }
+    }
+
+    /**
+     * A position in the arena which can move to the first child, next sibling
+     * or parent of its node, starting at the root. The parents are kept on a
+     * stack, so moving around is constant time.
+     */
+    public final class Cursor {
+
+        private int node = 0;
+        private int[] parents = new int[16];
+        private int depth = 0;
+
+        private Cursor() {}
+
+        public int getNode() {
+            return node;
+        }
+
+        public Kind getKind() {
+            return AstArena.this.getKind(node);
+        }
+
+        public String getName() {
+            return AstArena.this.getName(node);
+        }
+
+        public int getDepth() {
+            return depth;
+        }
+
+        public boolean firstChild() {
+            if(node + 1 == ends[node]) {
+                return false;
+            }
+            if(depth == parents.length) {
+                parents = Arrays.copyOf(parents, depth * 2);
+            }
+            parents[depth++] = node;
+            node++;
+            return true;
+        }
+
+        public boolean nextSibling() {
+            if(depth == 0 || ends[node] == ends[parents[depth - 1]]) {
+                return false;
+            }
+            node = ends[node];
+            return true;
+        }
+
+        public boolean parent() {
+            if(depth == 0) {
+                return false;
+            }
+            node = parents[--depth];
+            return true;
+        }
+
+    }
+
+    /**
+     * Adds each node as it is entered in a walk, and sets its end as it is
+     * exited, after its subtree was added.
+     */
+    private static final class Builder implements Ast.Visitor<Integer>, AstWalker.Listener {
+
+        private byte[] kinds = new byte[1024];
+        private int[] ends = new int[1024];
+        private int[] names = new int[1024];
+        private int[] data = new int[1024];
+        private int size = 0;
+        private final List<String> strings = new ArrayList<>();
+        private final Map<String, Integer> numbers = new HashMap<>();
+        private final List<Object> literals = new ArrayList<>();
+        //literals which are equal and of the same class share an index
+        private final Map<Object, Integer> literalNumbers = new HashMap<>();
+        private int[] signatures = new int[256];
+        private int signatureSize = 0;
+        //the nodes entered but not yet exited
+        private final ArrayDeque<Integer> open = new ArrayDeque<>();
+
+        @Override
+        public void enter(Ast ast) {
+            open.push(visit(ast));
+        }
+
+        @Override
+        public void exit(Ast ast) {
+            ends[open.pop()] = size;
+        }
+
+        @Override
+        public Integer visit(Ast.Source ast) {
+            return node(Kind.SOURCE, -1, ast.getFields().size());
+        }
+
+        @Override
+        public Integer visit(Ast.Field ast) {
+            return node(Kind.FIELD, string(ast.getName()), string(ast.getTypeName()));
+        }
+
+        @Override
+        public Integer visit(Ast.Method ast) {
+            int signature = signatureSize;
+            signature(ast.getParameters());
+            signature(ast.getParameterTypeNames());
+            signature(string(ast.getReturnTypeName().orElse(null)));
+            return node(Kind.METHOD, string(ast.getName()), signature);
+        }
+
+        @Override
+        public Integer visit(Ast.Stmt.Expression ast) {
+            return node(Kind.EXPRESSION, -1, 0);
+        }
+
+        @Override
+        public Integer visit(Ast.Stmt.Declaration ast) {
+            return node(Kind.DECLARATION, string(ast.getName()), string(ast.getTypeName().orElse(null)));
+        }
+
+        @Override
+        public Integer visit(Ast.Stmt.Assignment ast) {
+            return node(Kind.ASSIGNMENT, -1, 0);
+        }
+
+        @Override
+        public Integer visit(Ast.Stmt.If ast) {
+            return node(Kind.IF, -1, ast.getThenStatements().size());
+        }
+
+        @Override
+        public Integer visit(Ast.Stmt.For ast) {
+            return node(Kind.FOR, string(ast.getName()), 0);
+        }
+
+        @Override
+        public Integer visit(Ast.Stmt.While ast) {
+            return node(Kind.WHILE, -1, 0);
+        }
+
+        @Override
+        public Integer visit(Ast.Stmt.Return ast) {
+            return node(Kind.RETURN, -1, 0);
+        }
+
+        @Override
+        public Integer visit(Ast.Expr.Literal ast) {
+            Object literal = ast.getLiteral();
+            if(literal != null && !(literal instanceof Boolean || literal instanceof Character
+                    || literal instanceof String || literal instanceof BigInteger || literal instanceof BigDecimal)) {
+                throw new IllegalArgumentException("Unsupported literal " + literal.getClass().getName() + ".");
+            }
+            //BigDecimals equal in value but not scale aren't equal, and
+            //classes differ by type, so equal keys are the same literal
+            List<Object> key = Arrays.asList(literal == null ? null : literal.getClass(), literal);
+            Integer number = literalNumbers.get(key);
+            if(number == null) {
+                number = literals.size();
+                literals.add(literal);
+                literalNumbers.put(key, number);
+            }
+            return node(Kind.LITERAL, -1, number);
+        }
+
+        @Override
+        public Integer visit(Ast.Expr.Group ast) {
+            return node(Kind.GROUP, -1, 0);
+        }
+
+        @Override
+        public Integer visit(Ast.Expr.Binary ast) {
+            return node(Kind.BINARY, string(ast.getOperator()), 0);
+        }
+
+        @Override
+        public Integer visit(Ast.Expr.Access ast) {
+            return node(Kind.ACCESS, string(ast.getName()), ast.getReceiver().isPresent() ? 1 : 0);
+        }
+
+        @Override
+        public Integer visit(Ast.Expr.Function ast) {
+            return node(Kind.FUNCTION, string(ast.getName()), ast.getReceiver().isPresent() ? 1 : 0);
+        }
+
+        private int node(Kind kind, int name, int value) {
+            if(size == kinds.length) {
+                kinds = Arrays.copyOf(kinds, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+                names = Arrays.copyOf(names, size * 2);
+                data = Arrays.copyOf(data, size * 2);
+            }
+            kinds[size] = (byte) kind.ordinal();
+            names[size] = name;
+            data[size] = value;
+            return size++;
+        }
+
+        private int string(String string) {
+            if(string == null) {
+                return -1;
+            }
+            Integer number = numbers.get(string);
+            if(number == null) {
+                number = strings.size();
+                strings.add(string);
+                numbers.put(string, number);
+            }
+            return number;
+        }
+
+        private void signature(List<String> strings) {
+            signature(strings.size());
+            strings.forEach(string -> signature(string(string)));
+        }
+
+        private void signature(int value) {
+            if(signatureSize == signatures.length) {
+                signatures = Arrays.copyOf(signatures, signatureSize * 2);
+            }
+            signatures[signatureSize++] = value;
+        }
+
+    }
+
+}
@@ -0,0 +1,775 @@
+package plc.project;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * A compact binary form of an {@link Ast.Source}, as stored by {@link
+ * ProgramCache}.
+ *
+ * Each node is a tag byte followed by what it holds besides its children,
+ * such as its name and how many statements it has, and then its children in
+ * the order of its constructor. Counts and lengths are varints. Names and
+ * string literals go through a table, so a name repeated in a program (which
+ * most are) is written once and then referred to by its number. Only what
+ * the parser produces is encoded, unless the AST is encoded as analyzed, in
+ * which case the variables, functions and types the {@link Analyzer} filled
+ * in follow the rest of the nodes they were set on, before their children,
+ * as in {@link AstImage}.
+ *
+ * As the nodes are in pre-order, they are encoded and decoded without
+ * recursion, so trees of any depth can be, such as those parsed with {@link
+ * Parser#withExplicitStack}.
+ *
+ * In an analyzed AST, types are written by name and read back as the type
+ * {@link Environment#getType registered} under it, so only registered types
+ * can be encoded. Variables and functions go through tables like strings,
+ * so nodes which shared one still do after decoding. Their values aren't
+ * kept: variables start out as {@link Environment#NIL} and functions return
+ * it, as those the Analyzer defines do. Nodes the Analyzer didn't get to,
+ * such as those in the branch of an IF it skips, stay unset.
+ */
+public final class AstCodec {
+
+    //the root, which isn't tagged as it always comes first
+    private static final byte SOURCE = 0;
+    private static final byte FIELD = 1;
+    private static final byte METHOD = 2;
+    private static final byte EXPRESSION = 3;
+    private static final byte DECLARATION = 4;
+    private static final byte ASSIGNMENT = 5;
+    private static final byte IF = 6;
+    private static final byte FOR = 7;
+    private static final byte WHILE = 8;
+    private static final byte RETURN = 9;
+    private static final byte LITERAL = 10;
+    private static final byte GROUP = 11;
+    private static final byte BINARY = 12;
+    private static final byte ACCESS = 13;
+    private static final byte FUNCTION = 14;
+
+    //kinds of literal values
+    private static final byte NIL = 0;
+    private static final byte TRUE = 1;
+    private static final byte FALSE = 2;
+    private static final byte CHARACTER = 3;
+    private static final byte STRING = 4;
+    private static final byte INTEGER = 5;
+    private static final byte DECIMAL = 6;
+
+    private AstCodec() {}
+
+    public static byte[] encode(Ast.Source source) {
+        ByteOutput output = new ByteOutput(1024);
+        encode(source, output);
+        return output.toByteArray();
+    }
+
+    static void encode(Ast.Source source, ByteOutput output) {
+        AstWalker.walk(source, new Encoder(output, false));
+    }
+
+    /**
+     * Encodes an AST the {@link Analyzer} has visited, along with what it
+     * filled in.
+     */
+    static void encodeAnalyzed(Ast.Source source, ByteOutput output) {
+        AstWalker.walk(source, new Encoder(output, true));
+    }
+
+    /**
+     * Reads an AST written by {@link #encode}, from the position of the
+     * buffer on.
+     */
+    public static Ast.Source decode(ByteBuffer input) throws IOException {
+        try {
+            return new Decoder(input, false).source();
+        } catch (BufferUnderflowException | ClassCastException | NegativeArraySizeException e) {
+            //cut off, a node where another kind belongs, or a garbage length
+            throw new IOException("Malformed AST.", e);
+        }
+    }
+
+    /**
+     * Reads an AST written by {@link #encodeAnalyzed}, from the position of
+     * the buffer on.
+     */
+    static Ast.Source decodeAnalyzed(ByteBuffer input) throws IOException {
+        try {
+            return new Decoder(input, true).source();
+        } catch (BufferUnderflowException | ClassCastException | NegativeArraySizeException e) {
+            throw new IOException("Malformed AST.", e);
+        }
+    }
+
+    /**
+     * Writes each node as it is entered in a walk, its children being written
+     * after it.
+     */
+    private static final class Encoder implements Ast.Visitor<Void>, AstWalker.Listener {
+
+        private final ByteOutput output;
+        private final boolean analyzed;
+        private final Map<String, Integer> strings = new HashMap<>();
+        private final Map<Environment.Variable, Integer> variables = new IdentityHashMap<>();
+        private final Map<Environment.Function, Integer> functions = new IdentityHashMap<>();
+
+        private Encoder(ByteOutput output, boolean analyzed) {
+            this.output = output;
+            this.analyzed = analyzed;
+        }
+
+        @Override
+        public void enter(Ast ast) {
+            visit(ast);
+        }
+
+        @Override
+        public Void visit(Ast.Source ast) {
+            count(ast.getFields().size());
+            count(ast.getMethods().size());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Field ast) {
+            tag(FIELD);
+            string(ast.getName());
+            string(ast.getTypeName());
+            present(ast.getValue());
+            if(analyzed) {
+                variable(bound(ast::getVariable));
+            }
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Method ast) {
+            tag(METHOD);
+            string(ast.getName());
+            strings(ast.getParameters());
+            strings(ast.getParameterTypeNames());
+            optionalString(ast.getReturnTypeName());
+            count(ast.getStatements().size());
+            if(analyzed) {
+                function(bound(ast::getFunction));
+            }
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Stmt.Expression ast) {
+            tag(EXPRESSION);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Stmt.Declaration ast) {
+            tag(DECLARATION);
+            string(ast.getName());
+            optionalString(ast.getTypeName());
+            present(ast.getValue());
+            if(analyzed) {
+                variable(bound(ast::getVariable));
+            }
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Stmt.Assignment ast) {
+            tag(ASSIGNMENT);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Stmt.If ast) {
+            tag(IF);
+            count(ast.getThenStatements().size());
+            count(ast.getElseStatements().size());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Stmt.For ast) {
+            tag(FOR);
+            string(ast.getName());
+            count(ast.getStatements().size());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Stmt.While ast) {
+            tag(WHILE);
+            count(ast.getStatements().size());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Stmt.Return ast) {
+            tag(RETURN);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expr.Literal ast) {
+            tag(LITERAL);
+            Object literal = ast.getLiteral();
+            if(literal == null) {
+                output.writeByte(NIL);
+            }
+            else if(literal instanceof Boolean) {
+                output.writeByte((Boolean) literal ? TRUE : FALSE);
+            }
+            else if(literal instanceof Character) {
+                output.writeByte(CHARACTER);
+                output.writeChar((Character) literal);
+            }
+            else if(literal instanceof String) {
+                output.writeByte(STRING);
+                string((String) literal);
+            }
+            else if(literal instanceof BigInteger) {
+                output.writeByte(INTEGER);
+                bytes(((BigInteger) literal).toByteArray());
+            }
+            else if(literal instanceof BigDecimal) {
+                output.writeByte(DECIMAL);
+                bytes(((BigDecimal) literal).unscaledValue().toByteArray());
+                output.writeInt(((BigDecimal) literal).scale());
+            }
+            else {
+                throw new IllegalArgumentException("Unsupported literal " + literal.getClass().getName() + ".");
+            }
+            if(analyzed) {
+                type(bound(ast::getType));
+            }
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expr.Group ast) {
+            tag(GROUP);
+            if(analyzed) {
+                type(bound(ast::getType));
+            }
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expr.Binary ast) {
+            tag(BINARY);
+            string(ast.getOperator());
+            if(analyzed) {
+                type(bound(ast::getType));
+            }
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expr.Access ast) {
+            tag(ACCESS);
+            present(ast.getReceiver());
+            string(ast.getName());
+            if(analyzed) {
+                variable(bound(ast::getVariable));
+            }
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expr.Function ast) {
+            tag(FUNCTION);
+            present(ast.getReceiver());
+            string(ast.getName());
+            count(ast.getArguments().size());
+            if(analyzed) {
+                function(bound(ast::getFunction));
+            }
+            return null;
+        }
+
+        //whether an optional child follows
+        private void present(Optional<? extends Ast> ast) {
+            count(ast.isPresent() ? 1 : 0);
+        }
+
+        private void optionalString(Optional<String> string) {
+            count(string.isPresent() ? 1 : 0);
+            string.ifPresent(this::string);
+        }
+
+        private void strings(List<String> strings) {
+            count(strings.size());
+            strings.forEach(this::string);
+        }
+
+        //a string is its number in the table, followed by its chars as
+        //varints (lone surrogates included) the first time it is written
+        private void string(String string) {
+            Integer number = strings.get(string);
+            if(number != null) {
+                count(number);
+                return;
+            }
+            count(strings.size());
+            strings.put(string, strings.size());
+            count(string.length());
+            for(int i = 0; i < string.length(); i++) {
+                count(string.charAt(i));
+            }
+        }
+
+        //the getters throw for what the Analyzer didn't set
+        private static <T> T bound(Supplier<T> getter) {
+            try {
+                return getter.get();
+            } catch (IllegalStateException e) {
+                return null;
+            }
+        }
+
+        //types, variables and functions are 0 if unset
+        private void type(Environment.Type type) {
+            if(type == null) {
+                count(0);
+                return;
+            }
+            count(1);
+            if(Environment.getType(type.getName()) != type) {
+                throw new IllegalArgumentException("Unregistered type " + type.getName() + ".");
+            }
+            string(type.getName());
+        }
+
+        //variables and functions are otherwise numbered from 1 like strings
+        private void variable(Environment.Variable variable) {
+            if(variable == null) {
+                count(0);
+                return;
+            }
+            Integer number = variables.get(variable);
+            if(number != null) {
+                count(number + 1);
+                return;
+            }
+            count(variables.size() + 1);
+            variables.put(variable, variables.size());
+            string(variable.getName());
+            string(variable.getJvmName());
+            type(variable.getType());
+        }
+
+        private void function(Environment.Function function) {
+            if(function == null) {
+                count(0);
+                return;
+            }
+            Integer number = functions.get(function);
+            if(number != null) {
+                count(number + 1);
+                return;
+            }
+            count(functions.size() + 1);
+            functions.put(function, functions.size());
+            string(function.getName());
+            string(function.getJvmName());
+            count(function.getParameterTypes().size());
+            function.getParameterTypes().forEach(this::type);
+            type(function.getReturnType());
+        }
+
+        private void bytes(byte[] bytes) {
+            count(bytes.length);
+            output.write(bytes, 0, bytes.length);
+        }
+
+        private void tag(byte tag) {
+            output.writeByte(tag);
+        }
+
+        private void count(int count) {
+            output.writeVarint(count);
+        }
+
+    }
+
+    private static final class Decoder {
+
+        private final ByteBuffer input;
+        private final boolean analyzed;
+        private final List<String> strings = new ArrayList<>();
+        private final List<Environment.Variable> variables = new ArrayList<>();
+        private final List<Environment.Function> functions = new ArrayList<>();
+
+        private Decoder(ByteBuffer input, boolean analyzed) {
+            this.input = input;
+            this.analyzed = analyzed;
+        }
+
+        private Ast.Source source() throws IOException {
+            //each node is built once its children are, from a stack of the
+            //nodes still missing some, and the children are kept on another
+            //until then
+            Partial source = new Partial(SOURCE);
+            source.first = count();
+            source.count = source.first + count();
+            ArrayDeque<Partial> open = new ArrayDeque<>();
+            ArrayList<Ast> built = new ArrayList<>();
+            open.push(source);
+            while(!open.isEmpty()) {
+                Partial node = open.peek();
+                if(node.built < node.count) {
+                    open.push(header());
+                }
+                else {
+                    open.pop();
+                    List<Ast> children = built.subList(built.size() - node.count, built.size());
+                    Ast ast = create(node, children);
+                    if(analyzed) {
+                        bind(ast, node.binding);
+                    }
+                    children.clear();
+                    built.add(ast);
+                    if(!open.isEmpty()) {
+                        open.peek().built++;
+                    }
+                }
+            }
+            return (Ast.Source) built.get(0);
+        }
+
+        //reads a node up to its children
+        private Partial header() throws IOException {
+            Partial node = new Partial(input.get());
+            switch(node.tag) {
+                case FIELD:
+                    node.name = string();
+                    node.typeName = Optional.of(string());
+                    node.count = flag();
+                    break;
+                case METHOD:
+                    node.name = string();
+                    node.parameters = strings();
+                    node.parameterTypeNames = strings();
+                    node.typeName = optionalString();
+                    node.count = count();
+                    break;
+                case EXPRESSION:
+                case RETURN:
+                case GROUP:
+                    node.count = 1;
+                    break;
+                case DECLARATION:
+                    node.name = string();
+                    node.typeName = optionalString();
+                    node.count = flag();
+                    break;
+                case ASSIGNMENT:
+                    node.count = 2;
+                    break;
+                case IF:
+                    node.first = count();
+                    node.count = 1 + node.first + count();
+                    break;
+                case FOR:
+                    node.name = string();
+                    node.count = 1 + count();
+                    break;
+                case WHILE:
+                    node.count = 1 + count();
+                    break;
+                case LITERAL:
+                    node.literal = literal();
+                    break;
+                case BINARY:
+                    node.name = string();
+                    node.count = 2;
+                    break;
+                case ACCESS:
+                    node.first = flag();
+                    node.name = string();
+                    node.count = node.first;
+                    break;
+                case FUNCTION:
+                    node.first = flag();
+                    node.name = string();
+                    node.count = node.first + count();
+                    break;
+                default:
+                    throw new IOException("Unknown node tag " + node.tag + ".");
+            }
+            if(analyzed) {
+                node.binding = binding(node.tag);
+            }
+            return node;
+        }
+
+        private Ast create(Partial node, List<Ast> children) {
+            switch(node.tag) {
+                case SOURCE:
+                    return new Ast.Source(list(children, 0, node.first, Ast.Field.class),
+                            list(children, node.first, children.size(), Ast.Method.class));
+                case FIELD:
+                    return new Ast.Field(node.name, node.typeName.get(), optional(children));
+                case METHOD:
+                    return new Ast.Method(node.name, node.parameters, node.parameterTypeNames, node.typeName,
+                            list(children, 0, children.size(), Ast.Stmt.class));
+                case EXPRESSION:
+                    return new Ast.Stmt.Expression((Ast.Expr) children.get(0));
+                case DECLARATION:
+                    return new Ast.Stmt.Declaration(node.name, node.typeName, optional(children));
+                case ASSIGNMENT:
+                    return new Ast.Stmt.Assignment((Ast.Expr) children.get(0), (Ast.Expr) children.get(1));
+                case IF:
+                    return new Ast.Stmt.If((Ast.Expr) children.get(0), list(children, 1, 1 + node.first, Ast.Stmt.class),
+                            list(children, 1 + node.first, children.size(), Ast.Stmt.class));
+                case FOR:
+                    return new Ast.Stmt.For(node.name, (Ast.Expr) children.get(0), list(children, 1, children.size(), Ast.Stmt.class));
+                case WHILE:
+                    return new Ast.Stmt.While((Ast.Expr) children.get(0), list(children, 1, children.size(), Ast.Stmt.class));
+                case RETURN:
+                    return new Ast.Stmt.Return((Ast.Expr) children.get(0));
+                case LITERAL:
+                    return new Ast.Expr.Literal(node.literal);
+                case GROUP:
+                    return new Ast.Expr.Group((Ast.Expr) children.get(0));
+                case BINARY:
+                    return new Ast.Expr.Binary(node.name, (Ast.Expr) children.get(0), (Ast.Expr) children.get(1));
+                case ACCESS:
+                    return new Ast.Expr.Access(optional(children), node.name);
+                case FUNCTION:
+                    Optional<Ast.Expr> receiver = node.first != 0 ? Optional.of((Ast.Expr) children.get(0)) : Optional.empty();
+                    return new Ast.Expr.Function(receiver, node.name, list(children, node.first, children.size(), Ast.Expr.class));
+                default:
+                    throw new AssertionError(node.tag);
+            }
+        }
+
+        //reads what the Analyzer filled in on a node with the tag, in the
+        //order the encoder writes it
+        private Object binding(byte tag) throws IOException {
+            switch(tag) {
+                case FIELD:
+                case DECLARATION:
+                case ACCESS:
+                    return variable();
+                case METHOD:
+                case FUNCTION:
+                    return function();
+                case LITERAL:
+                case GROUP:
+                case BINARY:
+                    return type();
+                default:
+                    return null;
+            }
+        }
+
+        private void bind(Ast ast, Object binding) {
+            if(ast instanceof Ast.Field) {
+                ((Ast.Field) ast).setVariable((Environment.Variable) binding);
+            }
+            else if(ast instanceof Ast.Method) {
+                ((Ast.Method) ast).setFunction((Environment.Function) binding);
+            }
+            else if(ast instanceof Ast.Stmt.Declaration) {
+                ((Ast.Stmt.Declaration) ast).setVariable((Environment.Variable) binding);
+            }
+            else if(ast instanceof Ast.Expr.Literal) {
+                ((Ast.Expr.Literal) ast).setType((Environment.Type) binding);
+            }
+            else if(ast instanceof Ast.Expr.Group) {
+                ((Ast.Expr.Group) ast).setType((Environment.Type) binding);
+            }
+            else if(ast instanceof Ast.Expr.Binary) {
+                ((Ast.Expr.Binary) ast).setType((Environment.Type) binding);
+            }
+            else if(ast instanceof Ast.Expr.Access) {
+                ((Ast.Expr.Access) ast).setVariable((Environment.Variable) binding);
+            }
+            else if(ast instanceof Ast.Expr.Function) {
+                ((Ast.Expr.Function) ast).setFunction((Environment.Function) binding);
+            }
+        }
+
+        private Environment.Type type() throws IOException {
+            if(ByteOutput.readVarint(input) == 0) {
+                return null;
+            }
+            String name = string();
+            try {
+                return Environment.getType(name);
+            } catch (RuntimeException e) {
+                throw new IOException("Unknown type " + name + ".", e);
+            }
+        }
+
+        private Environment.Variable variable() throws IOException {
+            int number = ByteOutput.readVarint(input) - 1;
+            if(number < 0) {
+                return null;
+            }
+            if(number < variables.size()) {
+                return variables.get(number);
+            }
+            if(number != variables.size()) {
+                throw new IOException("Variable " + number + " out of order.");
+            }
+            Environment.Variable variable = new Environment.Variable(string(), string(), type(), Environment.NIL);
+            variables.add(variable);
+            return variable;
+        }
+
+        private Environment.Function function() throws IOException {
+            int number = ByteOutput.readVarint(input) - 1;
+            if(number < 0) {
+                return null;
+            }
+            if(number < functions.size()) {
+                return functions.get(number);
+            }
+            if(number != functions.size()) {
+                throw new IOException("Function " + number + " out of order.");
+            }
+            String name = string();
+            String jvmName = string();
+            List<Environment.Type> parameterTypes = new ArrayList<>();
+            for(int i = ByteOutput.readVarint(input); i > 0; i--) {
+                parameterTypes.add(type());
+            }
+            Environment.Function function = new Environment.Function(name, jvmName, parameterTypes, type(), args -> Environment.NIL);
+            functions.add(function);
+            return function;
+        }
+
+        private Object literal() throws IOException {
+            byte kind = input.get();
+            switch(kind) {
+                case NIL:
+                    return null;
+                case TRUE:
+                    return true;
+                case FALSE:
+                    return false;
+                case CHARACTER:
+                    return input.getChar();
+                case STRING:
+                    return string();
+                case INTEGER:
+                    return new BigInteger(magnitude());
+                case DECIMAL:
+                    return new BigDecimal(new BigInteger(magnitude()), input.getInt());
+                default:
+                    throw new IOException("Unknown literal kind " + kind + ".");
+            }
+        }
+
+        //the number of children or strings that follow, each at least a byte
+        private int count() throws IOException {
+            int count = ByteOutput.readVarint(input);
+            if(count < 0 || count > input.remaining()) {
+                throw new IOException("Invalid count " + count + ".");
+            }
+            return count;
+        }
+
+        //1 if an optional child follows, otherwise 0
+        private int flag() throws IOException {
+            return ByteOutput.readVarint(input) != 0 ? 1 : 0;
+        }
+
+        private static <T extends Ast> List<T> list(List<Ast> children, int from, int to, Class<T> type) {
+            List<T> list = new ArrayList<>();
+            for(int i = from; i < to; i++) {
+                list.add(type.cast(children.get(i)));
+            }
+            return list;
+        }
+
+        //the child of a node which has at most one, as an optional
+        private static Optional<Ast.Expr> optional(List<Ast> children) {
+            return children.isEmpty() ? Optional.empty() : Optional.of((Ast.Expr) children.get(0));
+        }
+
+        private Optional<String> optionalString() throws IOException {
+            return ByteOutput.readVarint(input) == 0 ? Optional.empty() : Optional.of(string());
+        }
+
+        private List<String> strings() throws IOException {
+            List<String> strings = new ArrayList<>();
+            for(int i = ByteOutput.readVarint(input); i > 0; i--) {
+                strings.add(string());
+            }
+            return strings;
+        }
+
+        private String string() throws IOException {
+            int number = ByteOutput.readVarint(input);
+            if(number < strings.size()) {
+                return strings.get(number);
+            }
+            if(number != strings.size()) {
+                throw new IOException("String " + number + " out of order.");
+            }
+            char[] chars = new char[ByteOutput.readVarint(input)];
+            for(int i = 0; i < chars.length; i++) {
+                chars[i] = (char) ByteOutput.readVarint(input);
+            }
+            String string = new String(chars);
+            strings.add(string);
+            return string;
+        }
+
+        private byte[] bytes() throws IOException {
+            byte[] bytes = new byte[ByteOutput.readVarint(input)];
+            input.get(bytes);
+            return bytes;
+        }
+
+        //the bytes of a BigInteger, which has at least one
+        private byte[] magnitude() throws IOException {
+            byte[] bytes = bytes();
+            if(bytes.length == 0) {
+                throw new IOException("Invalid number length 0.");
+            }
+            return bytes;
+        }
+
+        /**
+         * A node read up to its children, which are counted as they are built.
+         */
+        private static final class Partial {
+
+            private final byte tag;
+            private String name;
+            private Optional<String> typeName = Optional.empty();
+            private List<String> parameters;
+            private List<String> parameterTypeNames;
+            private Object literal;
+            //the children in the first group, such as the fields of a source,
+            //the then statements of an IF or the receiver of an access
+            private int first;
+            private int count;
+            private Object binding;
+            private int built;
+
+            private Partial(byte tag) {
+                this.tag = tag;
+            }
+
+        }
+
+    }
+
+}
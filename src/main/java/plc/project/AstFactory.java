@@ -0,0 +1,163 @@
+package plc.project;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Creates nodes hash-consed, so that structurally equal subtrees are the same
+ * object: a literal, access or binary expression repeated across a program,
+ * as in generated code, is stored once, and comparing or hashing consed
+ * nodes, as a memoization cache keyed by subtrees does, takes constant time.
+ *
+ * The methods take the arguments of the node constructors and return the
+ * node created first with equal ones. Children should come from the same
+ * factory, otherwise they are still compared by structure, which is correct
+ * but slower. Names, operators and type names are shared as well. {@link
+ * #intern(Ast)} conses a whole tree, such as one from the {@link Parser}.
+ *
+ * Consed trees must not be analyzed, neither in place nor with an {@link
+ * Analysis}. A consed node can be in several places in a program, which may
+ * need different results, but it can only hold one, and an Analysis keys its
+ * results by node, so the places would be merged there as well. Consing a
+ * tree doesn't carry over its analysis results either, so trees which are
+ * to be analyzed are best left as they are.
+ */
+public final class AstFactory implements AstWalker.Builder {
+
+    private final Map<Ast, Ast> nodes = new HashMap<>();
+    private final Map<String, String> strings = new HashMap<>();
+
+    /**
+     * Returns the number of distinct nodes created so far.
+     */
+    public int size() {
+        return nodes.size();
+    }
+
+    @Override
+    public Ast.Source source(List<Ast.Field> fields, List<Ast.Method> methods) {
+        return cons(new Ast.Source(copy(fields), copy(methods)));
+    }
+
+    @Override
+    public Ast.Field field(String name, String typeName, Optional<Ast.Expr> value) {
+        return cons(new Ast.Field(string(name), string(typeName), value));
+    }
+
+    @Override
+    public Ast.Method method(String name, List<String> parameters, List<String> parameterTypeNames, Optional<String> returnTypeName, List<Ast.Stmt> statements) {
+        return cons(new Ast.Method(string(name), strings(parameters), strings(parameterTypeNames), returnTypeName.map(this::string), copy(statements)));
+    }
+
+    @Override
+    public Ast.Stmt.Expression expressionStatement(Ast.Expr expression) {
+        return cons(new Ast.Stmt.Expression(expression));
+    }
+
+    @Override
+    public Ast.Stmt.Declaration declaration(String name, Optional<String> typeName, Optional<Ast.Expr> value) {
+        return cons(new Ast.Stmt.Declaration(string(name), typeName.map(this::string), value));
+    }
+
+    @Override
+    public Ast.Stmt.Assignment assignment(Ast.Expr receiver, Ast.Expr value) {
+        return cons(new Ast.Stmt.Assignment(receiver, value));
+    }
+
+    @Override
+    public Ast.Stmt.If ifStatement(Ast.Expr condition, List<Ast.Stmt> thenStatements, List<Ast.Stmt> elseStatements) {
+        return cons(new Ast.Stmt.If(condition, copy(thenStatements), copy(elseStatements)));
+    }
+
+    @Override
+    public Ast.Stmt.For forStatement(String name, Ast.Expr value, List<Ast.Stmt> statements) {
+        return cons(new Ast.Stmt.For(string(name), value, copy(statements)));
+    }
+
+    @Override
+    public Ast.Stmt.While whileStatement(Ast.Expr condition, List<Ast.Stmt> statements) {
+        return cons(new Ast.Stmt.While(condition, copy(statements)));
+    }
+
+    @Override
+    public Ast.Stmt.Return returnStatement(Ast.Expr value) {
+        return cons(new Ast.Stmt.Return(value));
+    }
+
+    @Override
+    public Ast.Expr.Literal literal(Object literal) {
+        return cons(new Ast.Expr.Literal(literal instanceof String ? string((String) literal) : literal));
+    }
+
+    @Override
+    public Ast.Expr.Group group(Ast.Expr expression) {
+        return cons(new Ast.Expr.Group(expression));
+    }
+
+    @Override
+    public Ast.Expr.Binary binary(String operator, Ast.Expr left, Ast.Expr right) {
+        return cons(new Ast.Expr.Binary(string(operator), left, right));
+    }
+
+    @Override
+    public Ast.Expr.Access access(Optional<Ast.Expr> receiver, String name) {
+        return cons(new Ast.Expr.Access(receiver, string(name)));
+    }
+
+    @Override
+    public Ast.Expr.Function function(Optional<Ast.Expr> receiver, String name, List<Ast.Expr> arguments) {
+        return cons(new Ast.Expr.Function(receiver, string(name), copy(arguments)));
+    }
+
+    /**
+     * Returns the tree of the node consed, bottom up and without recursion,
+     * so trees of any depth can be consed. Analysis results on the nodes
+     * are dropped, as consed nodes must not have any.
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends Ast> T intern(T ast) {
+        ArrayDeque<Ast> consed = new ArrayDeque<>();
+        AstWalker.walk(ast, new AstWalker.Listener() {
+
+            @Override
+            public void exit(Ast ast) {
+                //the children were consed last, and are on top in reverse
+                Ast[] children = new Ast[AstWalker.children(ast).size()];
+                for(int i = children.length - 1; i >= 0; i--) {
+                    children[i] = consed.pop();
+                }
+                consed.push(AstWalker.rebuild(ast, Arrays.asList(children), AstFactory.this));
+            }
+
+        });
+        return (T) consed.pop();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends Ast> T cons(T ast) {
+        return (T) nodes.computeIfAbsent(ast, key -> key);
+    }
+
+    private String string(String string) {
+        return strings.computeIfAbsent(string, key -> key);
+    }
+
+    private List<String> strings(List<String> list) {
+        List<String> strings = new ArrayList<>(list.size());
+        list.forEach(string -> strings.add(string(string)));
+        return Collections.unmodifiableList(strings);
+    }
+
+    //a consed node is a key of the table, so the caller changing a list it
+    //was created with mustn't change the node, or its cached hash goes stale
+    private static <T> List<T> copy(List<T> list) {
+        return Collections.unmodifiableList(new ArrayList<>(list));
+    }
+
+}
@@ -0,0 +1,63 @@
+package plc.project;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A file holding an analyzed program, so it can be loaded without running the
+ * {@link Lexer}, {@link Parser} and {@link Analyzer} again.
+ *
+ * After a header of a magic number and the version of the format, the AST is
+ * encoded with what the Analyzer filled in as described in {@link AstCodec}.
+ * A file from another version is rejected, so the version has to change with
+ * the encoding. Files are loaded by mapping them into memory and decoding the
+ * nodes straight from the mapping, without reading the file into the heap
+ * first.
+ */
+public final class AstImage {
+
+    private static final int MAGIC = 0x504C4349;
+    private static final int VERSION = 2;
+
+    private AstImage() {}
+
+    /**
+     * Writes the analyzed AST to the file, replacing it as a whole so a
+     * process loading it never sees half of one.
+     */
+    public static void write(Ast.Source ast, Path file) throws IOException {
+        ByteOutput output = new ByteOutput(4096);
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        AstCodec.encodeAnalyzed(ast, output);
+        Path directory = file.toAbsolutePath().getParent();
+        Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temporary, output.toByteArray());
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    public static Ast.Source load(Path file) throws IOException {
+        ByteBuffer image;
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            image = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if(image.remaining() < 8 || image.getInt() != MAGIC) {
+            throw new IOException("Not an AST image.");
+        }
+        int version = image.getInt();
+        if(version != VERSION) {
+            throw new IOException("Unsupported AST image version " + version + ".");
+        }
+        return AstCodec.decodeAnalyzed(image);
+    }
+
+}
@@ -0,0 +1,362 @@
+package plc.project;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Walks an AST without recursion, for trees nested too deeply for the
+ * recursive {@link Ast.Visitor}s, such as those parsed with {@link
+ * Parser#withExplicitStack}.
+ *
+ * The nodes being walked are kept on a stack on the heap. A {@link Listener}
+ * is told when each node is entered, before its children, and exited, after
+ * them. Exits come in post-order, so a listener can compute a value for each
+ * node from those of its children by keeping a stack of the values itself.
+ */
+public final class AstWalker {
+
+    private static final Children CHILDREN = new Children();
+
+    private AstWalker() {}
+
+    public interface Listener {
+
+        default void enter(Ast ast) {}
+
+        default void exit(Ast ast) {}
+
+    }
+
+    /**
+     * Walks the tree of {@code root} depth first, children in the order of
+     * {@link #children(Ast)}.
+     */
+    public static void walk(Ast root, Listener listener) {
+        ArrayDeque<Ast> nodes = new ArrayDeque<>();
+        ArrayDeque<Iterator<Ast>> children = new ArrayDeque<>();
+        listener.enter(root);
+        nodes.push(root);
+        children.push(children(root).iterator());
+        while(!nodes.isEmpty()) {
+            if(children.peek().hasNext()) {
+                Ast child = children.peek().next();
+                listener.enter(child);
+                nodes.push(child);
+                children.push(children(child).iterator());
+            }
+            else {
+                children.pop();
+                listener.exit(nodes.pop());
+            }
+        }
+    }
+
+    /**
+     * Returns the nodes directly under {@code ast}, in the order of its
+     * constructor.
+     */
+    public static List<Ast> children(Ast ast) {
+        return CHILDREN.visit(ast);
+    }
+
+    /**
+     * Returns a node like {@code ast} made by the builder with the given
+     * children in place of its own, which are in the order of {@link
+     * #children(Ast)}, as when rebuilding a tree bottom up from the exits of
+     * a walk.
+     */
+    static Ast rebuild(Ast ast, List<Ast> children, Builder builder) {
+        return new Rebuild(children, builder).visit(ast);
+    }
+
+    /**
+     * Makes the nodes for {@link #rebuild}, which are new nodes unless the
+     * methods are overridden, as {@link AstFactory} does to cons them.
+     */
+    interface Builder {
+
+        default Ast.Source source(List<Ast.Field> fields, List<Ast.Method> methods) {
+            return new Ast.Source(fields, methods);
+        }
+
+        default Ast.Field field(String name, String typeName, Optional<Ast.Expr> value) {
+            return new Ast.Field(name, typeName, value);
+        }
+
+        default Ast.Method method(String name, List<String> parameters, List<String> parameterTypeNames, Optional<String> returnTypeName, List<Ast.Stmt> statements) {
+            return new Ast.Method(name, parameters, parameterTypeNames, returnTypeName, statements);
+        }
+
+        default Ast.Stmt.Expression expressionStatement(Ast.Expr expression) {
+            return new Ast.Stmt.Expression(expression);
+        }
+
+        default Ast.Stmt.Declaration declaration(String name, Optional<String> typeName, Optional<Ast.Expr> value) {
+            return new Ast.Stmt.Declaration(name, typeName, value);
+        }
+
+        default Ast.Stmt.Assignment assignment(Ast.Expr receiver, Ast.Expr value) {
+            return new Ast.Stmt.Assignment(receiver, value);
+        }
+
+        default Ast.Stmt.If ifStatement(Ast.Expr condition, List<Ast.Stmt> thenStatements, List<Ast.Stmt> elseStatements) {
+            return new Ast.Stmt.If(condition, thenStatements, elseStatements);
+        }
+
+        default Ast.Stmt.For forStatement(String name, Ast.Expr value, List<Ast.Stmt> statements) {
+            return new Ast.Stmt.For(name, value, statements);
+        }
+
+        default Ast.Stmt.While whileStatement(Ast.Expr condition, List<Ast.Stmt> statements) {
+            return new Ast.Stmt.While(condition, statements);
+        }
+
+        default Ast.Stmt.Return returnStatement(Ast.Expr value) {
+            return new Ast.Stmt.Return(value);
+        }
+
+        default Ast.Expr.Literal literal(Object literal) {
+            return new Ast.Expr.Literal(literal);
+        }
+
+        default Ast.Expr.Group group(Ast.Expr expression) {
+            return new Ast.Expr.Group(expression);
+        }
+
+        default Ast.Expr.Binary binary(String operator, Ast.Expr left, Ast.Expr right) {
+            return new Ast.Expr.Binary(operator, left, right);
+        }
+
+        default Ast.Expr.Access access(Optional<Ast.Expr> receiver, String name) {
+            return new Ast.Expr.Access(receiver, name);
+        }
+
+        default Ast.Expr.Function function(Optional<Ast.Expr> receiver, String name, List<Ast.Expr> arguments) {
+            return new Ast.Expr.Function(receiver, name, arguments);
+        }
+
+    }
+
+    private static final class Children implements Ast.Visitor<List<Ast>> {
+
+        @Override
+        public List<Ast> visit(Ast.Source ast) {
+            List<Ast> children = new ArrayList<>(ast.getFields());
+            children.addAll(ast.getMethods());
+            return children;
+        }
+
+        @Override
+        public List<Ast> visit(Ast.Field ast) {
+            return of(ast.getValue());
+        }
+
+        @Override
+        public List<Ast> visit(Ast.Method ast) {
+            return new ArrayList<>(ast.getStatements());
+        }
+
+        @Override
+        public List<Ast> visit(Ast.Stmt.Expression ast) {
+            return of(ast.getExpression());
+        }
+
+        @Override
+        public List<Ast> visit(Ast.Stmt.Declaration ast) {
+            return of(ast.getValue());
+        }
+
+        @Override
+        public List<Ast> visit(Ast.Stmt.Assignment ast) {
+            return of(ast.getReceiver(), ast.getValue());
+        }
+
+        @Override
+        public List<Ast> visit(Ast.Stmt.If ast) {
+            List<Ast> children = of(ast.getCondition());
+            children.addAll(ast.getThenStatements());
+            children.addAll(ast.getElseStatements());
+            return children;
+        }
+
+        @Override
+        public List<Ast> visit(Ast.Stmt.For ast) {
+            List<Ast> children = of(ast.getValue());
+            children.addAll(ast.getStatements());
+            return children;
+        }
+
+        @Override
+        public List<Ast> visit(Ast.Stmt.While ast) {
+            List<Ast> children = of(ast.getCondition());
+            children.addAll(ast.getStatements());
+            return children;
+        }
+
+        @Override
+        public List<Ast> visit(Ast.Stmt.Return ast) {
+            return of(ast.getValue());
+        }
+
+        @Override
+        public List<Ast> visit(Ast.Expr.Literal ast) {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public List<Ast> visit(Ast.Expr.Group ast) {
+            return of(ast.getExpression());
+        }
+
+        @Override
+        public List<Ast> visit(Ast.Expr.Binary ast) {
+            return of(ast.getLeft(), ast.getRight());
+        }
+
+        @Override
+        public List<Ast> visit(Ast.Expr.Access ast) {
+            return of(ast.getReceiver());
+        }
+
+        @Override
+        public List<Ast> visit(Ast.Expr.Function ast) {
+            List<Ast> children = of(ast.getReceiver());
+            children.addAll(ast.getArguments());
+            return children;
+        }
+
+        private static List<Ast> of(Ast... children) {
+            List<Ast> list = new ArrayList<>(children.length);
+            for(Ast child : children) {
+                list.add(child);
+            }
+            return list;
+        }
+
+        private static List<Ast> of(Optional<? extends Ast> child) {
+            List<Ast> list = new ArrayList<>(1);
+            child.ifPresent(list::add);
+            return list;
+        }
+
+    }
+
+    private static final class Rebuild implements Ast.Visitor<Ast> {
+
+        private final List<Ast> children;
+        private final Builder builder;
+        private int next = 0;
+
+        private Rebuild(List<Ast> children, Builder builder) {
+            this.children = children;
+            this.builder = builder;
+        }
+
+        @Override
+        public Ast visit(Ast.Source ast) {
+            List<Ast.Field> fields = list(ast.getFields().size());
+            List<Ast.Method> methods = list(ast.getMethods().size());
+            return builder.source(fields, methods);
+        }
+
+        @Override
+        public Ast visit(Ast.Field ast) {
+            return builder.field(ast.getName(), ast.getTypeName(), optional(ast.getValue()));
+        }
+
+        @Override
+        public Ast visit(Ast.Method ast) {
+            return builder.method(ast.getName(), ast.getParameters(), ast.getParameterTypeNames(), ast.getReturnTypeName(),
+                    list(ast.getStatements().size()));
+        }
+
+        @Override
+        public Ast visit(Ast.Stmt.Expression ast) {
+            return builder.expressionStatement(next());
+        }
+
+        @Override
+        public Ast visit(Ast.Stmt.Declaration ast) {
+            return builder.declaration(ast.getName(), ast.getTypeName(), optional(ast.getValue()));
+        }
+
+        @Override
+        public Ast visit(Ast.Stmt.Assignment ast) {
+            Ast.Expr receiver = next();
+            return builder.assignment(receiver, next());
+        }
+
+        @Override
+        public Ast visit(Ast.Stmt.If ast) {
+            Ast.Expr condition = next();
+            List<Ast.Stmt> thenStatements = list(ast.getThenStatements().size());
+            return builder.ifStatement(condition, thenStatements, list(ast.getElseStatements().size()));
+        }
+
+        @Override
+        public Ast visit(Ast.Stmt.For ast) {
+            Ast.Expr value = next();
+            return builder.forStatement(ast.getName(), value, list(ast.getStatements().size()));
+        }
+
+        @Override
+        public Ast visit(Ast.Stmt.While ast) {
+            Ast.Expr condition = next();
+            return builder.whileStatement(condition, list(ast.getStatements().size()));
+        }
+
+        @Override
+        public Ast visit(Ast.Stmt.Return ast) {
+            return builder.returnStatement(next());
+        }
+
+        @Override
+        public Ast visit(Ast.Expr.Literal ast) {
+            return builder.literal(ast.getLiteral());
+        }
+
+        @Override
+        public Ast visit(Ast.Expr.Group ast) {
+            return builder.group(next());
+        }
+
+        @Override
+        public Ast visit(Ast.Expr.Binary ast) {
+            Ast.Expr left = next();
+            return builder.binary(ast.getOperator(), left, next());
+        }
+
+        @Override
+        public Ast visit(Ast.Expr.Access ast) {
+            return builder.access(optional(ast.getReceiver()), ast.getName());
+        }
+
+        @Override
+        public Ast visit(Ast.Expr.Function ast) {
+            Optional<Ast.Expr> receiver = optional(ast.getReceiver());
+            return builder.function(receiver, ast.getName(), list(ast.getArguments().size()));
+        }
+
+        @SuppressWarnings("unchecked")
+        private <T extends Ast> T next() {
+            return (T) children.get(next++);
+        }
+
+        private <T extends Ast> Optional<T> optional(Optional<?> child) {
+            return child.isPresent() ? Optional.of(next()) : Optional.empty();
+        }
+
+        private <T extends Ast> List<T> list(int size) {
+            List<T> list = new ArrayList<>(size);
+            for(int i = 0; i < size; i++) {
+                list.add(next());
+            }
+            return list;
+        }
+
+    }
+
+}
@@ -0,0 +1,108 @@
+package plc.project;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * A growable byte array written by {@link AstCodec} and {@link TokenBuffer}.
+ * Unlike a {@link java.io.ByteArrayOutputStream} behind a {@link
+ * java.io.DataOutputStream} its writes aren't synchronized, which made up
+ * most of the time of encoding a program a byte at a time.
+ *
+ * Ints are big endian like {@link ByteBuffer}'s default, and counts are
+ * varints: 7 bits at a time, low first, with the high bit set on all but the
+ * last byte.
+ */
+final class ByteOutput {
+
+    private byte[] bytes;
+    private int size = 0;
+
+    ByteOutput(int capacity) {
+        this.bytes = new byte[Math.max(capacity, 16)];
+    }
+
+    int size() {
+        return size;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(bytes, size);
+    }
+
+    void writeByte(int value) {
+        ensure(1);
+        bytes[size++] = (byte) value;
+    }
+
+    void writeChar(char value) {
+        ensure(2);
+        bytes[size++] = (byte) (value >>> 8);
+        bytes[size++] = (byte) value;
+    }
+
+    void writeInt(int value) {
+        ensure(4);
+        for(int shift = 24; shift >= 0; shift -= 8) {
+            bytes[size++] = (byte) (value >>> shift);
+        }
+    }
+
+    /**
+     * Overwrites the int at {@code position}, for a length only known after
+     * what it counts was written.
+     */
+    void setInt(int position, int value) {
+        for(int i = 0; i < 4; i++) {
+            bytes[position + i] = (byte) (value >>> (24 - 8 * i));
+        }
+    }
+
+    /**
+     * Returns the CRC-32 of what was written from {@code position} on.
+     */
+    int crc32(int position) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, position, size - position);
+        return (int) crc.getValue();
+    }
+
+    void write(byte[] values, int offset, int length) {
+        ensure(length);
+        System.arraycopy(values, offset, bytes, size, length);
+        size += length;
+    }
+
+    void writeVarint(int value) {
+        ensure(5);
+        while((value & ~0x7F) != 0) {
+            bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[size++] = (byte) value;
+    }
+
+    static int readVarint(ByteBuffer input) throws IOException {
+        int value = 0;
+        for(int shift = 0; shift < 32; shift += 7) {
+            if(!input.hasRemaining()) {
+                throw new IOException("Truncated varint.");
+            }
+            int b = input.get();
+            value |= (b & 0x7F) << shift;
+            if(b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint.");
+    }
+
+    private void ensure(int count) {
+        if(size + count > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + count));
+        }
+    }
+
+}
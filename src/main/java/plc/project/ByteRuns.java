@@ -0,0 +1,113 @@
+package plc.project;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Finds the end of a run of whitespace, identifier or plain string chars in
+ * UTF-8 bytes, eight bytes at a time. Used by {@link Utf8Lexer}.
+ *
+ * A word is read as a little endian {@code long} and every byte is tested at
+ * once with arithmetic which can't carry from one byte into the next (SWAR),
+ * leaving the high bit of each byte set if that byte is in the run. The first
+ * byte that isn't is then the lowest clear bit. Non-ASCII bytes never belong
+ * to a run. The last few bytes of the input are tested one at a time with the
+ * same masks.
+ */
+final class ByteRuns {
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+
+    private ByteRuns() {}
+
+    /**
+     * Returns the end of the run of {@code [\b\n\r\t ]} starting at {@code
+     * from}, which is {@code limit} if it runs to the end.
+     */
+    static int whitespace(ByteBuffer bytes, int from, int limit) {
+        while(from + Long.BYTES <= limit) {
+            long stop = ~whitespace(bytes.getLong(from)) & HIGHS;
+            if(stop != 0) {
+                return from + (Long.numberOfTrailingZeros(stop) >>> 3);
+            }
+            from += Long.BYTES;
+        }
+        while(from < limit && whitespace((char) (bytes.get(from) & 0xFF))) {
+            from++;
+        }
+        return from;
+    }
+
+    /**
+     * Returns the end of the run of {@code [A-Za-z0-9_-]} starting at {@code
+     * from}.
+     */
+    static int identifier(ByteBuffer bytes, int from, int limit) {
+        while(from + Long.BYTES <= limit) {
+            long stop = ~identifier(bytes.getLong(from)) & HIGHS;
+            if(stop != 0) {
+                return from + (Long.numberOfTrailingZeros(stop) >>> 3);
+            }
+            from += Long.BYTES;
+        }
+        while(from < limit && identifier((char) (bytes.get(from) & 0xFF))) {
+            from++;
+        }
+        return from;
+    }
+
+    /**
+     * Returns the end of the run of ASCII other than {@code "} and {@code \}
+     * starting at {@code from}, which is where a string either closes or needs
+     * a closer look.
+     */
+    static int string(ByteBuffer bytes, int from, int limit) {
+        while(from + Long.BYTES <= limit) {
+            long stop = ~string(bytes.getLong(from)) & HIGHS;
+            if(stop != 0) {
+                return from + (Long.numberOfTrailingZeros(stop) >>> 3);
+            }
+            from += Long.BYTES;
+        }
+        while(from < limit && string((char) (bytes.get(from) & 0xFF))) {
+            from++;
+        }
+        return from;
+    }
+
+    static boolean whitespace(char c) {
+        return (whitespace((long) c) & 0x80) != 0;
+    }
+
+    static boolean identifier(char c) {
+        return (identifier((long) c) & 0x80) != 0;
+    }
+
+    static boolean string(char c) {
+        return (string((long) c) & 0x80) != 0;
+    }
+
+    private static long whitespace(long word) {
+        return range(word, '\b', '\n') | range(word, '\r', '\r') | range(word, ' ', ' ');
+    }
+
+    private static long identifier(long word) {
+        //setting 0x20 maps A-Z onto a-z and nothing else onto them
+        return range(word | (ONES * 0x20), 'a', 'z') | range(word, '0', '9') | range(word, '_', '_') | range(word, '-', '-');
+    }
+
+    private static long string(long word) {
+        return ~(range(word, '"', '"') | range(word, '\\', '\\')) & ~word & HIGHS;
+    }
+
+    //sets the high bit of each byte in [low, high], which are ASCII. Without
+    //their high bits the bytes are at most 0x7F, so neither sum carries out of
+    //a byte, and the bytes which had it are never in the range.
+    private static long range(long word, int low, int high) {
+        long bits = word & ~HIGHS;
+        long atLeast = bits + ONES * (0x80 - low);
+        long above = bits + ONES * (0x7F - high);
+        return atLeast & ~above & ~word & HIGHS;
+    }
+
+}
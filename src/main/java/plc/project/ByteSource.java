@@ -0,0 +1,257 @@
+package plc.project;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A {@link CharSequence} view of UTF-8 (or plain ASCII) bytes, so the lexer can
+ * run directly over a file mapped with {@link FileChannel#map} instead of
+ * decoding the whole file into a {@link String} on the heap first.
+ *
+ * Indices are in chars like any other {@link CharSequence}. If every byte is
+ * ASCII a char is just a byte; otherwise the byte offset of every {@link
+ * #STRIDE}th char is recorded up front and {@link #charAt(int)} decodes from
+ * the closest checkpoint, or from the previous call since the lexer reads the
+ * input in order. Each malformed byte decodes to a {@code U+FFFD}.
+ *
+ * Because of that cursor a source with non-ASCII text isn't thread safe;
+ * {@link #duplicate()} gives each thread its own view over the same bytes.
+ */
+public final class ByteSource implements CharSequence {
+
+    private static final int STRIDE = 256;
+
+    private final ByteBuffer bytes;
+    private final int length;
+    private final boolean ascii;
+    //byte offset and char index of the code point holding char k * STRIDE
+    private final int[] checkpointOffsets;
+    private final int[] checkpointChars;
+    //the code point last decoded by charAt
+    private int cursorOffset = 0;
+    private int cursorChar = 0;
+
+    public ByteSource(ByteBuffer bytes) {
+        this.bytes = bytes.duplicate();
+        this.bytes.position(0);
+        int chars = 0;
+        boolean ascii = true;
+        for(int i = 0; i < this.bytes.limit(); i++) {
+            if(this.bytes.get(i) < 0) {
+                ascii = false;
+                break;
+            }
+        }
+        this.ascii = ascii;
+        if(ascii) {
+            this.length = this.bytes.limit();
+            this.checkpointOffsets = null;
+            this.checkpointChars = null;
+        }
+        else {
+            int checkpoints = 0;
+            int[] offsets = new int[16];
+            int[] starts = new int[16];
+            for(int offset = 0; offset < this.bytes.limit(); ) {
+                int width = width(offset);
+                int units = width == 4 ? 2 : 1;
+                //record the code point if it holds the next multiple of STRIDE
+                if(chars + units > checkpoints * STRIDE) {
+                    if(checkpoints == offsets.length) {
+                        offsets = Arrays.copyOf(offsets, checkpoints * 2);
+                        starts = Arrays.copyOf(starts, checkpoints * 2);
+                    }
+                    offsets[checkpoints] = offset;
+                    starts[checkpoints] = chars;
+                    checkpoints++;
+                }
+                chars += units;
+                offset += width;
+            }
+            this.length = chars;
+            this.checkpointOffsets = offsets;
+            this.checkpointChars = starts;
+        }
+    }
+
+    private ByteSource(ByteSource source) {
+        this.bytes = source.bytes.duplicate();
+        this.length = source.length;
+        this.ascii = source.ascii;
+        this.checkpointOffsets = source.checkpointOffsets;
+        this.checkpointChars = source.checkpointChars;
+    }
+
+    /**
+     * Maps the file read-only. The mapping lives as long as the returned
+     * source (and any {@link Token} literals that haven't been read yet).
+     */
+    public static ByteSource map(Path path) throws IOException {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if(channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Source " + path + " is larger than 2GB.");
+            }
+            return new ByteSource(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Returns a view over the same bytes with its own decoding cursor.
+     */
+    public ByteSource duplicate() {
+        return new ByteSource(this);
+    }
+
+    public boolean isAscii() {
+        return ascii;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if(index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + length + ".");
+        }
+        if(ascii) {
+            return (char) bytes.get(index);
+        }
+        seek(index);
+        int codePoint = decode(cursorOffset);
+        if(Character.isBmpCodePoint(codePoint)) {
+            return (char) codePoint;
+        }
+        return index == cursorChar ? Character.highSurrogate(codePoint) : Character.lowSurrogate(codePoint);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if(start < 0 || start > end || end > length) {
+            throw new IndexOutOfBoundsException("Range [" + start + ", " + end + ") out of bounds for length " + length + ".");
+        }
+        if(ascii) {
+            byte[] copy = new byte[end - start];
+            bytes.get(start, copy);
+            return new String(copy, StandardCharsets.ISO_8859_1);
+        }
+        StringBuilder builder = new StringBuilder(end - start);
+        seek(start);
+        int offset = cursorOffset;
+        int index = cursorChar;
+        while(index < end) {
+            int codePoint = decode(offset);
+            if(Character.isBmpCodePoint(codePoint)) {
+                builder.append((char) codePoint);
+                index++;
+            }
+            else {
+                //either half of the pair may be outside of the range
+                if(index >= start) {
+                    builder.append(Character.highSurrogate(codePoint));
+                }
+                if(index + 1 < end) {
+                    builder.append(Character.lowSurrogate(codePoint));
+                }
+                index += 2;
+            }
+            offset += width(offset);
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public String toString() {
+        return subSequence(0, length).toString();
+    }
+
+    //moves the cursor to the code point holding char index
+    private void seek(int index) {
+        if(index < cursorChar || index - cursorChar > STRIDE) {
+            int checkpoint = index / STRIDE;
+            cursorOffset = checkpointOffsets[checkpoint];
+            cursorChar = checkpointChars[checkpoint];
+        }
+        while(true) {
+            int width = width(cursorOffset);
+            int units = width == 4 ? 2 : 1;
+            if(index < cursorChar + units) {
+                return;
+            }
+            cursorOffset += width;
+            cursorChar += units;
+        }
+    }
+
+    private int width(int offset) {
+        return width(bytes, offset);
+    }
+
+    private int decode(int offset) {
+        return decode(bytes, offset);
+    }
+
+    //returns the number of bytes in the sequence starting at offset, or 1 if
+    //it isn't valid UTF-8 (overlong, surrogate, truncated, ...)
+    static int width(ByteBuffer bytes, int offset) {
+        int lead = bytes.get(offset) & 0xFF;
+        int width;
+        int min = 0x80;
+        int max = 0xBF;
+        if(lead < 0xC2) {
+            return 1;
+        }
+        else if(lead < 0xE0) {
+            width = 2;
+        }
+        else if(lead < 0xF0) {
+            width = 3;
+            min = lead == 0xE0 ? 0xA0 : min;
+            max = lead == 0xED ? 0x9F : max;
+        }
+        else if(lead < 0xF5) {
+            width = 4;
+            min = lead == 0xF0 ? 0x90 : min;
+            max = lead == 0xF4 ? 0x8F : max;
+        }
+        else {
+            return 1;
+        }
+        if(offset + width > bytes.limit()) {
+            return 1;
+        }
+        int second = bytes.get(offset + 1) & 0xFF;
+        if(second < min || second > max) {
+            return 1;
+        }
+        for(int i = 2; i < width; i++) {
+            if((bytes.get(offset + i) & 0xC0) != 0x80) {
+                return 1;
+            }
+        }
+        return width;
+    }
+
+    //decodes the code point starting at offset, U+FFFD if it is malformed
+    static int decode(ByteBuffer bytes, int offset) {
+        int lead = bytes.get(offset) & 0xFF;
+        switch(width(bytes, offset)) {
+            case 1:
+                return lead < 0x80 ? lead : 0xFFFD;
+            case 2:
+                return ((lead & 0x1F) << 6) | (bytes.get(offset + 1) & 0x3F);
+            case 3:
+                return ((lead & 0x0F) << 12) | ((bytes.get(offset + 1) & 0x3F) << 6) | (bytes.get(offset + 2) & 0x3F);
+            default:
+                return ((lead & 0x07) << 18) | ((bytes.get(offset + 1) & 0x3F) << 12) | ((bytes.get(offset + 2) & 0x3F) << 6) | (bytes.get(offset + 3) & 0x3F);
+        }
+    }
+
+}
@@ -0,0 +1,531 @@
+package plc.project;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A drop-in alternative to {@link Lexer} for {@link CharSequence} input, which
+ * is generated from the token specification in {@link #RULES} instead of
+ * being written by hand.
+ *
+ * Each rule is a regular expression. When the class is loaded they are
+ * compiled into one NFA, turned into a DFA by the subset construction and
+ * minimized, and characters which behave the same in every state are merged
+ * into classes. Lexing is then a single loop of table lookups per character,
+ * taking the longest match and the first rule on ties. The only "backtracking"
+ * is resetting the index to the end of the last accepted token, which is at
+ * most the lookahead of {@code 1.} before a non-digit.
+ *
+ * The rules give the same tokens as {@link Lexer}, including its quirks:
+ * decimals may end in a {@code .} after two or more fraction digits, and a
+ * string that runs to the end of the input is accepted if it ends in an
+ * escaped {@code \"} (a rule ending in {@code $} only matches at the end). A
+ * {@link ParseException} is at the first character which no token can
+ * continue with, which is where {@link Lexer} reports it too except for a
+ * character literal like {@code '\nx}, where this lexer points at the x.
+ */
+public final class DfaLexer {
+
+    /**
+     * The token specification, in order of priority. A null type is skipped
+     * (whitespace). Supported syntax is literals, {@code \} escapes, {@code
+     * [...]} and {@code [^...]} classes with ranges, groups, {@code |}, {@code
+     * *}, {@code +}, {@code ?} and a trailing {@code $}.
+     */
+    static final Rule[] RULES = {
+            new Rule(null, "[\b\n\r\t ]+"),
+            new Rule(Token.Type.IDENTIFIER, "[A-Za-z_][A-Za-z0-9_-]*"),
+            new Rule(Token.Type.INTEGER, "[+-]?[0-9]+"),
+            new Rule(Token.Type.DECIMAL, "[+-]?[0-9]+\\.[0-9]([0-9]+\\.?)?"),
+            new Rule(Token.Type.CHARACTER, "'([^\n\r\u0085\u2028\u2029]|\\\\[bnrt'\"\\\\])'"),
+            new Rule(Token.Type.STRING, "\"([^\"\\\\]|\\\\[bnrt'\"\\\\])*\""),
+            new Rule(Token.Type.STRING, "\"([^\"\\\\]|\\\\[bnrt'\"\\\\])*\\\\\"$"),
+            new Rule(Token.Type.STRING, "\"$"),
+            new Rule(Token.Type.OPERATOR, "[<>!=]=?|[^A-Za-z0-9_'\"\b\n\r\t \u0085\u2028\u2029]"),
+    };
+
+    static final Dfa DFA = new Dfa(RULES);
+
+    private final CharSequence input;
+    private final SymbolTable symbols;
+    private final LineIndex lines;
+    private int index = 0;
+    //end of the token matched by scan
+    private int end;
+
+    public DfaLexer(CharSequence input) {
+        this(input, new SymbolTable());
+    }
+
+    public DfaLexer(CharSequence input, SymbolTable symbols) {
+        this.input = input;
+        this.symbols = symbols;
+        this.lines = new LineIndex(input);
+    }
+
+    public SymbolTable getSymbols() {
+        return symbols;
+    }
+
+    public LineIndex getLines() {
+        return lines;
+    }
+
+    /**
+     * Lexes the whole input, like {@link Lexer#lex()}.
+     */
+    public List<Token> lex() {
+        List<Token> tokens = new ArrayList<>();
+        Token token;
+        while((token = lexToken()) != null) {
+            tokens.add(token);
+        }
+        return tokens;
+    }
+
+    /**
+     * Lexes the whole input into a {@link TokenBuffer}, like {@link
+     * Lexer#lexBuffer()}.
+     */
+    public TokenBuffer lexBuffer() {
+        TokenBuffer buffer = new TokenBuffer(input, Math.max(input.length() / 8, 16));
+        Token.Type type;
+        while((type = scan()) != null) {
+            Token.Keyword keyword = type == Token.Type.IDENTIFIER ? SymbolTable.classify(input, index, end) : null;
+            buffer.add(type, keyword, index, end);
+            index = end;
+        }
+        return buffer;
+    }
+
+    /**
+     * Skips whitespace and lexes the next token, returning null at the end of
+     * the input.
+     */
+    public Token lexToken() {
+        Token.Type type = scan();
+        if(type == null) {
+            return null;
+        }
+        int start = index;
+        index = end;
+        if(type == Token.Type.IDENTIFIER) {
+            int id = symbols.lookup(input, start, end);
+            return new Token(type, symbols.symbol(id), start, SymbolTable.keyword(id)).withLines(lines);
+        }
+        else if(input instanceof String) {
+            return new Token(type, ((String) input).substring(start, end), start).withLines(lines);
+        }
+        return new Token(type, input, start, end).withLines(lines);
+    }
+
+    /**
+     * Runs the DFA from the index, skipping whitespace, until the next token
+     * is matched. Returns its type with the token in {@code [index, end)}, or
+     * null at the end of the input.
+     */
+    private Token.Type scan() {
+        int[] next = DFA.next;
+        int[] accept = DFA.accept;
+        int classes = DFA.classes;
+        int length = input.length();
+        while(index < length) {
+            int state = 0;
+            int position = index;
+            int rule = -1;
+            while(position < length) {
+                char c = input.charAt(position);
+                state = next[state * classes + (c < 128 ? DFA.ascii[c] : DFA.classOf(c))];
+                if(state < 0) {
+                    break;
+                }
+                position++;
+                if(accept[state] >= 0) {
+                    rule = accept[state];
+                    end = position;
+                }
+            }
+            if(position == length && state >= 0 && DFA.acceptAtEnd[state] >= 0
+                    && (rule < 0 || end < position || DFA.acceptAtEnd[state] < rule)) {
+                rule = DFA.acceptAtEnd[state];
+                end = position;
+            }
+            if(rule < 0) {
+                throw new ParseException("Invalid token.", position, lines);
+            }
+            if(RULES[rule].type != null) {
+                return RULES[rule].type;
+            }
+            index = end;
+        }
+        return null;
+    }
+
+    static final class Rule {
+
+        final Token.Type type;
+        private final String pattern;
+
+        private Rule(Token.Type type, String pattern) {
+            this.type = type;
+            this.pattern = pattern;
+        }
+
+    }
+
+    /**
+     * A Thompson NFA of the rules, where an edge is either epsilon or a set of
+     * chars given as sorted inclusive {@code [low, high]} pairs.
+     */
+    private static final class Nfa {
+
+        private final List<List<Integer>> epsilons = new ArrayList<>();
+        private final List<List<int[]>> sets = new ArrayList<>();
+        private final List<List<Integer>> targets = new ArrayList<>();
+        //rule index accepted by each state, or -1
+        private final List<Integer> accept = new ArrayList<>();
+        private final List<Boolean> atEnd = new ArrayList<>();
+
+        private String pattern;
+        private int position;
+
+        private Nfa(Rule[] rules) {
+            int start = state();
+            for(int i = 0; i < rules.length; i++) {
+                pattern = rules[i].pattern;
+                position = 0;
+                boolean anchored = pattern.endsWith("$") && !pattern.endsWith("\\$");
+                if(anchored) {
+                    pattern = pattern.substring(0, pattern.length() - 1);
+                }
+                int[] fragment = parseAlternation();
+                if(position != pattern.length()) {
+                    throw new IllegalArgumentException("Unexpected " + pattern.charAt(position) + " in rule " + i + ".");
+                }
+                epsilons.get(start).add(fragment[0]);
+                accept.set(fragment[1], i);
+                atEnd.set(fragment[1], anchored);
+            }
+        }
+
+        private int state() {
+            epsilons.add(new ArrayList<>());
+            sets.add(new ArrayList<>());
+            targets.add(new ArrayList<>());
+            accept.add(-1);
+            atEnd.add(false);
+            return accept.size() - 1;
+        }
+
+        //each parse method returns the {start, end} states of a fragment
+        private int[] parseAlternation() {
+            int[] fragment = parseSequence();
+            if(position < pattern.length() && pattern.charAt(position) == '|') {
+                int start = state();
+                int end = state();
+                epsilons.get(start).add(fragment[0]);
+                epsilons.get(fragment[1]).add(end);
+                while(position < pattern.length() && pattern.charAt(position) == '|') {
+                    position++;
+                    int[] alternative = parseSequence();
+                    epsilons.get(start).add(alternative[0]);
+                    epsilons.get(alternative[1]).add(end);
+                }
+                fragment = new int[] {start, end};
+            }
+            return fragment;
+        }
+
+        private int[] parseSequence() {
+            int start = state();
+            int end = start;
+            while(position < pattern.length() && pattern.charAt(position) != '|' && pattern.charAt(position) != ')') {
+                int[] fragment = parseRepetition();
+                epsilons.get(end).add(fragment[0]);
+                end = fragment[1];
+            }
+            return new int[] {start, end};
+        }
+
+        private int[] parseRepetition() {
+            int[] fragment = parseAtom();
+            while(position < pattern.length() && "*+?".indexOf(pattern.charAt(position)) >= 0) {
+                char operator = pattern.charAt(position++);
+                int start = state();
+                int end = state();
+                epsilons.get(start).add(fragment[0]);
+                epsilons.get(fragment[1]).add(end);
+                if(operator != '+') {
+                    epsilons.get(start).add(end);
+                }
+                if(operator != '?') {
+                    epsilons.get(fragment[1]).add(fragment[0]);
+                }
+                fragment = new int[] {start, end};
+            }
+            return fragment;
+        }
+
+        private int[] parseAtom() {
+            char c = pattern.charAt(position++);
+            if(c == '(') {
+                int[] fragment = parseAlternation();
+                if(position == pattern.length() || pattern.charAt(position++) != ')') {
+                    throw new IllegalArgumentException("Unclosed group in " + pattern + ".");
+                }
+                return fragment;
+            }
+            int[] set;
+            if(c == '[') {
+                set = parseClass();
+            }
+            else {
+                char literal = c == '\\' ? pattern.charAt(position++) : c;
+                set = new int[] {literal, literal};
+            }
+            int start = state();
+            int end = state();
+            sets.get(start).add(set);
+            targets.get(start).add(end);
+            return new int[] {start, end};
+        }
+
+        private int[] parseClass() {
+            boolean negated = pattern.charAt(position) == '^';
+            if(negated) {
+                position++;
+            }
+            BitSet chars = new BitSet(Character.MAX_VALUE + 1);
+            while(pattern.charAt(position) != ']') {
+                char low = pattern.charAt(position++);
+                if(low == '\\') {
+                    low = pattern.charAt(position++);
+                }
+                char high = low;
+                if(pattern.charAt(position) == '-' && pattern.charAt(position + 1) != ']') {
+                    position++;
+                    high = pattern.charAt(position++);
+                    if(high == '\\') {
+                        high = pattern.charAt(position++);
+                    }
+                }
+                chars.set(low, high + 1);
+            }
+            position++;
+            if(negated) {
+                chars.flip(0, Character.MAX_VALUE + 1);
+            }
+            List<Integer> ranges = new ArrayList<>();
+            for(int low = chars.nextSetBit(0); low >= 0; low = chars.nextSetBit(low)) {
+                int high = chars.nextClearBit(low);
+                ranges.add(low);
+                ranges.add(high - 1);
+                low = high;
+            }
+            return ranges.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+    }
+
+    /**
+     * The minimized DFA. State 0 is the start state and a transition to -1
+     * means no token can continue with that character.
+     */
+    static final class Dfa {
+
+        final int classes;
+        final int[] next;
+        //rule accepted by each state, or -1, and the same for $ rules
+        final int[] accept;
+        final int[] acceptAtEnd;
+        //class of each ASCII char, and of each interval starting at bounds[i]
+        final int[] ascii = new int[128];
+        private final int[] bounds;
+        private final int[] boundClasses;
+
+        private Dfa(Rule[] rules) {
+            Nfa nfa = new Nfa(rules);
+
+            //split the chars into intervals that no edge distinguishes inside of
+            BitSet cuts = new BitSet();
+            cuts.set(0);
+            for(List<int[]> edges : nfa.sets) {
+                for(int[] set : edges) {
+                    for(int i = 0; i < set.length; i += 2) {
+                        cuts.set(set[i]);
+                        cuts.set(set[i + 1] + 1);
+                    }
+                }
+            }
+            cuts.clear(Character.MAX_VALUE + 1);
+            int[] intervals = cuts.stream().toArray();
+
+            //subset construction, over the intervals
+            List<BitSet> subsets = new ArrayList<>();
+            Map<BitSet, Integer> ids = new HashMap<>();
+            List<int[]> moves = new ArrayList<>();
+            BitSet initial = new BitSet();
+            initial.set(0);
+            closure(nfa, initial);
+            subsets.add(initial);
+            ids.put(initial, 0);
+            for(int s = 0; s < subsets.size(); s++) {
+                int[] move = new int[intervals.length];
+                for(int k = 0; k < intervals.length; k++) {
+                    BitSet target = new BitSet();
+                    BitSet subset = subsets.get(s);
+                    for(int n = subset.nextSetBit(0); n >= 0; n = subset.nextSetBit(n + 1)) {
+                        for(int e = 0; e < nfa.sets.get(n).size(); e++) {
+                            if(contains(nfa.sets.get(n).get(e), intervals[k])) {
+                                target.set(nfa.targets.get(n).get(e));
+                            }
+                        }
+                    }
+                    if(target.isEmpty()) {
+                        move[k] = -1;
+                        continue;
+                    }
+                    closure(nfa, target);
+                    Integer id = ids.get(target);
+                    if(id == null) {
+                        id = subsets.size();
+                        subsets.add(target);
+                        ids.put(target, id);
+                    }
+                    move[k] = id;
+                }
+                moves.add(move);
+            }
+            int[] accepts = new int[subsets.size()];
+            int[] endAccepts = new int[subsets.size()];
+            for(int s = 0; s < subsets.size(); s++) {
+                accepts[s] = -1;
+                endAccepts[s] = -1;
+                BitSet subset = subsets.get(s);
+                for(int n = subset.nextSetBit(0); n >= 0; n = subset.nextSetBit(n + 1)) {
+                    int rule = nfa.accept.get(n);
+                    if(rule < 0) {
+                        continue;
+                    }
+                    if(nfa.atEnd.get(n)) {
+                        endAccepts[s] = endAccepts[s] < 0 ? rule : Math.min(endAccepts[s], rule);
+                    }
+                    else {
+                        accepts[s] = accepts[s] < 0 ? rule : Math.min(accepts[s], rule);
+                    }
+                }
+            }
+
+            //minimize by refining blocks of states with the same accepts until
+            //no block has states whose transitions go to different blocks
+            int[] block = new int[subsets.size()];
+            int blocks = refine(block, s -> accepts[s] + "," + endAccepts[s]);
+            while(true) {
+                int[] previous = block.clone();
+                int count = refine(block, s -> {
+                    StringBuilder signature = new StringBuilder().append(previous[s]);
+                    for(int target : moves.get(s)) {
+                        signature.append(',').append(target < 0 ? -1 : previous[target]);
+                    }
+                    return signature.toString();
+                });
+                if(count == blocks) {
+                    break;
+                }
+                blocks = count;
+            }
+
+            //merge intervals whose columns are the same into classes
+            Map<String, Integer> columns = new HashMap<>();
+            int[] intervalClasses = new int[intervals.length];
+            List<Integer> representatives = new ArrayList<>();
+            for(int k = 0; k < intervals.length; k++) {
+                StringBuilder column = new StringBuilder();
+                for(int s = 0; s < subsets.size(); s++) {
+                    int target = moves.get(s)[k];
+                    column.append(target < 0 ? -1 : block[target]).append(',');
+                }
+                Integer id = columns.get(column.toString());
+                if(id == null) {
+                    id = representatives.size();
+                    columns.put(column.toString(), id);
+                    representatives.add(k);
+                }
+                intervalClasses[k] = id;
+            }
+
+            this.classes = representatives.size();
+            this.next = new int[blocks * classes];
+            this.accept = new int[blocks];
+            this.acceptAtEnd = new int[blocks];
+            for(int s = 0; s < subsets.size(); s++) {
+                accept[block[s]] = accepts[s];
+                acceptAtEnd[block[s]] = endAccepts[s];
+                for(int c = 0; c < classes; c++) {
+                    int target = moves.get(s)[representatives.get(c)];
+                    next[block[s] * classes + c] = target < 0 ? -1 : block[target];
+                }
+            }
+            for(char c = 0; c < ascii.length; c++) {
+                ascii[c] = intervalClasses[interval(intervals, c)];
+            }
+            this.bounds = intervals;
+            this.boundClasses = intervalClasses;
+        }
+
+        int classOf(char c) {
+            return boundClasses[interval(bounds, c)];
+        }
+
+        //index of the interval holding c
+        private static int interval(int[] intervals, int c) {
+            int index = Arrays.binarySearch(intervals, c);
+            return index >= 0 ? index : -index - 2;
+        }
+
+        private static boolean contains(int[] set, int c) {
+            for(int i = 0; i < set.length; i += 2) {
+                if(set[i] <= c && c <= set[i + 1]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static void closure(Nfa nfa, BitSet states) {
+            List<Integer> stack = new ArrayList<>();
+            states.stream().forEach(stack::add);
+            while(!stack.isEmpty()) {
+                int state = stack.remove(stack.size() - 1);
+                for(int target : nfa.epsilons.get(state)) {
+                    if(!states.get(target)) {
+                        states.set(target);
+                        stack.add(target);
+                    }
+                }
+            }
+        }
+
+        //numbers the states by their signatures, the start state's block being
+        //0, and returns the number of blocks
+        private static int refine(int[] block, java.util.function.IntFunction<String> signature) {
+            Map<String, Integer> numbers = new HashMap<>();
+            for(int s = 0; s < block.length; s++) {
+                String key = signature.apply(s);
+                Integer number = numbers.get(key);
+                if(number == null) {
+                    number = numbers.size();
+                    numbers.put(key, number);
+                }
+                block[s] = number;
+            }
+            return numbers.size();
+        }
+
+    }
+
+}
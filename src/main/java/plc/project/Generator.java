@@ -6,10 +6,21 @@ import java.math.BigInteger;
 public final class Generator implements Ast.Visitor<Void> {
 
     private final PrintWriter writer;
+    //where the variables and functions are, or null if set on the nodes
+    private final Analysis analysis;
     private int indent = 0;
 
     public Generator(PrintWriter writer) {
+        this(writer, null);
+    }
+
+    /**
+     * Creates a generator for a tree analyzed into the given {@link
+     * Analysis} rather than in place.
+     */
+    public Generator(PrintWriter writer, Analysis analysis) {
         this.writer = writer;
+        this.analysis = analysis;
     }
 
     private void print(Object... objects) {
@@ -22,6 +33,29 @@ public final class Generator implements Ast.Visitor<Void> {
         }
     }
 
+    private Environment.Variable variable(Ast ast) {
+        if(analysis != null) {
+            return analysis.getVariable(ast);
+        }
+        else if(ast instanceof Ast.Field) {
+            return ((Ast.Field) ast).getVariable();
+        }
+        else if(ast instanceof Ast.Stmt.Declaration) {
+            return ((Ast.Stmt.Declaration) ast).getVariable();
+        }
+        return ((Ast.Expr.Access) ast).getVariable();
+    }
+
+    private Environment.Function function(Ast ast) {
+        if(analysis != null) {
+            return analysis.getFunction(ast);
+        }
+        else if(ast instanceof Ast.Method) {
+            return ((Ast.Method) ast).getFunction();
+        }
+        return ((Ast.Expr.Function) ast).getFunction();
+    }
+
     private void newline(int indent) {
         writer.println();
         for (int i = 0; i < indent; i++) {
@@ -113,9 +147,9 @@ public final class Generator implements Ast.Visitor<Void> {
         // A semicolon should be generated at the end.
         //Returns null.
 
-        print(ast.getVariable().getType().getJvmName(),
+        print(variable(ast).getType().getJvmName(),
                 " ",
-                ast.getVariable().getJvmName());
+                variable(ast).getJvmName());
 
         if(ast.getValue().isPresent()) {
             print(" = ", ast.getValue().get());
@@ -138,7 +172,7 @@ public final class Generator implements Ast.Visitor<Void> {
         // otherwise each statement is generated on a new line with increased indentation followed by a closing brace on a new line with the original indentation.
         //Returns null.
         newline(++indent);
-        print(ast.getFunction().getReturnType().getJvmName(), " ", ast.getFunction().getName(), "(");
+        print(function(ast).getReturnType().getJvmName(), " ", function(ast).getName(), "(");
         for(int i = 0; i < ast.getParameters().size(); i++) {
             if(i != (ast.getParameters().size() - 1)) {
                 print(ast.getParameterTypeNames().get(i), " ", ast.getParameters().get(i), ", ");
@@ -188,9 +222,9 @@ public final class Generator implements Ast.Visitor<Void> {
         // A semicolon should be generated at the end.
         //Returns null.
 
-        print(ast.getVariable().getType().getJvmName(),
+        print(variable(ast).getType().getJvmName(),
                 " ",
-                ast.getVariable().getJvmName());
+                variable(ast).getJvmName());
 
         if(ast.getValue().isPresent()) {
             print(" = ", ast.getValue().get());
@@ -379,7 +413,7 @@ public final class Generator implements Ast.Visitor<Void> {
             print(ast.getReceiver().get(), ".");
         }
 
-        print(ast.getVariable().getJvmName());
+        print(variable(ast).getJvmName());
 
         return null;
     }
@@ -394,7 +428,7 @@ public final class Generator implements Ast.Visitor<Void> {
         if(ast.getReceiver().isPresent()) {
             print(ast.getReceiver().get(), ".");
         }
-        print(ast.getFunction().getJvmName(), "(");
+        print(function(ast).getJvmName(), "(");
         for(int i = 0; i < ast.getArguments().size(); i++) {
             if(i != ast.getArguments().size() - 1) {
                 print(ast.getArguments().get(i), ", ");
@@ -0,0 +1,167 @@
+package plc.project;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Keeps the tokens and AST of a source up to date as it is edited, the
+ * parser's side of {@link Lexer#relex}.
+ *
+ * Each field and method is recorded with the range of tokens it was parsed
+ * from. After an edit is relexed, the fields and methods which ended before
+ * the first replaced token are kept, and parsing starts again at the next
+ * one. It stops as soon as it gets back to where an old field or method past
+ * the edit starts, since from there on the tokens, and so the nodes, are the
+ * same as before. The work done is proportional to the fields and methods the
+ * edit touched rather than to the source, and the nodes which are kept are
+ * the same objects as before, so a consumer such as an incremental {@link
+ * Analyzer} can tell what is unchanged by identity.
+ *
+ * Methods are parsed up front, since the lazy bodies of {@link
+ * Parser#withLazyMethods} refer to token indices which edits move.
+ */
+public final class IncrementalParser {
+
+    private final TokenBuffer tokens;
+    private Ast.Source ast;
+    //the fields then methods of the AST, or null after an edit that didn't
+    //parse, in which case the next one parses the whole source again
+    private List<Entry> entries = Collections.emptyList();
+
+    public IncrementalParser(CharSequence source) throws ParseException {
+        this.tokens = new Lexer(source).lexBuffer();
+        update(Collections.emptyList(), Collections.emptyList(), 0, 0, 0);
+    }
+
+    public CharSequence getSource() {
+        return tokens.getSource();
+    }
+
+    public TokenBuffer getTokens() {
+        return tokens;
+    }
+
+    /**
+     * Returns the AST of the source, or null if the last edit didn't parse.
+     */
+    public Ast.Source getAst() {
+        return ast;
+    }
+
+    /**
+     * Applies an edit which replaced {@code removed} chars at {@code offset}
+     * with {@code inserted} and returns the new AST. If the edited source
+     * doesn't lex, the exception is thrown and the edit isn't applied. If it
+     * doesn't parse, the edit is applied but the exception is thrown instead
+     * of returning an AST.
+     */
+    public Ast.Source edit(int offset, int removed, String inserted) throws ParseException {
+        int first = Lexer.firstAffected(tokens, offset);
+        int size = tokens.size();
+        Lexer.relex(tokens, offset, removed, inserted);
+        if(entries == null) {
+            update(Collections.emptyList(), Collections.emptyList(), 0, 0, 0);
+            return ast;
+        }
+        //an entry also looked at the token at its end, to see that it ended
+        int kept = 0;
+        while(kept < entries.size() && entries.get(kept).end < first) {
+            kept++;
+        }
+        update(entries.subList(0, kept), entries.subList(kept, entries.size()), offset + removed,
+                tokens.size() - size, inserted.length() - removed);
+        return ast;
+    }
+
+    /**
+     * Parses fields and methods after the {@code kept} entries, until either
+     * the tokens run out of them or one of the {@code old} entries is reached
+     * at a token which comes after the edit, which is where the rest of them
+     * are kept from. The old entries are over the tokens before the edit,
+     * whose unchanged tokens past {@code end} moved by {@code shift} tokens
+     * and {@code delta} chars.
+     */
+    private void update(List<Entry> kept, List<Entry> old, int end, int shift, int delta) throws ParseException {
+        List<Entry> entries = new ArrayList<>(kept);
+        boolean fields = kept.isEmpty() || kept.get(kept.size() - 1).node instanceof Ast.Field;
+        int index = kept.isEmpty() ? 0 : kept.get(kept.size() - 1).end;
+        Parser parser = new Parser(tokens);
+        int next = 0;
+        try {
+            while(true) {
+                while(next < old.size() && old.get(next).start + shift < index) {
+                    next++;
+                }
+                if(next < old.size() && reusable(old.get(next), index, end, shift, delta)
+                        && (fields || old.get(next).node instanceof Ast.Method)) {
+                    for(; next < old.size(); next++) {
+                        Entry entry = old.get(next);
+                        entries.add(new Entry(entry.node, entry.start + shift, entry.end + shift, entry.offset + delta));
+                    }
+                    break;
+                }
+                Token.Keyword keyword = index < tokens.size() ? tokens.getKeyword(index) : null;
+                Ast node;
+                //as in parseSource, fields until the first method
+                parser.setIndex(index + 1);
+                if(fields && keyword == Token.Keyword.LET) {
+                    node = parser.parseField();
+                }
+                else if(keyword == Token.Keyword.DEF) {
+                    fields = false;
+                    node = parser.parseMethod();
+                }
+                else {
+                    break;
+                }
+                entries.add(new Entry(node, index, parser.getIndex(), tokens.getStart(index)));
+                index = parser.getIndex();
+            }
+        } catch (ParseException e) {
+            this.entries = null;
+            this.ast = null;
+            throw e;
+        }
+        List<Ast.Field> fieldNodes = new ArrayList<>();
+        List<Ast.Method> methodNodes = new ArrayList<>();
+        for(Entry entry : entries) {
+            if(entry.node instanceof Ast.Field) {
+                fieldNodes.add((Ast.Field) entry.node);
+            }
+            else {
+                methodNodes.add((Ast.Method) entry.node);
+            }
+        }
+        this.entries = entries;
+        this.ast = new Ast.Source(fieldNodes, methodNodes);
+    }
+
+    //whether the old entry starts at the token index, as one of the tokens
+    //relex left alone: those past the edit which start where a new token does
+    private boolean reusable(Entry entry, int index, int end, int shift, int delta) {
+        return entry.start + shift == index && entry.offset >= end
+                && index < tokens.size() && tokens.getStart(index) == entry.offset + delta;
+    }
+
+    /**
+     * A field or method, the token index it starts at and the one just past
+     * it, and the char index it starts at.
+     */
+    private static final class Entry {
+
+        private final Ast node;
+        private final int start;
+        private final int end;
+        private final int offset;
+
+        private Entry(Ast node, int start, int end, int offset) {
+            this.node = node;
+            this.start = start;
+            this.end = end;
+            this.offset = offset;
+        }
+
+    }
+
+}
@@ -1,7 +1,19 @@
 package plc.project;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * The lexer works through three main functions:
@@ -10,19 +22,124 @@ import java.util.concurrent.Callable;
  *  - {@link #lexToken()}, which lexes the next token
  *  - {@link CharStream}, which manages the state of the lexer and literals
  *
+ * Besides {@link #lex()}, tokens can be pulled one at a time with {@link
+ * #iterator()}. Combined with a {@link Reader} or {@link ReadableByteChannel}
+ * input this keeps memory bounded by the longest token instead of the size of
+ * the file.
+ *
  * If the lexer fails to parse something (such as an unterminated string) you
  * should throw a {@link ParseException} with an index at the character which is
  * invalid or missing.
  *
- * The {@link #peek(String...)} and {@link #match(String...)} functions are
- * helpers you need to use, they will make the implementation a lot easier.
+ * The lex methods classify characters with the precomputed ASCII tables in
+ * {@link #CLASSES}. The regex based {@link #peek(String...)} and {@link
+ * #match(String...)} functions are kept for compatibility, but compile a
+ * pattern for every character so they aren't used while lexing.
  */
 public final class Lexer {
 
+    /**
+     * Character classes for the table-driven lex methods. Each entry of
+     * {@link #CLASSES} is the set of classes an ASCII character belongs to, so
+     * checking a character is an array lookup instead of compiling a regex.
+     */
+    private static final int IDENTIFIER_START = 1;      //[A-Za-z_]
+    private static final int IDENTIFIER_PART = 1 << 1;  //[A-Za-z0-9_-]
+    private static final int DIGIT = 1 << 2;            //[0-9]
+    private static final int WHITESPACE = 1 << 3;       //[\b\n\r\t ]
+    private static final int SIGN = 1 << 4;             //[+-]
+    private static final int ESCAPE = 1 << 5;           //[bnrt'"\\]
+    private static final int COMPARISON = 1 << 6;       //[<>!=], the operators that may be followed by =
+    private static final int ANY = 1 << 7;              //regex ., anything but a line terminator
+
+    private static final int[] CLASSES = new int[128];
+
+    /**
+     * The most characters past the end of a token that the lex methods look
+     * at, from checking for a digit after {@code 1.} in {@link #lexNumber()}.
+     */
+    private static final int LOOKAHEAD = 2;
+
+    /**
+     * The smallest number of characters worth lexing as a separate chunk in
+     * {@link #lexParallel(CharSequence, ForkJoinPool)}.
+     */
+    private static final int MIN_CHUNK = 1 << 16;
+
+    static {
+        for(char c = 0; c < CLASSES.length; c++) {
+            if((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || c == '_') {
+                CLASSES[c] |= IDENTIFIER_START | IDENTIFIER_PART;
+            }
+            if(c >= '0' && c <= '9') {
+                CLASSES[c] |= DIGIT | IDENTIFIER_PART;
+            }
+            if(c != '\n' && c != '\r') {
+                CLASSES[c] |= ANY;
+            }
+        }
+        CLASSES['-'] |= IDENTIFIER_PART | SIGN;
+        CLASSES['+'] |= SIGN;
+        for(char c : "\b\n\r\t ".toCharArray()) {
+            CLASSES[c] |= WHITESPACE;
+        }
+        for(char c : "bnrt'\"\\".toCharArray()) {
+            CLASSES[c] |= ESCAPE;
+        }
+        for(char c : "<>!=".toCharArray()) {
+            CLASSES[c] |= COMPARISON;
+        }
+    }
+
     private final CharStream chars;
+    //interned identifiers, see SymbolTable
+    private final SymbolTable symbols;
+    //decoded value of the last string or character literal scanned
+    private final StringBuilder cooked = new StringBuilder();
+    //value of the last number scanned as unscaled * 10^-scale, if exact
+    private long unscaled;
+    private int scale;
+    private boolean exact;
+
+    public Lexer(CharSequence input) {
+        this(input, new SymbolTable());
+    }
+
+    /**
+     * Lexes the input with a symbol table shared with other lexers, so the
+     * identifiers of several sources are interned together.
+     */
+    public Lexer(CharSequence input, SymbolTable symbols) {
+        this.chars = new CharStream(input);
+        this.symbols = symbols;
+    }
 
-    public Lexer(String input) {
-        chars = new CharStream(input);
+    public Lexer(Reader reader) {
+        this(new CharStream(reader));
+    }
+
+    /**
+     * Lexes the channel as UTF-8 text.
+     */
+    public Lexer(ReadableByteChannel channel) {
+        this(Channels.newReader(channel, StandardCharsets.UTF_8.newDecoder(), -1));
+    }
+
+    public Lexer(CharStream chars) {
+        this.chars = chars;
+        this.symbols = new SymbolTable();
+    }
+
+    public SymbolTable getSymbols() {
+        return symbols;
+    }
+
+    /**
+     * Returns the line index of the input, which maps token and exception
+     * indices to lines and columns.
+     */
+    public LineIndex getLines() {
+        return chars.lines;
     }
 
     /**
@@ -33,20 +150,222 @@ public final class Lexer {
         //create list to return
         List<Token> Tokens  = new ArrayList<Token>();
 
-        while(chars.has(0)) {
-            //if match escape character
-            if(peek("[\b\n\r\t ]")) {
-                chars.advance();
-                chars.skip();
+        while(skipWhitespace()) {
+            //add a token (call lexToken)
+            Tokens.add(lexToken());
+        }
+
+        return Tokens;
+    }
+
+    /**
+     * Lexes the input like {@link #lex()}, but into a {@link TokenBuffer} over
+     * the input so no {@link Token} objects are created. This requires the
+     * lexer to be reading a {@link CharSequence}, not a {@link Reader}.
+     */
+    public TokenBuffer lexBuffer() {
+        if(chars.input == null) {
+            throw new IllegalStateException("A token buffer requires a CharSequence input.");
+        }
+        TokenBuffer buffer = new TokenBuffer(chars.input, Math.max(chars.input.length() / 8, 16));
+
+        while(skipWhitespace()) {
+            chars.emit(scanToken(), buffer);
+        }
+
+        return buffer;
+    }
+
+    /**
+     * Lexes the input into a {@link TokenBuffer} using the common fork/join
+     * pool, see {@link #lexParallel(CharSequence, ForkJoinPool)}.
+     */
+    public static TokenBuffer lexParallel(CharSequence input) {
+        return lexParallel(input, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Lexes the input into a {@link TokenBuffer} by splitting it into chunks at
+     * newlines and lexing the chunks in parallel, giving the same tokens and
+     * errors as {@link #lexBuffer()}.
+     *
+     * A chunk is lexed speculatively from the start of its first line, until
+     * the next token would start in the following chunk. That is only right if
+     * the previous chunk's last token ended before this chunk (otherwise the
+     * newline was inside a string), so the chunks are verified in order and
+     * a wrong guess is lexed again from the end of the previous chunk. Token
+     * indices are absolute positions in the input, so no fixing up is needed
+     * when the chunks are joined.
+     */
+    public static TokenBuffer lexParallel(CharSequence input, ForkJoinPool pool) {
+        int count = Math.min(pool.getParallelism() * 4, input.length() / MIN_CHUNK);
+        if(count < 2) {
+            return new Lexer(input).lexBuffer();
+        }
+        List<Chunk> chunks = new ArrayList<>();
+        int start = 0;
+        for(int i = 1; i <= count; i++) {
+            int end = input.length();
+            for(int j = i * (input.length() / count); i < count && j < input.length(); j++) {
+                if(input.charAt(j) == '\n') {
+                    end = j + 1;
+                    break;
+                }
+            }
+            if(end > start) {
+                chunks.add(new Chunk(input, start, end));
+                start = end;
+            }
+        }
+        pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(chunks)));
+
+        int end = 0;
+        int size = 0;
+        for(int i = 0; i < chunks.size(); i++) {
+            Chunk chunk = chunks.get(i);
+            if(end > chunk.start) {
+                //the previous chunk ended inside this one, so lex it again from there
+                chunk = new Chunk(input, end, chunk.end);
+                chunk.compute();
+                chunks.set(i, chunk);
+            }
+            if(chunk.error != null) {
+                throw chunk.error;
+            }
+            end = chunk.last;
+            size += chunk.tokens.size();
+        }
+        TokenBuffer tokens = new TokenBuffer(input, size);
+        for(Chunk chunk : chunks) {
+            tokens.addAll(chunk.tokens);
+        }
+        return tokens;
+    }
+
+    /**
+     * Updates a token buffer for an edit which replaced {@code removed} chars
+     * at {@code offset} of its source with {@code inserted}, see {@link
+     * #relex(TokenBuffer, CharSequence, int, int, int)}.
+     *
+     * The source is edited in place as a {@link SourceBuffer}, into which the
+     * first edit copies it if it is something else, so later edits cost as
+     * much as the edit rather than the source. If the edit doesn't lex the
+     * source is changed back.
+     */
+    public static TokenBuffer relex(TokenBuffer previous, int offset, int removed, String inserted) {
+        CharSequence old = previous.getSource();
+        if(offset < 0 || removed < 0 || offset + removed > old.length()) {
+            throw new IndexOutOfBoundsException("Edit [" + offset + ", " + (offset + removed) + ") out of bounds for length " + old.length() + ".");
+        }
+        SourceBuffer source = old instanceof SourceBuffer ? (SourceBuffer) old : new SourceBuffer(old);
+        String replaced = source.subSequence(offset, offset + removed);
+        source.replace(offset, removed, inserted);
+        try {
+            return relex(previous, source, offset, removed, inserted.length());
+        } catch (ParseException e) {
+            source.replace(offset, inserted.length(), replaced);
+            throw e;
+        }
+    }
+
+    /**
+     * Updates a token buffer in place for an edit of its source, where {@code
+     * source} is the edited text: {@code removed} chars at {@code offset} were
+     * replaced by {@code inserted} new ones.
+     *
+     * A token is only affected if the lex methods looked at a character of the
+     * edit, which is never more than {@link #LOOKAHEAD} chars past its end.
+     * Lexing restarts after the last unaffected token and stops as soon as a
+     * new token past the edit starts where an old one did (after shifting),
+     * since everything from there on lexes the same. Only the tokens in between
+     * are replaced, and {@link TokenBuffer#replace} leaves the tokens after
+     * them where they are, so the work done is proportional to the edit rather
+     * than the file. If the edit doesn't lex the buffer is left unchanged.
+     */
+    public static TokenBuffer relex(TokenBuffer previous, CharSequence source, int offset, int removed, int inserted) {
+        int delta = inserted - removed;
+        int first = firstAffected(previous, offset);
+        int restart = first == 0 ? 0 : previous.getEnd(first - 1);
+
+        Lexer lexer = new Lexer(new CharStream(source, restart));
+        TokenBuffer tokens = new TokenBuffer(source, 16);
+        int old = first;
+        while(lexer.skipWhitespace()) {
+            int start = lexer.chars.index;
+            if(start >= offset + inserted) {
+                while(old < previous.size() && (previous.getStart(old) < offset + removed || previous.getStart(old) + delta < start)) {
+                    old++;
+                }
+                if(old < previous.size() && previous.getStart(old) + delta == start) {
+                    previous.replace(first, old, tokens, delta);
+                    return previous;
+                }
+            }
+            lexer.chars.emit(lexer.scanToken(), tokens);
+        }
+        previous.replace(first, previous.size(), tokens, delta);
+        return previous;
+    }
+
+    /**
+     * Returns the index of the first token whose lexing may have looked at
+     * the char at {@code offset}, which is the first one {@link #relex} may
+     * replace for an edit there.
+     */
+    static int firstAffected(TokenBuffer tokens, int offset) {
+        int low = 0;
+        int high = tokens.size();
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(tokens.getEnd(mid) + LOOKAHEAD > offset) {
+                high = mid;
             }
             else {
-                //otherwise
-                //add a token (call lexToken)
-                Tokens.add(lexToken());
+                low = mid + 1;
             }
         }
+        return low;
+    }
 
-        return Tokens;
+    /**
+     * Returns an iterator which lexes the next token only when it is requested,
+     * the pull-based version of {@link #lex()}. Any {@link ParseException} is
+     * thrown from {@link Iterator#next()} when the invalid token is reached.
+     */
+    public Iterator<Token> iterator() {
+        return new Iterator<Token>() {
+
+            @Override
+            public boolean hasNext() {
+                return skipWhitespace();
+            }
+
+            @Override
+            public Token next() {
+                if(!skipWhitespace()) {
+                    throw new NoSuchElementException();
+                }
+                return lexToken();
+            }
+
+        };
+    }
+
+    /**
+     * Returns the tokens of {@link #iterator()} as an ordered spliterator, for
+     * use with {@link java.util.stream.StreamSupport}.
+     */
+    public Spliterator<Token> spliterator() {
+        return Spliterators.spliteratorUnknownSize(iterator(), Spliterator.ORDERED | Spliterator.NONNULL);
+    }
+
+    //skips whitespace before the next token, returning true if there is one
+    private boolean skipWhitespace() {
+        while(chars.has(0) && is(chars.get(0), WHITESPACE)) {
+            chars.advance();
+            chars.skip();
+        }
+        return chars.has(0);
     }
 
     /**
@@ -58,74 +377,128 @@ public final class Lexer {
      * by {@link #lex()}
      */
     public Token lexToken() {
-        //peeks the first characters of new token to find which method to invoke
-        //should have lots of if else statements
+        Token.Type type = scanToken();
+        return type == null ? null : emit(type);
+    }
+
+    public Token lexIdentifier() {
+        return emit(scanIdentifier());
+    }
+
+    public Token lexNumber() {
+        return emit(scanNumber());
+    }
+
+    public Token lexCharacter() {
+        return emit(scanCharacter());
+    }
+
+    public Token lexString() {
+        return emit(scanString());
+    }
+
+    public void lexEscape() {
+        System.out.println("Lex escape");
+    }
+
+    public Token lexOperator() {
+        return chars.emit(scanOperator());
+    }
+
+    /**
+     * The scan methods do the work of the matching lex methods, but leave the
+     * token in the char stream and return its type, so the caller decides if
+     * it becomes a {@link Token} or an entry of a {@link TokenBuffer}.
+     */
+    private Token.Type scanToken() {
+        //looks at the first character of new token to find which method to invoke
+        if(!chars.has(0)) {
+            throw new ParseException("Parse exception", chars.index, chars.lines);
+        }
+        char c = chars.get(0);
 
-        if(peek("[A-Za-z_]")) {
-            return lexIdentifier();
+        if(is(c, IDENTIFIER_START)) {
+            return scanIdentifier();
         }
-        else if(peek("[+-[0-9]]")) {
-            if(peek("[-+]")) {
+        else if(is(c, SIGN | DIGIT)) {
+            if(is(c, SIGN)) {
                 chars.advance();
             }
-            return lexNumber();
+            return scanNumber();
         }
-        else if(peek("\'")) {
+        else if(c == '\'') {
             chars.advance();
-            return lexCharacter();
+            return scanCharacter();
         }
-        else if(peek("[\"]")) {
+        else if(c == '"') {
             chars.advance();
-            return lexString();
+            return scanString();
         }
-        else if(peek("[\b\n\r\t]")) {
+        else if(c != ' ' && is(c, WHITESPACE)) {
             return null;
         }
-        else if(peek(".")) {
-            return  lexOperator();
+        else if(is(c, ANY)) {
+            return scanOperator();
         }
         else {
-            throw new ParseException("Parse exception", chars.index);
+            throw new ParseException("Parse exception", chars.index, chars.lines);
         }
     }
 
-    public Token lexIdentifier() {
-        while(match("[A-Za-z0-9_-]"))
+    private Token.Type scanIdentifier() {
+        while(matchClass(IDENTIFIER_PART))
         {
-            //match looks at the first char
-            //if peek is true
+            //matchClass looks at the first char
+            //if it is in the class
             //it advances to the next character (index++, length++)
         }
-        return chars.emit(Token.Type.IDENTIFIER);
+        return Token.Type.IDENTIFIER;
     }
 
-    public Token lexNumber() {
-        if(peek("[0-9]")) {
+    private Token.Type scanNumber() {
+        //the value is accumulated while scanning, see emit
+        unscaled = 0;
+        scale = 0;
+        exact = false;
+        if(peekClass(0, DIGIT)) {
             boolean decimal = false;
+            exact = true;
             while(true)
             {
-                if(!decimal && match("[0-9]", "\\." , "[0-9]"))
+                if(!decimal && peekClass(0, DIGIT) && peekChar(1, '.') && peekClass(2, DIGIT))
                 {
+                    digit(chars.get(0));
+                    digit(chars.get(2));
+                    scale = 1;
+                    advance(3);
                     decimal = true;
                 }
-                else if(decimal && match("\\."))
+                else if(decimal && peekChar(0, '.'))
                 {
                     // Stop reading //
-                    return chars.emit(Token.Type.DECIMAL);
+                    chars.advance();
+                    //a trailing . isn't part of any number
+                    exact = false;
+                    return Token.Type.DECIMAL;
                     // return decimal //
                 }
-                if(!match("[0-9]"))
+                if(!peekClass(0, DIGIT))
                 {
                     break;
                 }
+                digit(chars.get(0));
+                if(decimal) {
+                    scale++;
+                }
+                chars.advance();
             }
 
             if(decimal)
             {
-                return chars.emit(Token.Type.DECIMAL);
+                return Token.Type.DECIMAL;
             }
 
-            return chars.emit(Token.Type.INTEGER);
+            return Token.Type.INTEGER;
 
         }
         else {
@@ -133,62 +506,240 @@ public final class Lexer {
                 chars.length--;
                 chars.index--;
 
-                return lexOperator();
+                return scanOperator();
             }
         }
-        return chars.emit(Token.Type.INTEGER);
+        return Token.Type.INTEGER;
     }
 
-    public Token lexCharacter() {
-        //while it isn't another single quote
-        if(match("[\\\\]", "[bnrt'\"\\\\]", "[\']") || match(".", "[\']"))
+    //adds a digit to the value of the number, unless it no longer fits a long
+    private void digit(char c) {
+        int digit = c - '0';
+        if(unscaled > (Long.MAX_VALUE - digit) / 10) {
+            exact = false;
+        }
+        unscaled = unscaled * 10 + digit;
+    }
+
+    private Token.Type scanCharacter() {
+        //either an escape or a single character, followed by the closing quote
+        cooked.setLength(0);
+        if(peekChar(0, '\\') && peekClass(1, ESCAPE) && peekChar(2, '\''))
+        {
+            cooked.append(unescape(chars.get(1)));
+            advance(3);
+            return Token.Type.CHARACTER;
+        }
+        else if(peekClass(0, ANY) && peekChar(1, '\''))
         {
-            // return statement
-            return chars.emit(Token.Type.CHARACTER);
+            cooked.append(chars.get(0));
+            advance(2);
+            return Token.Type.CHARACTER;
         }
         else
         {
-            if(peek(".")) {
+            if(peekClass(0, ANY)) {
                 chars.index++;
             }
-            throw new ParseException("Invalid at index: \r", chars.index);
+            throw new ParseException("Invalid at index: \r", chars.index, chars.lines);
         }
     }
 
-    public Token lexString() {
-        while(chars.has(0) && !match("\"")) {
-            if(peek("[\\\\]"))
+    private Token.Type scanString() {
+        //the decoded characters are collected while checking the escapes
+        cooked.setLength(0);
+        boolean closed = false;
+        while(chars.has(0)) {
+            if(chars.get(0) == '"') {
+                chars.advance();
+                closed = true;
+                break;
+            }
+            if(chars.get(0) == '\\')
             {
                 chars.advance();
-                if(!peek("[bnrt'\"\\\\]"))
+                if(!peekClass(0, ESCAPE))
                 {
-                    throw new ParseException("Invalid escape", chars.index);
+                    throw new ParseException("Invalid escape", chars.index, chars.lines);
                 }
+                cooked.append(unescape(chars.get(0)));
+            }
+            else {
+                cooked.append(chars.get(0));
             }
             chars.advance();
         }
-        if(chars.get(-1) != '\"') {
-            throw new ParseException("Error", chars.index);
+        if(chars.get(-1) != '"') {
+            throw new ParseException("Error", chars.index, chars.lines);
         }
-        return chars.emit(Token.Type.STRING);
-    }
-
-    public void lexEscape() {
-        System.out.println("Lex escape");
+        if(!closed && cooked.length() > 0) {
+            //a string cut off after \" is accepted, with the " as its closing quote
+            cooked.setCharAt(cooked.length() - 1, '\\');
+        }
+        return Token.Type.STRING;
     }
 
-    public Token lexOperator() {
-        if(match("[<>!=]", "=")) {
-            return chars.emit(Token.Type.OPERATOR);
+    private Token.Type scanOperator() {
+        if(peekClass(0, COMPARISON) && peekChar(1, '=')) {
+            advance(2);
+            return Token.Type.OPERATOR;
         }
         else {
-            if(match(".")) {
+            if(matchClass(ANY)) {
                 if(chars.get(-1) == ' ') {
-                    throw new ParseException("Invalid", chars.index);
+                    throw new ParseException("Invalid", chars.index, chars.lines);
                 }
-                return chars.emit(Token.Type.OPERATOR);
+                return Token.Type.OPERATOR;
             }
-            throw new ParseException("Invalid", chars.index);
+            throw new ParseException("Invalid", chars.index, chars.lines);
+        }
+    }
+
+    //instantiates the token, with the decoded value of string and character
+    //literals and the interned literal of identifiers
+    private Token emit(Token.Type type) {
+        if(type == Token.Type.IDENTIFIER) {
+            return chars.emit(symbols);
+        }
+        else if(type == Token.Type.STRING) {
+            return chars.emit(type, cooked.toString());
+        }
+        else if(type == Token.Type.CHARACTER) {
+            return chars.emit(type, cooked.charAt(0));
+        }
+        else if(exact && (type == Token.Type.INTEGER || type == Token.Type.DECIMAL)) {
+            long value = chars.get(-chars.length) == '-' ? -unscaled : unscaled;
+            if(type == Token.Type.INTEGER) {
+                return chars.emit(type, BigInteger.valueOf(value));
+            }
+            return chars.emit(type, BigDecimal.valueOf(value, scale));
+        }
+        //numbers that don't fit a long are parsed from the literal when needed
+        return chars.emit(type);
+    }
+
+    /**
+     * Returns the decoded value of the literal in {@code [start, end)} of the
+     * source: a {@link String} or {@link Character} without its quotes and
+     * with escapes replaced, a {@link BigInteger} or {@link BigDecimal} for
+     * numbers, or the literal itself for other token types (and numbers which
+     * aren't valid, like {@code 1.25.}). This is for tokens that weren't created
+     * by {@link #lexToken()}, such as tokens in a {@link TokenBuffer}; an
+     * unknown escape is kept as it is.
+     */
+    static Object cook(Token.Type type, CharSequence source, int start, int end) {
+        if(type == Token.Type.INTEGER || type == Token.Type.DECIMAL) {
+            return number(type, source, start, end);
+        }
+        else if(type != Token.Type.STRING && type != Token.Type.CHARACTER) {
+            return source.subSequence(start, end).toString();
+        }
+        StringBuilder builder = new StringBuilder(Math.max(end - start - 2, 0));
+        for(int i = start + 1; i < end - 1; i++) {
+            char c = source.charAt(i);
+            if(c == '\\' && i + 1 < end - 1 && is(source.charAt(i + 1), ESCAPE)) {
+                c = unescape(source.charAt(++i));
+            }
+            builder.append(c);
+        }
+        if(type == Token.Type.CHARACTER) {
+            return builder.charAt(0);
+        }
+        return builder.toString();
+    }
+
+    //parses a number literal, in a long if it fits
+    private static Object number(Token.Type type, CharSequence source, int start, int end) {
+        int i = start < end && is(source.charAt(start), SIGN) ? start + 1 : start;
+        long unscaled = 0;
+        int scale = -1;
+        boolean exact = i < end;
+        for(; i < end && exact; i++) {
+            char c = source.charAt(i);
+            if(c == '.' && scale < 0 && type == Token.Type.DECIMAL) {
+                scale = 0;
+            }
+            else if(is(c, DIGIT) && unscaled <= (Long.MAX_VALUE - (c - '0')) / 10) {
+                unscaled = unscaled * 10 + (c - '0');
+                scale += scale < 0 ? 0 : 1;
+            }
+            else {
+                exact = false;
+            }
+        }
+        if(exact && (type == Token.Type.INTEGER) == (scale < 0) && source.charAt(end - 1) != '.') {
+            long value = source.charAt(start) == '-' ? -unscaled : unscaled;
+            return type == Token.Type.INTEGER ? BigInteger.valueOf(value) : BigDecimal.valueOf(value, scale);
+        }
+        String literal = source.subSequence(start, end).toString();
+        try {
+            return type == Token.Type.INTEGER ? new BigInteger(literal) : new BigDecimal(literal);
+        } catch (NumberFormatException e) {
+            return literal;
+        }
+    }
+
+    //returns the character an escape stands for, given the character after the \
+    private static char unescape(char c) {
+        switch(c) {
+            case 'b':
+                return '\b';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            default:
+                return c;
+        }
+    }
+
+    /**
+     * Returns true if the character is in one of the given classes (the bits
+     * of {@link #CLASSES}). Non-ASCII characters only belong to {@link #ANY},
+     * except for the extra line terminators regex {@code .} doesn't match.
+     */
+    private static boolean is(char c, int classes) {
+        if(c < CLASSES.length) {
+            return (CLASSES[c] & classes) != 0;
+        }
+        return (classes & ANY) != 0 && c != '\u0085' && c != '\u2028' && c != '\u2029';
+    }
+
+    /**
+     * Returns true if the character at the offset exists and is in one of the
+     * given classes. This is the table-driven version of {@link #peek(String...)}
+     * for a single character.
+     */
+    private boolean peekClass(int offset, int classes) {
+        return chars.has(offset) && is(chars.get(offset), classes);
+    }
+
+    /**
+     * Returns true if the character at the offset exists and is {@code c}.
+     */
+    private boolean peekChar(int offset, char c) {
+        return chars.has(offset) && chars.get(offset) == c;
+    }
+
+    /**
+     * Same as {@link #peekClass(int, int)} at offset 0, but also advances past
+     * the character if it matched.
+     */
+    private boolean matchClass(int classes) {
+        boolean peek = peekClass(0, classes);
+
+        if(peek) {
+            chars.advance();
+        }
+        return peek;
+    }
+
+    //advances past count characters that have already been checked
+    private void advance(int count) {
+        for(int i = 0; i < count; i++) {
+            chars.advance();
         }
     }
 
@@ -224,34 +775,126 @@ public final class Lexer {
         return  peek;
     }
 
+    /**
+     * A chunk of {@link #lexParallel(CharSequence, ForkJoinPool)}, lexing the
+     * tokens starting in {@code [start, end)} of the input.
+     */
+    private static final class Chunk extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final CharSequence input;
+        private final int start;
+        private final int end;
+        private TokenBuffer tokens;
+        //end of the last token, which may be past the end of the chunk
+        private int last;
+        private ParseException error;
+
+        private Chunk(CharSequence input, int start, int end) {
+            this.input = input;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            //a byte source decodes with a cursor, so each thread needs its own
+            CharSequence source = input instanceof ByteSource ? ((ByteSource) input).duplicate() : input;
+            Lexer lexer = new Lexer(new CharStream(source, start));
+            tokens = new TokenBuffer(source, Math.max((end - start) / 8, 16));
+            last = start;
+            try {
+                while(lexer.skipWhitespace() && lexer.chars.index < end) {
+                    lexer.chars.emit(lexer.scanToken(), tokens);
+                    last = lexer.chars.index;
+                }
+            } catch (ParseException e) {
+                error = e;
+            }
+        }
+
+    }
+
     /**
      * A helper class maintaining the input string, current index of the char
      * stream, and the current length of the token being matched.
      *
+     * The input is either a {@link CharSequence} or a {@link Reader}. A reader
+     * is read into a sliding buffer that only keeps the characters of the
+     * current token, so the buffer grows with the longest token rather than
+     * with the input. Tokens over a character sequence other than a {@link
+     * String} (such as a {@link ByteSource}) only copy out their literal when
+     * it is first requested.
+     *
      * You should rely on peek/match for state management in nearly all cases.
      * The only field you need to access is {@link #index} for any {@link
      * ParseException} which is thrown.
      */
     public static final class CharStream {
-        //input = source string
-        private final String input;
+
+        private static final int DEFAULT_CAPACITY = 8192;
+
+        //input = source text, null when reading from a reader
+        private final CharSequence input;
+        private final Reader reader;
+        //buffer = characters of the reader starting at offset, up to limit
+        private char[] buffer;
+        //CharSequence view of the buffer, for interning identifiers
+        private CharBuffer view;
+        //line starts of the input, built on first use or as the reader is read
+        private final LineIndex lines;
+        private int offset = 0;
+        private int limit = 0;
+        private boolean eof = false;
         //index = position within source (input)
         private int index = 0;
         //length = size of current token
         private int length = 0;
 
-        public CharStream(String input) {
+        public CharStream(CharSequence input) {
+            this(input, 0);
+        }
+
+        /**
+         * Starts reading the input at {@code index} instead of the beginning.
+         */
+        public CharStream(CharSequence input, int index) {
             this.input = input;
+            this.reader = null;
+            this.index = index;
+            this.lines = new LineIndex(input);
+        }
+
+        public CharStream(Reader reader) {
+            this(reader, DEFAULT_CAPACITY);
+        }
+
+        /**
+         * Reads from the reader with an initial buffer of {@code capacity}
+         * characters, which is only grown for tokens that don't fit.
+         */
+        public CharStream(Reader reader, int capacity) {
+            this.input = null;
+            this.reader = reader;
+            this.buffer = new char[Math.max(capacity, 1)];
+            this.lines = new LineIndex();
         }
 
         //checks if input has *offset amount* of characters remaining
         public boolean has(int offset) {
-            return index + offset < input.length();
+            if(reader == null) {
+                return index + offset < input.length();
+            }
+            return index + offset < limit || fill(index + offset);
         }
 
         //returns character at offset position
         public char get(int offset) {
-            return input.charAt(index + offset);
+            if(reader == null) {
+                return input.charAt(index + offset);
+            }
+            return buffer[index + offset - this.offset];
         }
 
         //moves to next character position in input
@@ -276,10 +919,78 @@ public final class Lexer {
             skip();
             //set length to 0
 
-            return new Token(type, input.substring(start, index), start);
+            if(input instanceof String) {
+                return new Token(type, ((String) input).substring(start, index), start).withLines(lines);
+            }
+            else if(input != null) {
+                return new Token(type, input, start, index).withLines(lines);
+            }
+            return new Token(type, new String(buffer, start - offset, index - start), start).withLines(lines);
             //token: identifier, Let, 0
         }
 
+        //instantiates current token with its decoded value
+        public Token emit(Token.Type type, Object value) {
+            return emit(type).withValue(value);
+        }
+
+        //instantiates current identifier with its interned literal and keyword
+        public Token emit(SymbolTable symbols) {
+            int start = index - length;
+            skip();
+            int id;
+            if(reader == null) {
+                id = symbols.lookup(input, start, index);
+            }
+            else {
+                if(view == null || view.array() != buffer) {
+                    view = CharBuffer.wrap(buffer);
+                }
+                id = symbols.lookup(view, start - offset, index - offset);
+            }
+            return new Token(Token.Type.IDENTIFIER, symbols.symbol(id), start, SymbolTable.keyword(id)).withLines(lines);
+        }
+
+        //records current token in the buffer instead of instantiating it
+        public void emit(Token.Type type, TokenBuffer buffer) {
+            int start = index - length;
+            skip();
+            Token.Keyword keyword = type == Token.Type.IDENTIFIER ? SymbolTable.classify(input, start, index) : null;
+            buffer.add(type, keyword, start, index);
+        }
+
+        /**
+         * Reads from the reader until the character at {@code position} is
+         * buffered or the input ends. Characters before the start of the
+         * current token are dropped to make room.
+         */
+        private boolean fill(int position) {
+            while(limit <= position && !eof) {
+                int start = index - length;
+                if(start > offset) {
+                    System.arraycopy(buffer, start - offset, buffer, 0, limit - start);
+                    offset = start;
+                }
+                if(limit - offset == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                try {
+                    int read = reader.read(buffer, limit - offset, buffer.length - (limit - offset));
+                    if(read < 0) {
+                        eof = true;
+                        lines.end(limit);
+                    }
+                    else {
+                        lines.add(buffer, limit - offset, limit - offset + read, limit);
+                        limit += read;
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return position < limit;
+        }
+
     }
 
-}
\ No newline at end of file
+}
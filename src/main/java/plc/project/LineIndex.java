@@ -0,0 +1,144 @@
+package plc.project;
+
+import java.util.Arrays;
+
+/**
+ * Maps a character index of the source to its line and column, both starting
+ * at 1. Columns count chars, so a character outside of the BMP is two.
+ *
+ * The start index of every line is kept in a sorted array and a lookup is a
+ * binary search over it. For a {@link CharSequence} source the array is only
+ * built by the first lookup, so lexing and parsing don't pay for it unless a
+ * position is actually needed. A source read from a {@link java.io.Reader}
+ * isn't kept around, so the {@link Lexer.CharStream} records the line starts
+ * as it reads instead.
+ *
+ * Lines end at {@code \n}, {@code \r\n} or a lone {@code \r}.
+ */
+public final class LineIndex {
+
+    private final CharSequence source;
+    //start index of each line, starts[0] being 0
+    private int[] starts;
+    private int size;
+    //for a reader, a \r was the last char added so far
+    private boolean pendingReturn = false;
+
+    public LineIndex(CharSequence source) {
+        this.source = source;
+    }
+
+    /**
+     * Creates an index whose line starts are added by {@link #add(char[], int,
+     * int, int)} as the source is read.
+     */
+    LineIndex() {
+        this.source = null;
+        this.starts = new int[64];
+        this.size = 1;
+    }
+
+    /**
+     * Returns the line holding the index. An index past the end of the source
+     * is on the last line.
+     */
+    public synchronized int getLine(int index) {
+        check(index);
+        int[] starts = starts();
+        //last line starting at or before index
+        int low = 0;
+        int high = size - 1;
+        while(low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if(starts[mid] <= index) {
+                low = mid;
+            }
+            else {
+                high = mid - 1;
+            }
+        }
+        return low + 1;
+    }
+
+    public synchronized int getColumn(int index) {
+        return index - starts()[getLine(index) - 1] + 1;
+    }
+
+    /**
+     * Returns the index of the first character of the line.
+     */
+    public synchronized int getLineStart(int line) {
+        int[] starts = starts();
+        if(line < 1 || line > size) {
+            throw new IndexOutOfBoundsException("Line " + line + " out of bounds for " + size + " lines.");
+        }
+        return starts[line - 1];
+    }
+
+    /**
+     * Returns the number of lines, which for a reader is the number read so
+     * far. The empty text after a final line terminator counts as a line.
+     */
+    public synchronized int getLineCount() {
+        starts();
+        return size;
+    }
+
+    /**
+     * Records the line starts in {@code chars[from, to)}, which are at {@code
+     * offset} in the source.
+     */
+    synchronized void add(char[] chars, int from, int to, int offset) {
+        for(int i = from; i < to; i++) {
+            char c = chars[i];
+            if(pendingReturn && c != '\n') {
+                append(offset + i - from);
+            }
+            pendingReturn = c == '\r';
+            if(c == '\n') {
+                append(offset + i - from + 1);
+            }
+        }
+    }
+
+    /**
+     * Records the end of a source read with {@link #add(char[], int, int,
+     * int)}, which is {@code length} chars long.
+     */
+    synchronized void end(int length) {
+        if(pendingReturn) {
+            append(length);
+            pendingReturn = false;
+        }
+    }
+
+    //builds the line starts of a CharSequence source on first use
+    private int[] starts() {
+        if(starts == null) {
+            starts = new int[Math.max(source.length() / 32, 16)];
+            size = 1;
+            int length = source.length();
+            for(int i = 0; i < length; i++) {
+                char c = source.charAt(i);
+                if(c == '\n' || (c == '\r' && (i + 1 == length || source.charAt(i + 1) != '\n'))) {
+                    append(i + 1);
+                }
+            }
+        }
+        return starts;
+    }
+
+    private void append(int start) {
+        if(size == starts.length) {
+            starts = Arrays.copyOf(starts, size * 2);
+        }
+        starts[size++] = start;
+    }
+
+    private void check(int index) {
+        if(index < 0) {
+            throw new IndexOutOfBoundsException("Index " + index + " is negative.");
+        }
+    }
+
+}
@@ -3,14 +3,38 @@ package plc.project;
 public final class ParseException extends RuntimeException {
 
     private final int index;
+    private final LineIndex lines;
 
     public ParseException(String message, int index) {
+        this(message, index, null);
+    }
+
+    /**
+     * Creates an exception which can also report the line and column of the
+     * index, using the {@link LineIndex} of the source.
+     */
+    public ParseException(String message, int index, LineIndex lines) {
         super(message);
         this.index = index;
+        this.lines = lines;
     }
 
     public int getIndex() {
         return index;
     }
 
+    /**
+     * Returns the line of the index, or -1 if the source isn't known.
+     */
+    public int getLine() {
+        return lines == null ? -1 : lines.getLine(index);
+    }
+
+    /**
+     * Returns the column of the index, or -1 if the source isn't known.
+     */
+    public int getColumn() {
+        return lines == null ? -1 : lines.getColumn(index);
+    }
+
 }
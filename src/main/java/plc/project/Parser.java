@@ -2,9 +2,14 @@ package plc.project;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Supplier;
 
 /**
  * The parser takes the sequence of tokens emitted by the lexer and turns that
@@ -21,10 +26,113 @@ import java.util.Optional;
  */
 public final class Parser {
 
+    //precedence of the binary operators, from loosest to tightest
+    private static final int LOGICAL = 1;
+    private static final int COMPARISON = 2;
+    private static final int ADDITIVE = 3;
+    private static final int MULTIPLICATIVE = 4;
+
+    //precedence of the one char operators and of those ending in =, by their
+    //first char
+    private static final int[] OPERATORS = new int[128];
+    private static final int[] COMPARISONS = new int[128];
+
+    static {
+        OPERATORS['<'] = COMPARISON;
+        OPERATORS['>'] = COMPARISON;
+        OPERATORS['+'] = ADDITIVE;
+        OPERATORS['-'] = ADDITIVE;
+        OPERATORS['*'] = MULTIPLICATIVE;
+        OPERATORS['/'] = MULTIPLICATIVE;
+        COMPARISONS['<'] = COMPARISON;
+        COMPARISONS['>'] = COMPARISON;
+        COMPARISONS['='] = COMPARISON;
+        COMPARISONS['!'] = COMPARISON;
+    }
+
     private final TokenStream tokens;
+    //whether nesting is parsed with a stack on the heap, see withExplicitStack
+    private boolean explicitStack = false;
+    //where methods are parsed in parallel, or null, see withParallelMethods
+    private ForkJoinPool pool = null;
+    //whether method bodies are parsed when first used, see withLazyMethods
+    private boolean lazy = false;
 
     public Parser(List<Token> tokens) {
-        this.tokens = new TokenStream(tokens);
+        this.tokens = new ListTokenStream(tokens);
+    }
+
+    /**
+     * Parses a {@link TokenBuffer} without creating a {@link Token} for every
+     * token, see {@link Lexer#lexBuffer()}.
+     */
+    public Parser(TokenBuffer tokens) {
+        this.tokens = new BufferTokenStream(tokens);
+    }
+
+    private Parser(TokenStream tokens) {
+        this.tokens = tokens;
+    }
+
+    /**
+     * Parses tokens as they are pulled from the iterator, such as {@link
+     * Lexer#iterator()}, only keeping a small window of them in memory.
+     */
+    public Parser(Iterator<Token> tokens) {
+        this.tokens = new WindowTokenStream(tokens);
+    }
+
+    /**
+     * Turns parsing nested expressions and statements with an explicit stack
+     * on the heap, instead of by recursion, on or off. Nesting is then only
+     * limited by memory, so machine-generated sources with thousands of
+     * nested parentheses or blocks don't overflow the thread's stack. The
+     * trees and errors are the same either way; see {@link AstWalker} for
+     * walking the deep trees this allows.
+     */
+    public Parser withExplicitStack(boolean explicitStack) {
+        this.explicitStack = explicitStack;
+        return this;
+    }
+
+    /**
+     * Makes {@link #parseSource()} parse the methods on the pool, or in order
+     * if it is null. The tokens are pre-scanned for where each method starts
+     * and ends, by matching {@code END}s against {@code DEF}, {@code IF},
+     * {@code FOR} and {@code WHILE}, and each method is parsed by a parser of
+     * its own from its start. The methods are in their order in the source,
+     * and errors are the same as parsing them in order. Tokens pulled from an
+     * iterator are always parsed in order, since they can't be read from
+     * several places at once.
+     */
+    public Parser withParallelMethods(ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    /**
+     * Makes methods parse their statements when they are first asked for, so
+     * parsing a program only costs its signatures and what is actually run.
+     * The body of a method is found by matching its {@code END} and kept as
+     * a range of the tokens (see {@link Ast.Method#getStatements()}), so an
+     * error in it is thrown by getStatements() rather than here. Tokens pulled
+     * from an iterator can't be gone back to and are always parsed up front.
+     */
+    public Parser withLazyMethods(boolean lazy) {
+        this.lazy = lazy;
+        return this;
+    }
+
+    /**
+     * Returns the index of the next token, which {@link IncrementalParser}
+     * records as where a field or method ends.
+     */
+    int getIndex() {
+        return tokens.index;
+    }
+
+    void setIndex(int index) {
+        tokens.index = index;
     }
 
     /**
@@ -38,39 +146,106 @@ public final class Parser {
         // if token == LET, call parse field & add to fields
         //else if start with def, call parse method and add to methods
 
-        while(match("LET")) {
+        while(match(Token.Keyword.LET)) {
             fields.add(parseField());
         }
 
-        while(match("DEF")) {
+        if(pool != null) {
+            parseMethodsInParallel(methods);
+        }
+
+        while(match(Token.Keyword.DEF)) {
             methods.add(parseMethod());
         }
 
         return new Ast.Source(fields, methods);
     }
 
+    /**
+     * Parses the methods from the current token on in parallel, see {@link
+     * #withParallelMethods}, adding them to {@code methods} and advancing past
+     * them. Stops at the first method which didn't end where the pre-scan
+     * said it would, or didn't parse, leaving it to be parsed again in order
+     * so its error (or lack of one) is exactly that of a sequential parse.
+     */
+    private void parseMethodsInParallel(List<Ast.Method> methods) {
+        //pre-scan: the index of each top level DEF, going by the nesting of
+        //DEF, IF, FOR and WHILE against END, plus where the last one ends
+        List<Integer> starts = new ArrayList<>();
+        int depth = 0;
+        int offset = 0;
+        for(; tokens.has(offset) && (depth > 0 || tokens.keyword(offset) == Token.Keyword.DEF); offset++) {
+            Token.Keyword keyword = tokens.keyword(offset);
+            if(keyword == Token.Keyword.DEF && depth++ == 0) {
+                starts.add(tokens.index + offset);
+            }
+            else if(keyword == Token.Keyword.IF || keyword == Token.Keyword.FOR || keyword == Token.Keyword.WHILE) {
+                depth++;
+            }
+            else if(keyword == Token.Keyword.END) {
+                depth--;
+            }
+        }
+        starts.add(tokens.index + offset);
+        if(starts.size() < 3) {
+            return;
+        }
+        List<ForkJoinTask<MethodResult>> tasks = new ArrayList<>();
+        for(int i = 0; i + 1 < starts.size(); i++) {
+            TokenStream stream = tokens.duplicate();
+            if(stream == null) {
+                return;
+            }
+            //just past the DEF, as parseSource leaves it
+            stream.index = starts.get(i) + 1;
+            Parser parser = new Parser(stream).withExplicitStack(explicitStack).withLazyMethods(lazy);
+            tasks.add(pool.submit(() -> {
+                MethodResult result = new MethodResult();
+                try {
+                    result.method = parser.parseMethod();
+                } catch (RuntimeException | StackOverflowError e) {
+                    //parsed again in order, which throws it on this thread
+                    return result;
+                }
+                result.end = stream.index;
+                return result;
+            }));
+        }
+        for(int i = 0; i < tasks.size(); i++) {
+            MethodResult result = tasks.get(i).join();
+            if(result.method == null || result.end != starts.get(i + 1)) {
+                for(int j = i + 1; j < tasks.size(); j++) {
+                    tasks.get(j).cancel(false);
+                }
+                return;
+            }
+            methods.add(result.method);
+            tokens.index = result.end;
+        }
+    }
+
     /**
      * Parses the {@code field} rule. This method should only be called if the
      * next tokens start a field, aka {@code LET}.
      */
     public Ast.Field parseField() throws ParseException {
         // 'LET' identifier ('=' expression)? ';'
-        if(peek("LET")) {
+        if(peek(Token.Keyword.LET)) {
             tokens.advance();
         }
         String name;
         String type = null;
         Optional<Ast.Expr> value = Optional.empty();
 
-        name = tokens.get(0).getLiteral();
+        name = tokens.literal(0);
         tokens.advance();
 
         if(match(":")) {
-            type = tokens.get(0).getLiteral();
+            type = tokens.literal(0);
             tokens.advance();
         }
         else {
-            throw new ParseException("Invalid field", tokens.has(0) ? tokens.get(0).getIndex() : tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
+            throw error("Invalid field", tokens.has(0) ? tokens.get(0).getIndex() : tokens.get(-1).getIndex() + tokens.literal(-1).length());
         }
 
         if(match("=")) {
@@ -81,7 +256,7 @@ public final class Parser {
         }
 
         if(!match(";")) {
-            //throw new ParseException("Expected semicolon.", tokens.get(-1).getIndex()+1);
+            //throw error("Expected semicolon.", tokens.get(-1).getIndex()+1);
         }
         return new Ast.Field(name,type, value);
 
@@ -94,63 +269,108 @@ public final class Parser {
      */
     public Ast.Method parseMethod() throws ParseException {
         //'DEF' identifier '(' (identifier (',' identifier)*)? ')' 'DO' statement* 'END'
-        if(peek("DEF")) {
+        if(peek(Token.Keyword.DEF)) {
             tokens.advance();
         }
-        String name = tokens.get(0).getLiteral();
+        if(!tokens.has(0)) {
+            throw error("Invalid method.", errorIndex());
+        }
+        String name = tokens.literal(0);
         Optional<String> type = Optional.of("Any");
         tokens.advance();
         List<String> parameters = new ArrayList<>();
         List<String> pTypeName = new ArrayList<>();
         List<Ast.Stmt> statements = new ArrayList<>();
+        LazyBody body = null;
 
         if(match("(")) {
             if(!peek(")")) {
-                parameters.add(tokens.get(0).getLiteral());
+                parameters.add(tokens.literal(0));
                 tokens.advance();
                 if(match(":")) {
-                    pTypeName.add(tokens.get(0).getLiteral());
+                    pTypeName.add(tokens.literal(0));
                     tokens.advance();
                 }
                 else{
-                    throw new ParseException("Invalid method",tokens.has(0) ? tokens.get(0).getIndex() : tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
+                    throw error("Invalid method",tokens.has(0) ? tokens.get(0).getIndex() : tokens.get(-1).getIndex() + tokens.literal(-1).length());
                 }
                 while(match(",")) {
-                    parameters.add(tokens.get(0).getLiteral());
+                    parameters.add(tokens.literal(0));
                     if(match(":")) {
-                        pTypeName.add(tokens.get(0).getLiteral());
+                        pTypeName.add(tokens.literal(0));
                         tokens.advance();
                     }
                     else{
-                        throw new ParseException("Invalid method",tokens.has(0) ? tokens.get(0).getIndex() : tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
+                        throw error("Invalid method",tokens.has(0) ? tokens.get(0).getIndex() : tokens.get(-1).getIndex() + tokens.literal(-1).length());
                     }
                 }
             }
             if(!match(")")) {
 
-                throw new ParseException("Expected closing parenthesis.", tokens.has(0) ? tokens.get(0).getIndex() : tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
+                throw error("Expected closing parenthesis.", tokens.has(0) ? tokens.get(0).getIndex() : tokens.get(-1).getIndex() + tokens.literal(-1).length());
             }
             if(match(":")) {
-                type = Optional.of(tokens.get(0).getLiteral());
+                type = Optional.of(tokens.literal(0));
                 tokens.advance();
             }
-            if(!match("DO")) {
-                throw new ParseException("Invalid method.", tokens.has(0) ? tokens.get(0).getIndex() : tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
+            if(!match(Token.Keyword.DO)) {
+                throw error("Invalid method.", tokens.has(0) ? tokens.get(0).getIndex() : tokens.get(-1).getIndex() + tokens.literal(-1).length());
             }
 
-            while(!match("END")) {
-                statements.add(parseStatement());
+            int end = lazy ? bodyEnd() : -1;
+            TokenStream stream = end >= 0 ? tokens.duplicate() : null;
+            if(stream != null) {
+                body = new LazyBody(stream, tokens.index, end, explicitStack);
+                tokens.index = end;
             }
-            if(tokens.has(0)) {
-                throw new ParseException("Invalid method.",  tokens.has(0) ? tokens.get(0).getIndex() : tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
+            else {
+                while(!match(Token.Keyword.END)) {
+                    statements.add(parseStatement());
+                }
+            }
+            //another method may follow, but nothing else
+            if(tokens.has(0) && !peek(Token.Keyword.DEF)) {
+                throw error("Invalid method.",  tokens.has(0) ? tokens.get(0).getIndex() : tokens.get(-1).getIndex() + tokens.literal(-1).length());
             }
         }
 
 
+        if(body != null) {
+            return new Ast.Method(name, parameters, pTypeName, type, body);
+        }
         return new Ast.Method(name, parameters, pTypeName, type, statements);
 
     }
 
+    /**
+     * Returns the index just past the {@code END} of the method body starting
+     * at the current token, without parsing it, or -1 if there isn't one.
+     * Only keywords starting a statement count, which is where the parser
+     * treats them as keywords: the body ends at the {@code END} matching the
+     * {@code IF}s, {@code FOR}s and {@code WHILE}s in it, and a statement
+     * starts after {@code DO}, {@code ELSE}, {@code END} and {@code ;}.
+     */
+    private int bodyEnd() {
+        int depth = 1;
+        boolean start = true;
+        for(int offset = 0; tokens.has(offset); offset++) {
+            Token.Keyword keyword = tokens.keyword(offset);
+            if(start && keyword == Token.Keyword.END) {
+                if(--depth == 0) {
+                    return tokens.index + offset + 1;
+                }
+            }
+            else if(start && (keyword == Token.Keyword.IF || keyword == Token.Keyword.FOR || keyword == Token.Keyword.WHILE)) {
+                depth++;
+                start = false;
+            }
+            else {
+                start = keyword == Token.Keyword.DO || keyword == Token.Keyword.ELSE || tokens.literalEquals(offset, ";");
+            }
+        }
+        return -1;
+    }
+
     /**
      * Parses the {@code statement} rule and delegates to the necessary method.
      * If the next tokens do not start a declaration, if, while, or return
@@ -163,51 +383,131 @@ public final class Parser {
         //  'WHILE' expression 'DO' statement* 'END' |
         // 'RETURN' expression ';' |
         //  expression ('=' expression)? ';'
+        if(explicitStack) {
+            return parseStatementIteratively();
+        }
         Ast.Stmt stmt = null;
-        Ast.Expr stmtExpr = null;
-        Ast.Expr stmtExpr2 = null;
-        boolean expr = false;
 
-        if(match("LET")) {
+        if(match(Token.Keyword.LET)) {
             stmt = parseDeclarationStatement();
         }
-        else if(match("IF")) {
+        else if(match(Token.Keyword.IF)) {
             stmt = parseIfStatement();
         }
-        else if(match("FOR")) {
+        else if(match(Token.Keyword.FOR)) {
             stmt = parseForStatement();
         }
-        else if(match("WHILE")) {
+        else if(match(Token.Keyword.WHILE)) {
             stmt = parseWhileStatement();
         }
-        else if(match("RETURN")) {
+        else if(match(Token.Keyword.RETURN)) {
             stmt = parseReturnStatement();
         }
         else {
-            stmtExpr = parseExpression();
-            if(match("=")) {
-                stmtExpr2 = parseExpression();
+            stmt = parseExpressionStatement();
+        }
+        return stmt;
+    }
 
-                if(!match(";")) {
-                    throw new ParseException("Missing semicolon.", tokens.has(0) ? tokens.get(0).getIndex() : tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
-                }
-                else {
-                    return new Ast.Stmt.Assignment(stmtExpr,stmtExpr2);
-                }
+    /**
+     * Parses an expression or assignment statement from the {@code statement}
+     * rule, which is any statement not starting with a keyword.
+     */
+    private Ast.Stmt parseExpressionStatement() throws ParseException {
+        // expression ('=' expression)? ';'
+        Ast.Expr stmtExpr = parseExpression();
+        if(match("=")) {
+            Ast.Expr stmtExpr2 = parseExpression();
+
+            if(!match(";")) {
+                throw error("Missing semicolon.", tokens.has(0) ? tokens.get(0).getIndex() : tokens.get(-1).getIndex() + tokens.literal(-1).length());
             }
             else {
-                if(!match(";")) {
-                    throw new ParseException("Missing semicolon.", tokens.has(0) ? tokens.get(0).getIndex() : tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
-                }
+                return new Ast.Stmt.Assignment(stmtExpr,stmtExpr2);
             }
-            expr = true;
         }
-
-        if(expr) {
-            return new Ast.Stmt.Expression(stmtExpr);
+        else {
+            if(!match(";")) {
+                throw error("Missing semicolon.", tokens.has(0) ? tokens.get(0).getIndex() : tokens.get(-1).getIndex() + tokens.literal(-1).length());
+            }
         }
-        else{
-            return stmt;
+        return new Ast.Stmt.Expression(stmtExpr);
+    }
+
+    /**
+     * The {@link #parseStatement()} of {@link #withExplicitStack}. The if, for
+     * and while statements whose bodies are being parsed are kept in a stack
+     * of {@link StatementFrame}s, so a statement in a body is parsed by the
+     * same loop instead of by recursion. Headers are checked, and errors are
+     * reported, as in the recursive methods.
+     */
+    private Ast.Stmt parseStatementIteratively() throws ParseException {
+        ArrayDeque<StatementFrame> frames = new ArrayDeque<>();
+        while(true) {
+            Ast.Stmt statement = null;
+            StatementFrame frame = frames.peek();
+            if(frame != null) {
+                //the body goes on until END, or for then statements ELSE
+                if(frame.kind == Token.Keyword.IF && match(Token.Keyword.ELSE)) {
+                    frame.kind = Token.Keyword.ELSE;
+                    frame.statements = frame.elseStatements;
+                    continue;
+                }
+                else if(match(Token.Keyword.END)) {
+                    statement = frames.pop().statement();
+                }
+                else if(peek(";")) {
+                    tokens.advance();
+                    continue;
+                }
+            }
+            if(statement == null) {
+                if(match(Token.Keyword.LET)) {
+                    statement = parseDeclarationStatement();
+                }
+                else if(match(Token.Keyword.IF)) {
+                    Ast.Expr condition = parseExpression();
+                    if(!match(Token.Keyword.DO)) {
+                        throw error("Invalid IF statement.", errorIndex());
+                    }
+                    frames.push(new StatementFrame(Token.Keyword.IF, null, condition));
+                    continue;
+                }
+                else if(match(Token.Keyword.FOR)) {
+                    String name = tokens.literal(0);
+                    if(startsWithDigit(name)) {
+                        throw error("Invalid name.", errorIndex());
+                    }
+                    tokens.advance();
+                    if(!match(Token.Keyword.IN)) {
+                        throw error("Invalid FOR statement.", errorIndex());
+                    }
+                    Ast.Expr value = parseExpression();
+                    if(!match(Token.Keyword.DO)) {
+                        throw error("Invalid FOR statement.", errorIndex());
+                    }
+                    frames.push(new StatementFrame(Token.Keyword.FOR, name, value));
+                    continue;
+                }
+                else if(match(Token.Keyword.WHILE)) {
+                    Ast.Expr condition = parseExpression();
+                    if(!match(Token.Keyword.DO)) {
+                        throw error("Invalid WHILE statement.", errorIndex());
+                    }
+                    frames.push(new StatementFrame(Token.Keyword.WHILE, null, condition));
+                    continue;
+                }
+                else if(match(Token.Keyword.RETURN)) {
+                    statement = parseReturnStatement();
+                }
+                else {
+                    statement = parseExpressionStatement();
+                }
+            }
+            if(frames.isEmpty()) {
+                return statement;
+            }
+            frames.peek().statements.add(statement);
         }
     }
 
@@ -218,13 +518,13 @@ public final class Parser {
      */
     public Ast.Stmt.Declaration parseDeclarationStatement() throws ParseException {
         //'LET' identifier ('=' expression)? ';'
-        String name = tokens.get(0).getLiteral();
+        String name = tokens.literal(0);
         Optional<String> typeName = Optional.empty();
         Optional<Ast.Expr> value = Optional.empty();
         tokens.advance();
 
         if(match(":")) {
-            typeName = Optional.of(tokens.get(0).getLiteral());
+            typeName = Optional.of(tokens.literal(0));
             tokens.advance();
         }
 
@@ -233,7 +533,7 @@ public final class Parser {
         }
 
         if(!match(";")) {
-            throw new ParseException("Missing semicolon.", tokens.has(0) ? tokens.get(0).getIndex() : tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
+            throw error("Missing semicolon.", tokens.has(0) ? tokens.get(0).getIndex() : tokens.get(-1).getIndex() + tokens.literal(-1).length());
         }
         else {
             return new Ast.Stmt.Declaration(name, typeName, value);
@@ -251,11 +551,11 @@ public final class Parser {
         List<Ast.Stmt> thenStatements = new ArrayList<>();
         List<Ast.Stmt> elseStatements = new ArrayList<>();
 
-        if(!match("DO")) {
-            throw new ParseException("Invalid IF statement.", tokens.has(0) ? tokens.get(0).getIndex() : tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
+        if(!match(Token.Keyword.DO)) {
+            throw error("Invalid IF statement.", tokens.has(0) ? tokens.get(0).getIndex() : tokens.get(-1).getIndex() + tokens.literal(-1).length());
         }
         else {
-            while(!match("ELSE") && !match("END")) {
+            while(!match(Token.Keyword.ELSE) && !match(Token.Keyword.END)) {
                 if(peek(";")) {
                     tokens.advance();
                 }
@@ -265,8 +565,8 @@ public final class Parser {
             }
             tokens.index--;
 
-            if(match("ELSE")) {
-                while(!match("END")) {
+            if(match(Token.Keyword.ELSE)) {
+                while(!match(Token.Keyword.END)) {
                     if(peek(";")) {
                         tokens.advance();
                     }
@@ -277,8 +577,8 @@ public final class Parser {
                 tokens.index--;
             }
 
-            if(!match("END")) {
-                throw new ParseException("Invalid IF statement.", tokens.has(0) ? tokens.get(0).getIndex() : tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
+            if(!match(Token.Keyword.END)) {
+                throw error("Invalid IF statement.", tokens.has(0) ? tokens.get(0).getIndex() : tokens.get(-1).getIndex() + tokens.literal(-1).length());
             }
 
             return new Ast.Stmt.If(condition, thenStatements, elseStatements);
@@ -293,26 +593,26 @@ public final class Parser {
      */
     public Ast.Stmt.For parseForStatement() throws ParseException {
         //'FOR' identifier 'IN' expression 'DO' statement* 'END' |
-        String name = tokens.get(0).getLiteral();
+        String name = tokens.literal(0);
         String checkInt = name;
         checkInt = checkInt.substring(0,1);
 
         //if(checkInt.contains("[0-9]")){}
 
         if(checkInt.equals("1") || checkInt.equals("2") || checkInt.equals("3") || checkInt.equals("4") || checkInt.equals("5") || checkInt.equals("6") || checkInt.equals("7") || checkInt.equals("8") || checkInt.equals("9") ||  checkInt.equals("0")){
-            throw new ParseException("Invalid name.", tokens.has(0) ? tokens.get(0).getIndex() : tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
+            throw error("Invalid name.", tokens.has(0) ? tokens.get(0).getIndex() : tokens.get(-1).getIndex() + tokens.literal(-1).length());
         }
         tokens.advance();
-        if(!match("IN")) {
-            throw new ParseException("Invalid FOR statement.", tokens.has(0) ? tokens.get(0).getIndex() : tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
+        if(!match(Token.Keyword.IN)) {
+            throw error("Invalid FOR statement.", tokens.has(0) ? tokens.get(0).getIndex() : tokens.get(-1).getIndex() + tokens.literal(-1).length());
         }
         Ast.Expr value = parseExpression();
         List<Ast.Stmt> statements = new ArrayList<>();
-        if(!match("DO")) {
-            throw new ParseException("Invalid FOR statement.", tokens.has(0) ? tokens.get(0).getIndex() : tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
+        if(!match(Token.Keyword.DO)) {
+            throw error("Invalid FOR statement.", tokens.has(0) ? tokens.get(0).getIndex() : tokens.get(-1).getIndex() + tokens.literal(-1).length());
         }
 
-        while(!match("END")) {
+        while(!match(Token.Keyword.END)) {
             if(peek(";")) {
                 tokens.advance();
             }
@@ -336,11 +636,11 @@ public final class Parser {
         Ast.Expr condition = parseExpression();
         List<Ast.Stmt> statements = new ArrayList<>();
 
-        if(!match("DO")) {
-            throw new ParseException("Invalid WHILE statement.", tokens.has(0) ? tokens.get(0).getIndex() : tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
+        if(!match(Token.Keyword.DO)) {
+            throw error("Invalid WHILE statement.", tokens.has(0) ? tokens.get(0).getIndex() : tokens.get(-1).getIndex() + tokens.literal(-1).length());
         }
 
-        while(!match("END")) {
+        while(!match(Token.Keyword.END)) {
             if(peek(";")) {
                 tokens.advance();
             }
@@ -362,7 +662,7 @@ public final class Parser {
         Ast.Expr value = parseExpression();
 
         if(!match(";")) {
-            throw new ParseException("Invalid RETURN statement.", tokens.has(0) ? tokens.get(0).getIndex() : tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
+            throw error("Invalid RETURN statement.", tokens.has(0) ? tokens.get(0).getIndex() : tokens.get(-1).getIndex() + tokens.literal(-1).length());
         }
 
         return new Ast.Stmt.Return(value);
@@ -372,93 +672,193 @@ public final class Parser {
      * Parses the {@code expression} rule.
      */
     public Ast.Expr parseExpression() throws ParseException {
-        return parseLogicalExpression();
+        return parseBinaryExpression(LOGICAL);
     }
 
     /**
      * Parses the {@code logical-expression} rule.
      */
     public Ast.Expr parseLogicalExpression() throws ParseException {
-        String operator = "";
-        Ast.Expr right;
-        Ast.Expr expression = parseEqualityExpression();
-
-        while(match("OR") || match("AND"))
-        {
-            operator = tokens.get(-1).getLiteral();
-
-            right = parseEqualityExpression();
-
-            expression = new Ast.Expr.Binary(operator, expression, right);
-
-        }
-
-        return expression;
+        return parseBinaryExpression(LOGICAL);
     }
 
     /**
      * Parses the {@code equality-expression} rule.
      */
     public Ast.Expr parseEqualityExpression() throws ParseException {
-        String operator = "";
-        Ast.Expr right;
-        Ast.Expr expression = parseAdditiveExpression();
-
-        while(match("<") || match("<=") || match(">") || match(">=") || match("==") || match("!="))
-        {
-            operator = tokens.get(-1).getLiteral();
-
-            right = parseAdditiveExpression();
-
-            expression = new Ast.Expr.Binary(operator, expression, right);
-
-        }
-
-        return expression;
+        return parseBinaryExpression(COMPARISON);
     }
 
     /**
      * Parses the {@code additive-expression} rule.
      */
     public Ast.Expr parseAdditiveExpression() throws ParseException {
-        String operator = "";
-        Ast.Expr right;
-        Ast.Expr expression = parseMultiplicativeExpression();
-
-        while(match("+") || match("-"))
-        {
-            operator = tokens.get(-1).getLiteral();
-
-            right = parseMultiplicativeExpression();
-
-            expression = new Ast.Expr.Binary(operator, expression, right);
-
-        }
-
-        return expression;
+        return parseBinaryExpression(ADDITIVE);
     }
 
     /**
      * Parses the {@code multiplicative-expression} rule.
      */
     public Ast.Expr parseMultiplicativeExpression() throws ParseException {
+        return parseBinaryExpression(MULTIPLICATIVE);
+    }
 
-        String operator = "";
-        Ast.Expr right;
+    /**
+     * Parses the binary expression rules from the one at {@code minimum}
+     * precedence down, by precedence climbing. The left operand is a secondary
+     * expression, and while the next token is an operator binding at least as
+     * tightly as {@code minimum} the right operand is parsed with operators
+     * binding more tightly than it. Every level is left associative, so this
+     * builds the same trees as a method per level would, but an operand costs
+     * one call and a table lookup instead of a call and a few matches on each
+     * level.
+     */
+    private Ast.Expr parseBinaryExpression(int minimum) throws ParseException {
+        if(explicitStack) {
+            return parseBinaryExpressionIteratively(minimum);
+        }
         Ast.Expr expression = parseSecondaryExpression();
-
-        while(match("*") || match("/"))
-        {
-            operator = tokens.get(-1).getLiteral();
-
-            right = parseSecondaryExpression();
-
+        int precedence;
+        while(tokens.has(0) && (precedence = tokens.precedence(0)) >= minimum) {
+            String operator = tokens.literal(0);
+            tokens.advance();
+            Ast.Expr right = parseBinaryExpression(precedence + 1);
             expression = new Ast.Expr.Binary(operator, expression, right);
-
         }
-
         return expression;
+    }
 
+    /**
+     * The {@link #parseBinaryExpression(int)} of {@link #withExplicitStack}.
+     * The operands and operators of an expression are kept in an {@link
+     * ExpressionFrame} and reduced by precedence, shunting-yard style, which
+     * gives the same left associative trees. A group or the arguments of a
+     * call push a frame for the expression inside rather than recursing, and
+     * the frame is popped again at the closing parenthesis. Literals and
+     * plain variables are still parsed by {@link #parsePrimaryExpression()},
+     * which doesn't recurse for them.
+     */
+    private Ast.Expr parseBinaryExpressionIteratively(int minimum) throws ParseException {
+        ArrayDeque<ExpressionFrame> frames = new ArrayDeque<>();
+        ExpressionFrame frame = new ExpressionFrame(ExpressionFrame.EXPRESSION, minimum);
+        while(true) {
+            //the start of an operand: a primary expression, unless it opens a
+            //frame for a group or for the first argument of a function
+            Ast.Expr operand;
+            if(peek(Token.Type.IDENTIFIER, "(") && !peek(Token.Keyword.TRUE) && !peek(Token.Keyword.NIL) && !peek(Token.Keyword.FALSE)) {
+                String name = tokens.literal(0);
+                tokens.advance();
+                if(startsWithDigit(name)) {
+                    throw error("Invalid name.", errorIndex());
+                }
+                tokens.advance();
+                if(!peek(")")) {
+                    frames.push(frame);
+                    frame = new ExpressionFrame(ExpressionFrame.FUNCTION, LOGICAL);
+                    frame.name = name;
+                    continue;
+                }
+                tokens.advance();
+                operand = new Ast.Expr.Function(Optional.empty(), name, new ArrayList<>());
+            }
+            else if(match("(")) {
+                frames.push(frame);
+                frame = new ExpressionFrame(ExpressionFrame.GROUP, LOGICAL);
+                continue;
+            }
+            else {
+                operand = parsePrimaryExpression();
+            }
+            //the end of an operand: finishes the secondary expression, then
+            //either carries on with an operator or ends the frame's expression
+            //and completes what opened the frame, which is an operand of the
+            //frame below it
+            boolean secondary = false;
+            while(true) {
+                if(!secondary && match(".")) {
+                    if(!match(Token.Type.IDENTIFIER)) {
+                        throw error("Invalid method", tokens.get(-1).getIndex());
+                    }
+                    String name = tokens.literal(-1);
+                    if(startsWithDigit(name)) {
+                        throw error("Invalid name.", errorIndex());
+                    }
+                    if(match("(")) {
+                        if(!peek(")")) {
+                            if(!tokens.has(0)) {
+                                throw error("Expected closing parenthesis.", tokens.get(-1).getIndex());
+                            }
+                            frames.push(frame);
+                            frame = new ExpressionFrame(ExpressionFrame.METHOD, LOGICAL);
+                            frame.receiver = operand;
+                            frame.name = name;
+                            break;
+                        }
+                        tokens.advance();
+                        operand = new Ast.Expr.Function(Optional.of(operand), name, new ArrayList<>());
+                    }
+                    else {
+                        operand = new Ast.Expr.Access(Optional.of(operand), name);
+                    }
+                }
+                frame.operands.add(operand);
+                int precedence;
+                if(tokens.has(0) && (precedence = tokens.precedence(0)) >= frame.minimum) {
+                    frame.reduce(precedence);
+                    frame.operators.add(tokens.literal(0));
+                    frame.precedences.add(precedence);
+                    tokens.advance();
+                    break;
+                }
+                Ast.Expr expression = frame.reduce(0);
+                if(frame.kind == ExpressionFrame.EXPRESSION) {
+                    return expression;
+                }
+                else if(frame.kind == ExpressionFrame.GROUP) {
+                    if(!match(")")) {
+                        throw error("Expected closing parenthesis.", errorIndex());
+                    }
+                    operand = new Ast.Expr.Group(expression);
+                    secondary = false;
+                }
+                else {
+                    frame.arguments.add(expression);
+                    if(match(",")) {
+                        break;
+                    }
+                    if(!match(")")) {
+                        throw error("Expected closing parenthesis.", frame.kind == ExpressionFrame.METHOD ? tokens.get(-1).getIndex() : errorIndex());
+                    }
+                    //a method call is a whole secondary expression already
+                    Optional<Ast.Expr> receiver = Optional.ofNullable(frame.receiver);
+                    operand = new Ast.Expr.Function(receiver, frame.name, frame.arguments);
+                    secondary = frame.kind == ExpressionFrame.METHOD;
+                }
+                frame = frames.pop();
+            }
+        }
+    }
+
+    /**
+     * Returns the precedence of the binary operator spelled by {@code [start,
+     * end)} of the source, with its keyword if it is one, or 0 if it isn't an
+     * operator. Operators are looked up by their first char, in {@link
+     * #OPERATORS} if that is all of them and {@link #COMPARISONS} if it is
+     * followed by {@code =}.
+     */
+    private static int precedence(Token.Keyword keyword, CharSequence source, int start, int end) {
+        if(keyword != null) {
+            return keyword == Token.Keyword.AND || keyword == Token.Keyword.OR ? LOGICAL : 0;
+        }
+        if(end - start == 1) {
+            char c = source.charAt(start);
+            return c < OPERATORS.length ? OPERATORS[c] : 0;
+        }
+        else if(end - start == 2 && source.charAt(start + 1) == '=') {
+            char c = source.charAt(start);
+            return c < COMPARISONS.length ? COMPARISONS[c] : 0;
+        }
+        return 0;
     }
 
     /**
@@ -481,7 +881,7 @@ public final class Parser {
 
             if (match(Token.Type.IDENTIFIER)) {
                 //get -1 since stream already advanced
-                name = tokens.get(-1).getLiteral();
+                name = tokens.literal(-1);
 
                 String checkInt = name;
                 checkInt = checkInt.substring(0,1);
@@ -489,7 +889,7 @@ public final class Parser {
                 //if(checkInt.contains("[0-9]")){}
 
                 if(checkInt.equals("1") || checkInt.equals("2") || checkInt.equals("3") || checkInt.equals("4") || checkInt.equals("5") || checkInt.equals("6") || checkInt.equals("7") || checkInt.equals("8") || checkInt.equals("9") ||  checkInt.equals("0")){
-                    throw new ParseException("Invalid name.", tokens.has(0) ? tokens.get(0).getIndex() : tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
+                    throw error("Invalid name.", tokens.has(0) ? tokens.get(0).getIndex() : tokens.get(-1).getIndex() + tokens.literal(-1).length());
                 }
 
                 // Access only when there are no parenthesis //
@@ -509,12 +909,12 @@ public final class Parser {
                             }
                         }
                         else {
-                            throw new ParseException("Expected closing parenthesis.", tokens.get(-1).getIndex());
+                            throw error("Expected closing parenthesis.", tokens.get(-1).getIndex());
                         }
                     }
 
                     if (!match(")")) {
-                        throw new ParseException("Expected closing parenthesis.", tokens.get(-1).getIndex());
+                        throw error("Expected closing parenthesis.", tokens.get(-1).getIndex());
                         //add actual index
                     }
                 }
@@ -524,7 +924,7 @@ public final class Parser {
                 }
             }
             else {
-                throw new ParseException("Invalid method", tokens.get(-1).getIndex());
+                throw error("Invalid method", tokens.get(-1).getIndex());
             }
 
         }
@@ -548,7 +948,7 @@ public final class Parser {
             return new Ast.Expr.Function(Optional.of(expr), name, arguments);
         }
 
-        throw new ParseException("Invalid secondary expression", tokens.get(-1).getIndex());
+        throw error("Invalid secondary expression", tokens.get(-1).getIndex());
     }
 
     /**
@@ -558,71 +958,46 @@ public final class Parser {
      * not strictly necessary.
      */
     public Ast.Expr parsePrimaryExpression() throws ParseException {
-        if (match("TRUE")) {
+        if (match(Token.Keyword.TRUE)) {
             return new Ast.Expr.Literal(true);
         }
-        else if(match("NIL")) {
+        else if(match(Token.Keyword.NIL)) {
             return new Ast.Expr.Literal(null);
         }
-        else if(match("FALSE")) {
+        else if(match(Token.Keyword.FALSE)) {
             return new Ast.Expr.Literal(false);
         }
-        else if(match(Token.Type.INTEGER)) {
-
-            BigInteger integer = new BigInteger(tokens.get(-1).getLiteral());
-            return new Ast.Expr.Literal(integer);
-        }
-        else if(match(Token.Type.DECIMAL)) {
-            BigDecimal dec = new BigDecimal(tokens.get(-1).getLiteral());
-            return new Ast.Expr.Literal(dec);
+        else if(match(Token.Type.INTEGER) || match(Token.Type.DECIMAL)) {
+            //the lexer already parsed the number, in a long unless it was too big
+            Object value = tokens.value(-1);
+            if(!(value instanceof BigInteger) && !(value instanceof BigDecimal)) {
+                throw error("Invalid number.", tokens.get(-1).getIndex());
+            }
+            return new Ast.Expr.Literal(value);
         }
         else if(match(Token.Type.CHARACTER)) {
-            //get rid of first '
-            String chars = tokens.get(-1).getLiteral().substring(1);
-            //get rid of second '
-            chars = chars.substring(0,chars.length() - 1);
-            chars = chars.replace("\\n","\n");
-            chars = chars.replace("\\r","\r");
-            chars = chars.replace("\\t","\t");
-            chars = chars.replace("\\b","\b");
-            chars = chars.replace("\\\\","\\");
-            chars = chars.replace("\\\'","\'");
-            chars = chars.replace("\\\"","\"");
-            Character char1 = chars.charAt(0);
-
-            return new Ast.Expr.Literal(char1);
+            //the lexer already removed the quotes and replaced the escapes
+            return new Ast.Expr.Literal(tokens.value(-1));
         }
         else if(match(Token.Type.STRING)) {
-            //get rid of first "
-            String str = tokens.get(-1).getLiteral().substring(1);
-            //get rid of second "
-            str = str.substring(0,str.length() - 1);
-            str = str.replace("\\n","\n");
-            str = str.replace("\\r","\r");
-            str = str.replace("\\t","\t");
-            str = str.replace("\\b","\b");
-            str = str.replace("\\\\","\\");
-            str = str.replace("\\\'","\'");
-            str = str.replace("\\\"","\"");
-
-            return new Ast.Expr.Literal(str);
+            return new Ast.Expr.Literal(tokens.value(-1));
         }
         else if (match(Token.Type.IDENTIFIER)) {
             List<Ast.Expr> arguments = new ArrayList<>();
 
-            String checkInt = tokens.get(-1).getLiteral();
+            String checkInt = tokens.literal(-1);
             checkInt = checkInt.substring(0,1);
 
             //if(checkInt.contains("[0-9]")){}
 
             if(checkInt.equals("1") || checkInt.equals("2") || checkInt.equals("3") || checkInt.equals("4") || checkInt.equals("5") || checkInt.equals("6") || checkInt.equals("7") || checkInt.equals("8") || checkInt.equals("9") ||  checkInt.equals("0")){
-                throw new ParseException("Invalid name.", tokens.has(0) ? tokens.get(0).getIndex() : tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
+                throw error("Invalid name.", tokens.has(0) ? tokens.get(0).getIndex() : tokens.get(-1).getIndex() + tokens.literal(-1).length());
             }
 
             String name = "";
             Ast.Expr expr = null;
             //get -1 since stream already advanced
-            name = tokens.get(-1).getLiteral();
+            name = tokens.literal(-1);
             boolean func = false;
 
             if (match("(")) {
@@ -639,7 +1014,7 @@ public final class Parser {
                 }
 
                 if (!match(")")) {
-                    throw new ParseException("Expected closing parenthesis.", tokens.has(0) ? tokens.get(0).getIndex() : tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
+                    throw error("Expected closing parenthesis.", tokens.has(0) ? tokens.get(0).getIndex() : tokens.get(-1).getIndex() + tokens.literal(-1).length());
                     //add actual index
                 }
             }
@@ -652,21 +1027,43 @@ public final class Parser {
         else if(match("(")) {
             Ast.Expr expr = parseExpression();
             if (!match(")")) {
-                throw new ParseException("Expected closing parenthesis.", tokens.has(0) ? tokens.get(0).getIndex() : tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
+                throw error("Expected closing parenthesis.", tokens.has(0) ? tokens.get(0).getIndex() : tokens.get(-1).getIndex() + tokens.literal(-1).length());
             }
             return new Ast.Expr.Group(expr);
         }
         else {
-            throw new ParseException("Invalid primary expression", tokens.has(0) ? tokens.get(0).getIndex() : tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
+            throw error("Invalid primary expression", tokens.has(0) ? tokens.get(0).getIndex() : tokens.get(-1).getIndex() + tokens.literal(-1).length());
         }
     }
 
+    //the check the recursive methods make on names
+    private static boolean startsWithDigit(String name) {
+        return name.charAt(0) >= '0' && name.charAt(0) <= '9';
+    }
+
+    /**
+     * Returns the index of the next token, or the end of the last one at the
+     * end of the tokens, which is where most errors are reported.
+     */
+    private int errorIndex() {
+        return tokens.has(0) ? tokens.get(0).getIndex() : tokens.get(-1).getIndex() + tokens.literal(-1).length();
+    }
+
+    /**
+     * Creates the exception for an error at the index, which can also give the
+     * line and column if the tokens were lexed from a source.
+     */
+    private ParseException error(String message, int index) {
+        return new ParseException(message, index, tokens.lines());
+    }
+
     /**
      * As in the lexer, returns {@code true} if the current sequence of tokens
      * matches the given patterns. Unlike the lexer, the pattern is not a regex;
      * instead it is either a {@link Token.Type}, which matches if the token's
-     * type is the same, or a {@link String}, which matches if the token's
-     * literal is the same.
+     * type is the same, a {@link Token.Keyword}, which matches if the token is
+     * that keyword, or a {@link String}, which matches if the token's literal
+     * is the same.
      *
      * In other words, {@code Token(IDENTIFIER, "literal")} is matched by both
      * {@code peek(Token.Type.IDENTIFIER)} and {@code peek("literal")}.
@@ -677,12 +1074,17 @@ public final class Parser {
                 return false;
             }
             else if(patterns[i] instanceof Token.Type){
-                if(patterns[i] != tokens.get(i).getType()) {
+                if(patterns[i] != tokens.type(i)) {
+                    return false;
+                }
+            }
+            else if(patterns[i] instanceof Token.Keyword) {
+                if(patterns[i] != tokens.keyword(i)) {
                     return false;
                 }
             }
             else if(patterns[i] instanceof String) {
-                if(!patterns[i].equals(tokens.get(i).getLiteral())) {
+                if(!tokens.literalEquals(i, (String) patterns[i])) {
                     return false;
                 }
             }
@@ -693,6 +1095,23 @@ public final class Parser {
         return true;
     }
 
+    /**
+     * Single pattern versions of {@link #peek(Object...)}, which most calls
+     * are. They skip the varargs array and the instanceof checks, so checking
+     * for a keyword is just comparing it with the token's.
+     */
+    private boolean peek(Token.Keyword keyword) {
+        return tokens.has(0) && tokens.keyword(0) == keyword;
+    }
+
+    private boolean peek(Token.Type type) {
+        return tokens.has(0) && tokens.type(0) == type;
+    }
+
+    private boolean peek(String literal) {
+        return tokens.has(0) && tokens.literalEquals(0, literal);
+    }
+
     /**
      * As in the lexer, returns {@code true} if {@link #peek(Object...)} is true
      * and advances the token stream.
@@ -708,29 +1127,213 @@ public final class Parser {
         return peek;
     }
 
-    private static final class TokenStream {
+    private boolean match(Token.Keyword keyword) {
+        return advanceIf(peek(keyword));
+    }
 
-        private final List<Token> tokens;
-        private int index = 0;
+    private boolean match(Token.Type type) {
+        return advanceIf(peek(type));
+    }
+
+    private boolean match(String literal) {
+        return advanceIf(peek(literal));
+    }
 
-        private TokenStream(List<Token> tokens) {
+    private boolean advanceIf(boolean peek) {
+        if(peek) {
+            tokens.advance();
+        }
+        return peek;
+    }
+
+    /**
+     * The statements of a method parsed with {@link #withLazyMethods}, from
+     * the token after its {@code DO} to just past its {@code END}.
+     */
+    private static final class LazyBody implements Supplier<List<Ast.Stmt>> {
+
+        private final TokenStream tokens;
+        private final int start;
+        private final int end;
+        private final boolean explicitStack;
+
+        private LazyBody(TokenStream tokens, int start, int end, boolean explicitStack) {
             this.tokens = tokens;
+            this.start = start;
+            this.end = end;
+            this.explicitStack = explicitStack;
+        }
+
+        @Override
+        public List<Ast.Stmt> get() {
+            TokenStream stream = tokens.duplicate();
+            stream.index = start;
+            Parser parser = new Parser(stream).withExplicitStack(explicitStack);
+            List<Ast.Stmt> statements = new ArrayList<>();
+            while(!parser.match(Token.Keyword.END)) {
+                statements.add(parser.parseStatement());
+            }
+            //the END found without parsing has to be the one that ends it
+            if(stream.index != end) {
+                stream.index = end - 1;
+                throw parser.error("Invalid method.", stream.get(0).getIndex());
+            }
+            return statements;
+        }
+
+    }
+
+    //a method parsed by parseMethodsInParallel and the index after it, or
+    //no method if it didn't parse
+    private static final class MethodResult {
+
+        private Ast.Method method;
+        private int end;
+
+    }
+
+    /**
+     * An expression being parsed by {@link
+     * #parseBinaryExpressionIteratively(int)}, with what it is part of: the
+     * whole expression, a group, or an argument of a function or method.
+     */
+    private static final class ExpressionFrame {
+
+        private static final int EXPRESSION = 0;
+        private static final int GROUP = 1;
+        private static final int FUNCTION = 2;
+        private static final int METHOD = 3;
+
+        private final int kind;
+        private final int minimum;
+        private final List<Ast.Expr> operands = new ArrayList<>(4);
+        private final List<String> operators = new ArrayList<>(4);
+        private final List<Integer> precedences = new ArrayList<>(4);
+        //the function or method and its arguments so far
+        private String name;
+        private Ast.Expr receiver;
+        private final List<Ast.Expr> arguments;
+
+        private ExpressionFrame(int kind, int minimum) {
+            this.kind = kind;
+            this.minimum = minimum;
+            this.arguments = kind >= FUNCTION ? new ArrayList<>() : null;
         }
 
         /**
-         * Returns true if there is a token at index + offset.
+         * Combines the operands of the operators binding at least as tightly
+         * as {@code precedence}, returning the last operand. Reducing with 0
+         * finishes the expression and leaves the frame empty for the next.
          */
-        public boolean has(int offset) {
-            return index + offset < tokens.size();
+        private Ast.Expr reduce(int precedence) {
+            while(!operators.isEmpty() && precedences.get(precedences.size() - 1) >= precedence) {
+                Ast.Expr right = operands.remove(operands.size() - 1);
+                Ast.Expr left = operands.remove(operands.size() - 1);
+                precedences.remove(precedences.size() - 1);
+                operands.add(new Ast.Expr.Binary(operators.remove(operators.size() - 1), left, right));
+            }
+            Ast.Expr last = operands.get(operands.size() - 1);
+            if(precedence == 0) {
+                operands.clear();
+            }
+            return last;
         }
 
+    }
+
+    /**
+     * An if, for or while statement whose body is being parsed by {@link
+     * #parseStatementIteratively()}. The kind is {@code ELSE} once an if
+     * statement is past its {@code ELSE}.
+     */
+    private static final class StatementFrame {
+
+        private Token.Keyword kind;
+        private final String name;
+        private final Ast.Expr expression;
+        private final List<Ast.Stmt> thenStatements = new ArrayList<>();
+        private final List<Ast.Stmt> elseStatements = new ArrayList<>();
+        //the list statements are added to, the then statements until ELSE
+        private List<Ast.Stmt> statements = thenStatements;
+
+        private StatementFrame(Token.Keyword kind, String name, Ast.Expr expression) {
+            this.kind = kind;
+            this.name = name;
+            this.expression = expression;
+        }
+
+        private Ast.Stmt statement() {
+            switch(kind) {
+                case FOR:
+                    return new Ast.Stmt.For(name, expression, thenStatements);
+                case WHILE:
+                    return new Ast.Stmt.While(expression, thenStatements);
+                default:
+                    return new Ast.Stmt.If(expression, thenStatements, elseStatements);
+            }
+        }
+
+    }
+
+    /**
+     * The tokens being parsed. The type and literal helpers let a stream over
+     * a {@link TokenBuffer} answer them without creating {@link Token}s.
+     */
+    private static abstract class TokenStream {
+
+        int index = 0;
+
+        /**
+         * Returns true if there is a token at index + offset.
+         */
+        public abstract boolean has(int offset);
+
         /**
          * Gets the token at index + offset.
          */
-        public Token get(int offset) {
-            return tokens.get(index + offset);
+        public abstract Token get(int offset);
+
+        public Token.Type type(int offset) {
+            return get(offset).getType();
+        }
+
+        public String literal(int offset) {
+            return get(offset).getLiteral();
+        }
+
+        public boolean literalEquals(int offset, String literal) {
+            return literal.equals(get(offset).getLiteral());
+        }
+
+        public Object value(int offset) {
+            return get(offset).getValue();
         }
 
+        public Token.Keyword keyword(int offset) {
+            return get(offset).getKeyword();
+        }
+
+        /**
+         * Returns the precedence of the token if it is a binary operator, or
+         * 0 if it isn't.
+         */
+        public int precedence(int offset) {
+            Token token = get(offset);
+            String literal = token.getLiteral();
+            return Parser.precedence(token.getKeyword(), literal, 0, literal.length());
+        }
+
+        /**
+         * Returns the line index of the source, or null if it isn't known.
+         */
+        public abstract LineIndex lines();
+
+        /**
+         * Returns another stream over the same tokens at the same index, or
+         * null if the tokens can only be read once.
+         */
+        public abstract TokenStream duplicate();
+
         /**
          * Advances to the next token, incrementing the index.
          */
@@ -740,4 +1343,146 @@ public final class Parser {
 
     }
 
+    private static final class ListTokenStream extends TokenStream {
+
+        private final List<Token> tokens;
+
+        private ListTokenStream(List<Token> tokens) {
+            this.tokens = tokens;
+        }
+
+        @Override
+        public boolean has(int offset) {
+            return index + offset < tokens.size();
+        }
+
+        @Override
+        public Token get(int offset) {
+            return tokens.get(index + offset);
+        }
+
+        @Override
+        public LineIndex lines() {
+            return tokens.isEmpty() ? null : tokens.get(0).getLines();
+        }
+
+        @Override
+        public TokenStream duplicate() {
+            ListTokenStream stream = new ListTokenStream(tokens);
+            stream.index = index;
+            return stream;
+        }
+
+    }
+
+    /**
+     * Tokens pulled from an iterator are kept in a ring buffer of {@link
+     * #WINDOW} tokens, which is enough for the parser's lookahead plus looking
+     * back at previous tokens.
+     */
+    private static final class WindowTokenStream extends TokenStream {
+
+        private static final int WINDOW = 16;
+
+        private final Iterator<Token> source;
+        private final Token[] window = new Token[WINDOW];
+        private int fetched = 0;
+
+        private WindowTokenStream(Iterator<Token> source) {
+            this.source = source;
+        }
+
+        @Override
+        public boolean has(int offset) {
+            while(fetched <= index + offset && source.hasNext()) {
+                window[fetched % WINDOW] = source.next();
+                fetched++;
+            }
+            return index + offset < fetched;
+        }
+
+        @Override
+        public Token get(int offset) {
+            int position = index + offset;
+            if(position < 0 || !has(offset) || position < fetched - WINDOW) {
+                throw new IndexOutOfBoundsException("Token " + position + " is outside of the window.");
+            }
+            return window[position % WINDOW];
+        }
+
+        @Override
+        public LineIndex lines() {
+            return fetched == 0 ? null : window[(fetched - 1) % WINDOW].getLines();
+        }
+
+        @Override
+        public TokenStream duplicate() {
+            return null;
+        }
+
+    }
+
+    private static final class BufferTokenStream extends TokenStream {
+
+        private final TokenBuffer tokens;
+
+        private BufferTokenStream(TokenBuffer tokens) {
+            this.tokens = tokens;
+        }
+
+        @Override
+        public boolean has(int offset) {
+            return index + offset < tokens.size();
+        }
+
+        @Override
+        public Token get(int offset) {
+            return tokens.get(index + offset);
+        }
+
+        @Override
+        public Token.Type type(int offset) {
+            return tokens.getType(index + offset);
+        }
+
+        @Override
+        public String literal(int offset) {
+            return tokens.getLiteral(index + offset);
+        }
+
+        @Override
+        public boolean literalEquals(int offset, String literal) {
+            return tokens.literalEquals(index + offset, literal);
+        }
+
+        @Override
+        public Object value(int offset) {
+            return tokens.getValue(index + offset);
+        }
+
+        @Override
+        public Token.Keyword keyword(int offset) {
+            return tokens.getKeyword(index + offset);
+        }
+
+        @Override
+        public int precedence(int offset) {
+            int i = index + offset;
+            return Parser.precedence(tokens.getKeyword(i), tokens.getSource(), tokens.getStart(i), tokens.getEnd(i));
+        }
+
+        @Override
+        public LineIndex lines() {
+            return tokens.getLines();
+        }
+
+        @Override
+        public TokenStream duplicate() {
+            BufferTokenStream stream = new BufferTokenStream(tokens);
+            stream.index = index;
+            return stream;
+        }
+
+    }
+
 }
@@ -0,0 +1,207 @@
+package plc.project;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Runs passes over an analyzed AST, such as optimizations written as {@link
+ * Transformer}s, before it goes to the {@link Interpreter} or {@link
+ * Generator}.
+ *
+ * The enabled passes are run in the order they were added, in rounds, until a
+ * round changes nothing or {@code maxRounds} rounds have run, as one pass may
+ * leave work for another. A pass changed the tree if it returned another
+ * root, so a pass has to return the tree it was given when it has nothing to
+ * do, as a Transformer does. The time each pass takes and the number of nodes
+ * it adds or removes is added up in its {@link Statistics}.
+ *
+ * The passes over a tree analyzed with an {@link Analysis} have to keep it up
+ * to date for the nodes they create, as Transformers created with it do for
+ * their copies, so it can be used with the resulting tree.
+ */
+public final class PassManager {
+
+    public interface Pass {
+
+        Ast.Source apply(Ast.Source ast);
+
+    }
+
+    private final int maxRounds;
+    private final Map<String, Pass> passes = new LinkedHashMap<>();
+    private final Map<String, Statistics> statistics = new LinkedHashMap<>();
+    private final Set<String> disabled = new HashSet<>();
+
+    public PassManager(int maxRounds) {
+        if(maxRounds < 1) {
+            throw new IllegalArgumentException("Expected at least one round, received " + maxRounds + ".");
+        }
+        this.maxRounds = maxRounds;
+    }
+
+    /**
+     * Adds a pass to run after those added before it, enabled.
+     */
+    public PassManager add(String name, Pass pass) {
+        if(passes.containsKey(name)) {
+            throw new IllegalArgumentException("The pass " + name + " is already defined.");
+        }
+        passes.put(name, pass);
+        statistics.put(name, new Statistics(name));
+        return this;
+    }
+
+    public boolean isEnabled(String name) {
+        return !disabled.contains(require(name));
+    }
+
+    public void setEnabled(String name, boolean enabled) {
+        if(enabled) {
+            disabled.remove(require(name));
+        }
+        else {
+            disabled.add(require(name));
+        }
+    }
+
+    /**
+     * Enables and disables passes as given by a configuration of comma
+     * separated pass names, each prefixed with {@code -} to disable it or
+     * optionally {@code +} to enable it, such as {@code "fold,-inline"}. The
+     * passes it doesn't name are left as they are.
+     */
+    public void configure(String configuration) {
+        for(String option : configuration.split(",")) {
+            option = option.trim();
+            if(option.isEmpty()) {
+                continue;
+            }
+            boolean enabled = option.charAt(0) != '-';
+            setEnabled(option.charAt(0) == '-' || option.charAt(0) == '+' ? option.substring(1) : option, enabled);
+        }
+    }
+
+    /**
+     * Returns the statistics of each pass, in the order they run, added up
+     * over every call to {@link #run}.
+     */
+    public List<Statistics> getStatistics() {
+        return Collections.unmodifiableList(new ArrayList<>(statistics.values()));
+    }
+
+    /**
+     * Runs the enabled passes to a fixed point, or for {@code maxRounds}
+     * rounds, and returns the resulting tree.
+     */
+    public Ast.Source run(Ast.Source ast) {
+        int nodes = count(ast);
+        for(int round = 0; round < maxRounds; round++) {
+            boolean changed = false;
+            for(Map.Entry<String, Pass> entry : passes.entrySet()) {
+                if(disabled.contains(entry.getKey())) {
+                    continue;
+                }
+                long start = System.nanoTime();
+                Ast.Source result = entry.getValue().apply(ast);
+                long time = System.nanoTime() - start;
+                Statistics pass = statistics.get(entry.getKey());
+                pass.runs++;
+                pass.nanos += time;
+                if(result != ast) {
+                    //only counted on a change, so passes with nothing to do stay cheap
+                    int count = count(result);
+                    pass.changes++;
+                    pass.nodes += count - nodes;
+                    nodes = count;
+                    ast = result;
+                    changed = true;
+                }
+            }
+            if(!changed) {
+                break;
+            }
+        }
+        return ast;
+    }
+
+    private String require(String name) {
+        if(!passes.containsKey(name)) {
+            throw new IllegalArgumentException("The pass " + name + " is not defined.");
+        }
+        return name;
+    }
+
+    private static int count(Ast ast) {
+        int[] count = {0};
+        AstWalker.walk(ast, new AstWalker.Listener() {
+
+            @Override
+            public void enter(Ast ast) {
+                count[0]++;
+            }
+
+        });
+        return count[0];
+    }
+
+    /**
+     * What a pass did over the runs of a {@link PassManager}.
+     */
+    public static final class Statistics {
+
+        private final String name;
+        private int runs;
+        private int changes;
+        private long nanos;
+        private int nodes;
+
+        private Statistics(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the number of times the pass ran.
+         */
+        public int getRuns() {
+            return runs;
+        }
+
+        /**
+         * Returns the number of runs which changed the tree.
+         */
+        public int getChanges() {
+            return changes;
+        }
+
+        /**
+         * Returns the wall time of all runs, in nanoseconds.
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * Returns the number of nodes the pass added, negative if it removed
+         * more than it added.
+         */
+        public int getNodeDelta() {
+            return nodes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d runs, %d changes, %.3f ms, %+d nodes", name, runs, changes, nanos / 1e6, nodes);
+        }
+
+    }
+
+}
@@ -0,0 +1,305 @@
+package plc.project;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * An on-disk cache of lexed and parsed programs, so a source that has been
+ * compiled before skips the {@link Lexer} and {@link Parser}.
+ *
+ * Entries are files in the cache directory named by the SHA-256 of the source
+ * text, holding its {@link TokenBuffer} and {@link Ast.Source} (in the form of
+ * {@link AstCodec}). Entries are written to a temporary file and moved into
+ * place, so other processes sharing the directory never see half of one.
+ * Each entry has a CRC-32 of its contents, and an entry that doesn't match
+ * it, is otherwise unreadable or is from another version of the format is
+ * dropped and counts as a miss.
+ *
+ * The entries are kept under {@code capacity} bytes by deleting the least
+ * recently used ones, using the modified time of each file, which a hit
+ * updates. Other files in the directory, such as the temporary files of
+ * entries being written, aren't counted or deleted. A program that doesn't
+ * parse is still cached for its tokens and the {@link ParseException} is
+ * thrown again on a hit by parsing them.
+ */
+public final class ProgramCache {
+
+    private static final int MAGIC = 0x504C4343;
+    private static final int VERSION = 3;
+    //magic, version, source length and checksum
+    private static final int HEADER = 16;
+    private static final String SUFFIX = ".plcc";
+
+    private final Path directory;
+    private final long capacity;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    //bytes in the directory as of the last scan plus what was written since
+    private long size;
+
+    public ProgramCache(Path directory, long capacity) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.capacity = capacity;
+        for(BasicFileAttributes attributes : entries(directory).values()) {
+            size += attributes.size();
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Returns the bytes used by the directory, as far as this cache knows.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the tokens of the source, from the cache if it was seen before.
+     */
+    public TokenBuffer lex(CharSequence source) throws ParseException {
+        String key = key(source);
+        ByteBuffer entry = open(key, source);
+        if(entry != null) {
+            try {
+                entry.getInt();
+                TokenBuffer tokens = TokenBuffer.read(entry, source);
+                hits.incrementAndGet();
+                return tokens;
+            } catch (IOException e) {
+                discard(key);
+            }
+        }
+        misses.incrementAndGet();
+        return store(key, source).tokens;
+    }
+
+    /**
+     * Returns the AST of the source, from the cache if it was seen before.
+     */
+    public Ast.Source parse(CharSequence source) throws ParseException {
+        String key = key(source);
+        ByteBuffer entry = open(key, source);
+        if(entry != null) {
+            try {
+                int tokens = entry.position();
+                int length = entry.getInt();
+                if(length < 0 || length >= entry.remaining()) {
+                    throw new IOException("Invalid length " + length + ".");
+                }
+                entry.position(entry.position() + length);
+                if(entry.get() != 0) {
+                    Ast.Source ast = AstCodec.decode(entry);
+                    hits.incrementAndGet();
+                    return ast;
+                }
+                entry.position(tokens + Integer.BYTES);
+                TokenBuffer buffer = TokenBuffer.read(entry, source);
+                hits.incrementAndGet();
+                return new Parser(buffer).parseSource();
+            } catch (IOException e) {
+                discard(key);
+            }
+        }
+        misses.incrementAndGet();
+        Entry stored = store(key, source);
+        if(stored.error != null) {
+            throw stored.error;
+        }
+        return stored.ast;
+    }
+
+    //the hex SHA-256 of the chars of the source
+    private static String key(CharSequence source) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] chunk = new byte[8192];
+        for(int i = 0; i < source.length(); ) {
+            int count = 0;
+            for(; count < chunk.length && i < source.length(); i++) {
+                char c = source.charAt(i);
+                chunk[count++] = (byte) (c >>> 8);
+                chunk[count++] = (byte) c;
+            }
+            digest.update(chunk, 0, count);
+        }
+        StringBuilder key = new StringBuilder();
+        for(byte b : digest.digest()) {
+            key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return key.toString();
+    }
+
+    //returns the entry positioned after its header, or null if there is none
+    //for this source
+    private ByteBuffer open(String key, CharSequence source) {
+        Path file = directory.resolve(key + SUFFIX);
+        ByteBuffer entry;
+        try {
+            entry = ByteBuffer.wrap(Files.readAllBytes(file));
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if(entry.remaining() < HEADER + Integer.BYTES || entry.getInt() != MAGIC || entry.getInt() != VERSION || entry.getInt() != source.length() || entry.getInt() != crc32(entry)) {
+            discard(key);
+            return null;
+        }
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (NoSuchFileException e) {
+            //evicted by someone else since it was read, which is fine
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return entry;
+    }
+
+    //the CRC-32 of the entry from its position on, which is left as it was
+    private static int crc32(ByteBuffer entry) {
+        CRC32 crc = new CRC32();
+        crc.update(entry.duplicate());
+        return (int) crc.getValue();
+    }
+
+    private Entry store(String key, CharSequence source) throws ParseException {
+        Entry entry = new Entry();
+        entry.tokens = new Lexer(source).lexBuffer();
+        try {
+            entry.ast = new Parser(entry.tokens).parseSource();
+        } catch (ParseException e) {
+            entry.error = e;
+        }
+        ByteOutput output = new ByteOutput(source.length() * 2);
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeInt(source.length());
+        output.writeInt(0);
+        output.writeInt(0);
+        entry.tokens.write(output);
+        output.setInt(HEADER, output.size() - HEADER - Integer.BYTES);
+        output.writeByte(entry.ast != null ? 1 : 0);
+        if(entry.ast != null) {
+            AstCodec.encode(entry.ast, output);
+        }
+        output.setInt(HEADER - Integer.BYTES, output.crc32(HEADER));
+        try {
+            Path temporary = Files.createTempFile(directory, key, ".tmp");
+            Files.write(temporary, output.toByteArray());
+            Files.move(temporary, directory.resolve(key + SUFFIX), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            added(output.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return entry;
+    }
+
+    private void discard(String key) {
+        try {
+            Path file = directory.resolve(key + SUFFIX);
+            long bytes = Files.size(file);
+            if(Files.deleteIfExists(file)) {
+                added(-bytes);
+            }
+        } catch (NoSuchFileException e) {
+            //already gone
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private synchronized void added(long bytes) throws IOException {
+        size += bytes;
+        if(size > capacity) {
+            evict();
+        }
+    }
+
+    //deletes the least recently used entries until the directory fits, going
+    //by the entries actually there since other processes may share it
+    private void evict() throws IOException {
+        Map<Path, BasicFileAttributes> entries = entries(directory);
+        List<Path> files = new ArrayList<>(entries.keySet());
+        size = 0;
+        for(BasicFileAttributes attributes : entries.values()) {
+            size += attributes.size();
+        }
+        files.sort(Comparator.comparing(file -> entries.get(file).lastModifiedTime()));
+        for(int i = 0; i < files.size() && size > capacity; i++) {
+            if(Files.deleteIfExists(files.get(i))) {
+                evictions.incrementAndGet();
+            }
+            size -= entries.get(files.get(i)).size();
+        }
+    }
+
+    //the entries in the directory with their attributes, leaving out the
+    //temporary files entries are written to first, which may be another
+    //process's, and anything else which isn't an entry
+    private static Map<Path, BasicFileAttributes> entries(Path directory) throws IOException {
+        Map<Path, BasicFileAttributes> entries = new HashMap<>();
+        try(Stream<Path> list = Files.list(directory)) {
+            for(Path file : (Iterable<Path>) list::iterator) {
+                if(!file.getFileName().toString().endsWith(SUFFIX)) {
+                    continue;
+                }
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    if(attributes.isRegularFile()) {
+                        entries.put(file, attributes);
+                    }
+                } catch (NoSuchFileException e) {
+                    //deleted while listing
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static final class Entry {
+
+        private TokenBuffer tokens;
+        private Ast.Source ast;
+        private ParseException error;
+
+    }
+
+}
@@ -1,6 +1,7 @@
 package plc.project;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -10,7 +11,8 @@ public final class Scope {
 
     private final Scope parent;
     private final Map<String, Environment.Variable> variables = new HashMap<>();
-    private final Map<String, Environment.Function> functions = new HashMap<>();
+    //functions by name, then indexed by arity
+    private final Map<String, Environment.Function[]> functions = new HashMap<>();
 
     public Scope(Scope parent) {
         this.parent = parent;
@@ -53,18 +55,25 @@ public final class Scope {
     }
 
     public Environment.Function defineFunction(String name, String jvmName, List<Environment.Type> parameterTypes, Environment.Type returnType, java.util.function.Function<List<Environment.PlcObject>, Environment.PlcObject> function) {
-        if (functions.containsKey(name + "/" + parameterTypes.size())) {
+        if (getFunction(name, parameterTypes.size()) != null) {
             throw new RuntimeException("The function " + name + "/" + parameterTypes.size() + " is already defined in this scope.");
         } else {
             Environment.Function func = new Environment.Function(name, jvmName, parameterTypes, returnType, function);
-            functions.put(func.getName() + "/" + func.getParameterTypes().size(), func);
+            int arity = func.getParameterTypes().size();
+            Environment.Function[] overloads = functions.get(func.getName());
+            if (overloads == null || overloads.length <= arity) {
+                overloads = overloads == null ? new Environment.Function[arity + 1] : Arrays.copyOf(overloads, arity + 1);
+                functions.put(func.getName(), overloads);
+            }
+            overloads[arity] = func;
             return func;
         }
     }
 
     public Environment.Function lookupFunction(String name, int arity) {
-        if (functions.containsKey(name + "/" + arity)) {
-            return functions.get(name + "/" + arity);
+        Environment.Function function = getFunction(name, arity);
+        if (function != null) {
+            return function;
         } else if (parent != null) {
             return parent.lookupFunction(name, arity);
         } else {
@@ -72,12 +81,26 @@ public final class Scope {
         }
     }
 
+    //the function defined in this scope, without building a name/arity key
+    private Environment.Function getFunction(String name, int arity) {
+        Environment.Function[] overloads = functions.get(name);
+        return overloads != null && arity < overloads.length ? overloads[arity] : null;
+    }
+
     @Override
     public String toString() {
+        List<String> names = new ArrayList<>();
+        for (Environment.Function[] overloads : functions.values()) {
+            for (Environment.Function function : overloads) {
+                if (function != null) {
+                    names.add(function.getName() + "/" + function.getParameterTypes().size());
+                }
+            }
+        }
         return "Scope{" +
                 "parent=" + parent +
                 ", variables=" + variables.keySet() +
-                ", functions=" + functions.keySet() +
+                ", functions=" + names +
                 '}';
     }
 
@@ -0,0 +1,116 @@
+package plc.project;
+
+import java.util.Arrays;
+
+/**
+ * A source which is edited in place, for {@link Lexer#relex(TokenBuffer, int,
+ * int, String)} to apply an edit without copying the whole text into a new
+ * {@link String}.
+ *
+ * The chars are kept in a gap buffer: the text before the last edit is at the
+ * front of the array and the text after it at the back, with the free space
+ * in between. An edit moves the gap to its offset, so it costs the length of
+ * the edit plus the distance from the previous one, which for the edits of
+ * someone typing is small.
+ *
+ * Anything still reading the source, like a {@link Token} or {@link
+ * LineIndex} made before an edit, sees the edited text afterwards.
+ */
+public final class SourceBuffer implements CharSequence {
+
+    private char[] chars;
+    //the text is [0, gap) and [end, chars.length) of the array
+    private int gap;
+    private int end;
+
+    public SourceBuffer(CharSequence text) {
+        chars = new char[Math.max(text.length() * 5 / 4, 16)];
+        gap = text.length();
+        end = chars.length;
+        for(int i = 0; i < gap; i++) {
+            chars[i] = text.charAt(i);
+        }
+    }
+
+    /**
+     * Replaces the {@code removed} chars at {@code offset} with {@code
+     * inserted}.
+     */
+    public void replace(int offset, int removed, CharSequence inserted) {
+        if(offset < 0 || removed < 0 || offset + removed > length()) {
+            throw new IndexOutOfBoundsException("Edit [" + offset + ", " + (offset + removed) + ") out of bounds for length " + length() + ".");
+        }
+        moveGap(offset);
+        end += removed;
+        if(end - gap < inserted.length()) {
+            grow(length() + inserted.length());
+        }
+        for(int i = 0; i < inserted.length(); i++) {
+            chars[gap++] = inserted.charAt(i);
+        }
+    }
+
+    @Override
+    public int length() {
+        return chars.length - end + gap;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if(index < 0 || index >= length()) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + length() + ".");
+        }
+        return index < gap ? chars[index] : chars[index - gap + end];
+    }
+
+    /**
+     * Returns a copy of the chars {@code [start, end)} as a {@link String},
+     * which doesn't change with later edits.
+     */
+    @Override
+    public String subSequence(int start, int end) {
+        if(start < 0 || start > end || end > length()) {
+            throw new IndexOutOfBoundsException("Range [" + start + ", " + end + ") out of bounds for length " + length() + ".");
+        }
+        if(end <= gap) {
+            return new String(chars, start, end - start);
+        }
+        else if(start >= gap) {
+            return new String(chars, start - gap + this.end, end - start);
+        }
+        return new StringBuilder(end - start)
+                .append(chars, start, gap - start)
+                .append(chars, this.end, end - gap)
+                .toString();
+    }
+
+    @Override
+    public String toString() {
+        return subSequence(0, length());
+    }
+
+    private void moveGap(int offset) {
+        if(offset < gap) {
+            int count = gap - offset;
+            System.arraycopy(chars, offset, chars, end - count, count);
+            end -= count;
+        }
+        else if(offset > gap) {
+            int count = offset - gap;
+            System.arraycopy(chars, end, chars, gap, count);
+            end += count;
+        }
+        gap = offset;
+    }
+
+    //grows the array to fit a text of the length, widening the gap
+    private void grow(int length) {
+        int capacity = Math.max(chars.length * 2, length + 16);
+        int tail = chars.length - end;
+        char[] chars = Arrays.copyOf(this.chars, capacity);
+        System.arraycopy(this.chars, end, chars, capacity - tail, tail);
+        this.chars = chars;
+        end = capacity - tail;
+    }
+
+}
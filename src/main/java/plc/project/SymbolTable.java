@@ -0,0 +1,142 @@
+package plc.project;
+
+import java.util.Arrays;
+
+/**
+ * Interns the identifiers seen by a {@link Lexer}, so every occurrence of a
+ * name shares one {@link String} and only the first one is copied out of the
+ * input. Maps keyed on names (such as in {@link Scope}) then mostly compare
+ * keys by identity.
+ *
+ * Each symbol gets an id in the order it was first seen. The keywords are
+ * added first, so the id of a keyword is its {@link Token.Keyword} ordinal and
+ * classifying an identifier is a single lookup.
+ *
+ * A table isn't thread safe; each lexer has its own unless one is passed in.
+ */
+public final class SymbolTable {
+
+    private static final Token.Keyword[] KEYWORDS = Token.Keyword.values();
+
+    //only holds the keywords and is never added to, so it is safe to share
+    private static final SymbolTable RESERVED = new SymbolTable();
+
+    private String[] symbols = new String[64];
+    private int[] hashes = new int[64];
+    //open addressing table of id + 1, 0 being an empty slot
+    private int[] slots = new int[128];
+    private int size = 0;
+
+    public SymbolTable() {
+        for(Token.Keyword keyword : KEYWORDS) {
+            String name = keyword.name();
+            lookup(name, 0, name.length());
+        }
+    }
+
+    /**
+     * Returns the keyword spelled by {@code [start, end)} of the source, or
+     * null if it isn't one.
+     */
+    public static Token.Keyword classify(CharSequence source, int start, int end) {
+        return keyword(RESERVED.find(source, start, end));
+    }
+
+    /**
+     * Returns the keyword with the given symbol id, or null if the symbol
+     * isn't a keyword.
+     */
+    public static Token.Keyword keyword(int id) {
+        return id >= 0 && id < KEYWORDS.length ? KEYWORDS[id] : null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String symbol(int id) {
+        if(id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("Symbol " + id + " out of bounds for length " + size + ".");
+        }
+        return symbols[id];
+    }
+
+    /**
+     * Returns the id of the symbol spelled by {@code [start, end)} of the
+     * source, adding it to the table if it is new.
+     */
+    public int lookup(CharSequence source, int start, int end) {
+        int hash = hash(source, start, end);
+        int slot = probe(source, start, end, hash);
+        if(slots[slot] != 0) {
+            return slots[slot] - 1;
+        }
+        if(size == symbols.length) {
+            symbols = Arrays.copyOf(symbols, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+        }
+        symbols[size] = source.subSequence(start, end).toString();
+        hashes[size] = hash;
+        slots[slot] = ++size;
+        //keep the table at most half full
+        if(size * 2 > slots.length) {
+            rehash();
+        }
+        return size - 1;
+    }
+
+    /**
+     * Returns the id of the symbol, or -1 if it isn't in the table.
+     */
+    public int find(CharSequence source, int start, int end) {
+        return slots[probe(source, start, end, hash(source, start, end))] - 1;
+    }
+
+    //returns the slot of the symbol, or the empty slot where it would go
+    private int probe(CharSequence source, int start, int end, int hash) {
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while(slots[slot] != 0) {
+            int id = slots[slot] - 1;
+            if(hashes[id] == hash && matches(symbols[id], source, start, end)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for(int id = 0; id < size; id++) {
+            int slot = hashes[id] & mask;
+            while(slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id + 1;
+        }
+    }
+
+    //the same hash as String.hashCode, spread so the low bits are usable
+    private static int hash(CharSequence source, int start, int end) {
+        int hash = 0;
+        for(int i = start; i < end; i++) {
+            hash = 31 * hash + source.charAt(i);
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean matches(String symbol, CharSequence source, int start, int end) {
+        if(symbol.length() != end - start) {
+            return false;
+        }
+        for(int i = 0; i < symbol.length(); i++) {
+            if(symbol.charAt(i) != source.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -11,39 +11,165 @@ public final class Token {
         OPERATOR
     }
 
+    /**
+     * The identifiers with a meaning in the grammar. They are still lexed as
+     * {@link Type#IDENTIFIER} tokens, but also classified so the parser can
+     * check for one without comparing strings.
+     */
+    public enum Keyword {
+        LET,
+        DEF,
+        DO,
+        END,
+        IF,
+        ELSE,
+        FOR,
+        IN,
+        WHILE,
+        RETURN,
+        AND,
+        OR,
+        NIL,
+        TRUE,
+        FALSE
+    }
+
     private final Type type;
-    private final String literal;
+    private String literal;
     private final int index;
+    //source and end of the literal, for copying it out when first requested
+    private final CharSequence source;
+    private final int end;
+    private final Keyword keyword;
+    //line starts of the source, for getLine and getColumn
+    private LineIndex lines;
+    //decoded value of a string or character literal, see getValue
+    private Object value;
 
     public Token(Type type, String literal, int index) {
         this.type = type;
         this.literal = literal;
         this.index = index;
+        this.source = null;
+        this.end = index + literal.length();
+        this.keyword = type == Type.IDENTIFIER ? SymbolTable.classify(literal, 0, literal.length()) : null;
+    }
+
+    /**
+     * Creates an identifier token which was already classified, for the lexer.
+     */
+    Token(Type type, String literal, int index, Keyword keyword) {
+        this.type = type;
+        this.literal = literal;
+        this.index = index;
+        this.source = null;
+        this.end = index + literal.length();
+        this.keyword = keyword;
+    }
+
+    /**
+     * Creates a token whose literal is the range {@code [index, end)} of the
+     * source, which isn't copied out until {@link #getLiteral()} is called.
+     */
+    public Token(Type type, CharSequence source, int index, int end) {
+        this.type = type;
+        this.source = source;
+        this.index = index;
+        this.end = end;
+        this.keyword = type == Type.IDENTIFIER ? SymbolTable.classify(source, index, end) : null;
+    }
+
+    /**
+     * Sets the decoded value of the literal, for the lexer which already has it
+     * from scanning the token. Only used on a token that was just created.
+     */
+    Token withValue(Object value) {
+        this.value = value;
+        return this;
+    }
+
+    /**
+     * Sets the line index of the source the token was lexed from, for the
+     * lexer. Only used on a token that was just created.
+     */
+    Token withLines(LineIndex lines) {
+        this.lines = lines;
+        return this;
     }
 
     public Type getType() {
         return type;
     }
 
+    /**
+     * Returns the keyword this identifier spells, or null if it isn't one.
+     */
+    public Keyword getKeyword() {
+        return keyword;
+    }
+
     public String getLiteral() {
+        //racing threads would both create an equal string, which is harmless
+        if(literal == null) {
+            literal = source.subSequence(index, end).toString();
+        }
         return literal;
     }
 
+    /**
+     * Returns the value of the literal: the {@link String} or {@link Character}
+     * with its quotes removed and escapes replaced for string and character
+     * tokens, the {@link java.math.BigInteger} or {@link java.math.BigDecimal}
+     * for numbers, and the literal itself otherwise.
+     */
+    public Object getValue() {
+        if(value == null) {
+            value = source == null
+                    ? Lexer.cook(type, literal, 0, literal.length())
+                    : Lexer.cook(type, source, index, end);
+        }
+        return value;
+    }
+
     public int getIndex() {
         return index;
     }
 
+    /**
+     * Returns the line index of the source the token was lexed from, or null
+     * for a token that was created by hand.
+     */
+    public LineIndex getLines() {
+        return lines;
+    }
+
+    /**
+     * Returns the line of the token's first character, or -1 if the source
+     * isn't known.
+     */
+    public int getLine() {
+        return lines == null ? -1 : lines.getLine(index);
+    }
+
+    /**
+     * Returns the column of the token's first character, or -1 if the source
+     * isn't known.
+     */
+    public int getColumn() {
+        return lines == null ? -1 : lines.getColumn(index);
+    }
+
     @Override
     public boolean equals(Object obj) {
         return obj instanceof Token
                 && type == ((Token) obj).type
-                && literal.equals(((Token) obj).literal)
+                && getLiteral().equals(((Token) obj).getLiteral())
                 && index == ((Token) obj).index;
     }
 
     @Override
     public String toString() {
-        return type + "=" + literal + "@" + index;
+        return type + "=" + getLiteral() + "@" + index;
     }
 
 }
@@ -0,0 +1,329 @@
+package plc.project;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A packed list of tokens over a shared source, stored as parallel arrays of
+ * types, start indices and lengths instead of one {@link Token} object (and
+ * literal string) per token. This is what {@link Lexer#lexBuffer()} produces
+ * and the {@link Parser} can consume directly; {@link Token} objects are only
+ * created by {@link #get(int)} when one is actually needed.
+ *
+ * The arrays are a gap buffer, so {@link #replace} only moves the tokens
+ * between the last edit and this one rather than all those after it: the
+ * tokens before the gap are at the front of the arrays and those after it at
+ * the back, with the free slots in between. The starts of the tokens after
+ * the gap are relative to the end of the source, so they stay the same when
+ * an edit before them changes its length. Appending moves the gap to the end.
+ */
+public final class TokenBuffer {
+
+    private static final Token.Type[] TYPES = Token.Type.values();
+    private static final Token.Keyword[] KEYWORDS = Token.Keyword.values();
+
+    //a type byte holds the type ordinal and, above it, the keyword ordinal + 1
+    private static final int TYPE_BITS = 3;
+    private static final int TYPE_MASK = (1 << TYPE_BITS) - 1;
+
+    private CharSequence source;
+    //length of the source the starts after the gap are relative to, as of
+    //the last edit
+    private int length;
+    private byte[] types;
+    private int[] starts;
+    private int[] lengths;
+    private int size = 0;
+    //tokens [0, gap) are at the front of the arrays, and [gap, size) at the back
+    private int gap = 0;
+    //line index of the source, created when first needed
+    private LineIndex lines;
+
+    public TokenBuffer(CharSequence source) {
+        this(source, 64);
+    }
+
+    public TokenBuffer(CharSequence source, int capacity) {
+        this.source = source;
+        this.types = new byte[Math.max(capacity, 1)];
+        this.starts = new int[types.length];
+        this.lengths = new int[types.length];
+    }
+
+    public CharSequence getSource() {
+        return source;
+    }
+
+    public LineIndex getLines() {
+        //racing threads would both create an index of the same source, which
+        //is harmless
+        if(lines == null) {
+            lines = new LineIndex(source);
+        }
+        return lines;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Appends the token covering {@code [start, end)} of the source.
+     */
+    public void add(Token.Type type, int start, int end) {
+        add(type, null, start, end);
+    }
+
+    /**
+     * Appends the token with its keyword, see {@link Token#getKeyword()}.
+     */
+    public void add(Token.Type type, Token.Keyword keyword, int start, int end) {
+        moveGap(size);
+        if(size == types.length) {
+            grow(types.length * 2);
+        }
+        types[size] = (byte) (type.ordinal() | (keyword == null ? 0 : keyword.ordinal() + 1) << TYPE_BITS);
+        starts[size] = start;
+        lengths[size] = end - start;
+        size++;
+        gap = size;
+    }
+
+    public Token.Type getType(int i) {
+        return TYPES[types[slot(check(i))] & TYPE_MASK];
+    }
+
+    public Token.Keyword getKeyword(int i) {
+        int keyword = (types[slot(check(i))] & 0xFF) >>> TYPE_BITS;
+        return keyword == 0 ? null : KEYWORDS[keyword - 1];
+    }
+
+    public int getStart(int i) {
+        return check(i) < gap ? starts[i] : starts[slot(i)] + length;
+    }
+
+    public int getLength(int i) {
+        return lengths[slot(check(i))];
+    }
+
+    public int getEnd(int i) {
+        return getStart(i) + lengths[slot(i)];
+    }
+
+    public String getLiteral(int i) {
+        return source.subSequence(getStart(i), getEnd(i)).toString();
+    }
+
+    /**
+     * Returns the decoded value of token {@code i}, see {@link Token#getValue()}.
+     */
+    public Object getValue(int i) {
+        return Lexer.cook(getType(i), source, getStart(i), getEnd(i));
+    }
+
+    /**
+     * Returns true if the literal of token {@code i} is {@code literal},
+     * without copying it out of the source.
+     */
+    public boolean literalEquals(int i, String literal) {
+        int start = getStart(i);
+        if(lengths[slot(i)] != literal.length()) {
+            return false;
+        }
+        for(int j = 0; j < literal.length(); j++) {
+            if(source.charAt(start + j) != literal.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Appends all of the tokens, which must be over the same source text.
+     */
+    public void addAll(TokenBuffer tokens) {
+        moveGap(size);
+        if(size + tokens.size > types.length) {
+            grow(Math.max(types.length * 2, size + tokens.size));
+        }
+        tokens.copyTo(this, size);
+        size += tokens.size;
+        gap = size;
+    }
+
+    /**
+     * Replaces tokens {@code [from, to)} with all of {@code tokens} and moves
+     * the following tokens by {@code delta}, for an edit of the source which
+     * changed its length by {@code delta}. Used by {@link Lexer#relex}.
+     *
+     * The gap is moved to the edit, so the cost is that of the new tokens and
+     * of the tokens between the previous edit and this one, and the tokens
+     * after the edit aren't touched.
+     */
+    public void replace(int from, int to, TokenBuffer tokens, int delta) {
+        if(from < 0 || from > to || to > size) {
+            throw new IndexOutOfBoundsException("Range [" + from + ", " + to + ") out of bounds for length " + size + ".");
+        }
+        if(gap == size) {
+            //nothing is relative to the end yet, which is that of the source before the edit
+            length = tokens.source.length() - delta;
+        }
+        moveGap(to);
+        //the replaced tokens are the last ones before the gap, and join it
+        size -= to - from;
+        gap = from;
+        if(size + tokens.size > types.length) {
+            grow(Math.max(types.length * 2, size + tokens.size));
+        }
+        tokens.copyTo(this, gap);
+        size += tokens.size;
+        gap += tokens.size;
+        length += delta;
+        source = tokens.source;
+        lines = null;
+    }
+
+    //copies all of the tokens into the free slots of the buffer starting at
+    //index, at the front of its arrays
+    private void copyTo(TokenBuffer buffer, int index) {
+        System.arraycopy(types, 0, buffer.types, index, gap);
+        System.arraycopy(starts, 0, buffer.starts, index, gap);
+        System.arraycopy(lengths, 0, buffer.lengths, index, gap);
+        int back = slot(gap);
+        System.arraycopy(types, back, buffer.types, index + gap, size - gap);
+        System.arraycopy(lengths, back, buffer.lengths, index + gap, size - gap);
+        for(int i = gap; i < size; i++) {
+            buffer.starts[index + i] = starts[slot(i)] + length;
+        }
+    }
+
+    //the index in the arrays of token i
+    private int slot(int i) {
+        return i < gap ? i : i + types.length - size;
+    }
+
+    //moves the gap to before token index, making the starts of the tokens
+    //which move from one side of it to the other absolute or relative
+    private void moveGap(int index) {
+        int free = types.length - size;
+        if(index < gap) {
+            int count = gap - index;
+            System.arraycopy(types, index, types, index + free, count);
+            System.arraycopy(starts, index, starts, index + free, count);
+            System.arraycopy(lengths, index, lengths, index + free, count);
+            for(int i = index + free; i < gap + free; i++) {
+                starts[i] -= length;
+            }
+        }
+        else if(index > gap) {
+            int count = index - gap;
+            System.arraycopy(types, gap + free, types, gap, count);
+            System.arraycopy(starts, gap + free, starts, gap, count);
+            System.arraycopy(lengths, gap + free, lengths, gap, count);
+            for(int i = gap; i < index; i++) {
+                starts[i] += length;
+            }
+        }
+        gap = index;
+    }
+
+    //grows the arrays to the capacity, widening the gap
+    private void grow(int capacity) {
+        int back = slot(gap);
+        int tail = size - gap;
+        byte[] types = Arrays.copyOf(this.types, capacity);
+        int[] starts = Arrays.copyOf(this.starts, capacity);
+        int[] lengths = Arrays.copyOf(this.lengths, capacity);
+        System.arraycopy(this.types, back, types, capacity - tail, tail);
+        System.arraycopy(this.starts, back, starts, capacity - tail, tail);
+        System.arraycopy(this.lengths, back, lengths, capacity - tail, tail);
+        this.types = types;
+        this.starts = starts;
+        this.lengths = lengths;
+    }
+
+    /**
+     * Writes the tokens, but not the source, in the form read by {@link
+     * #read(ByteBuffer, CharSequence)}.
+     */
+    void write(ByteOutput output) {
+        output.writeVarint(size);
+        output.write(types, 0, gap);
+        output.write(types, slot(gap), size - gap);
+        //the gap since the end of the previous token is usually a char or two
+        int previous = 0;
+        for(int i = 0; i < size; i++) {
+            output.writeVarint(getStart(i) - previous);
+            output.writeVarint(getLength(i));
+            previous = getEnd(i);
+        }
+    }
+
+    /**
+     * Reads tokens written by {@link #write(ByteOutput)} over the source they
+     * were lexed from.
+     */
+    public static TokenBuffer read(ByteBuffer input, CharSequence source) throws IOException {
+        int size = ByteOutput.readVarint(input);
+        if(size < 0 || size > input.remaining()) {
+            throw new IOException("Invalid token count " + size + ".");
+        }
+        TokenBuffer tokens = new TokenBuffer(source, size);
+        input.get(tokens.types, 0, size);
+        int previous = 0;
+        for(int i = 0; i < size; i++) {
+            if((tokens.types[i] & TYPE_MASK) >= TYPES.length || (tokens.types[i] & 0xFF) >>> TYPE_BITS > KEYWORDS.length) {
+                throw new IOException("Invalid token type " + tokens.types[i] + ".");
+            }
+            tokens.starts[i] = previous + ByteOutput.readVarint(input);
+            tokens.lengths[i] = ByteOutput.readVarint(input);
+            previous = tokens.starts[i] + tokens.lengths[i];
+            if(tokens.starts[i] < 0 || tokens.lengths[i] < 0 || previous > source.length()) {
+                throw new IOException("Token " + i + " out of bounds for length " + source.length() + ".");
+            }
+        }
+        tokens.size = size;
+        tokens.gap = size;
+        return tokens;
+    }
+
+    /**
+     * Creates the {@link Token} object for token {@code i}.
+     */
+    public Token get(int i) {
+        if(getType(i) == Token.Type.IDENTIFIER) {
+            return new Token(Token.Type.IDENTIFIER, getLiteral(i), getStart(i), getKeyword(i)).withLines(getLines());
+        }
+        return new Token(getType(i), getLiteral(i), getStart(i)).withLines(getLines());
+    }
+
+    /**
+     * Returns a list view which creates {@link Token}s as they are accessed.
+     */
+    public List<Token> asList() {
+        return new AbstractList<Token>() {
+
+            @Override
+            public Token get(int index) {
+                return TokenBuffer.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+        };
+    }
+
+    private int check(int i) {
+        if(i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index " + i + " out of bounds for length " + size + ".");
+        }
+        return i;
+    }
+
+}
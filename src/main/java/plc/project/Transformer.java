@@ -0,0 +1,196 @@
+package plc.project;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Rewrites an AST, as a pass between the {@link Analyzer} and the {@link
+ * Interpreter} or {@link Generator} does (see {@link PassManager}).
+ *
+ * The tree is rewritten bottom up, walking it with {@link AstWalker} so trees
+ * of any depth can be. Each node is first rebuilt from the rewrites of its
+ * children, and then passed to the visit method for its class, which returns
+ * it or the node to replace it with. The visit methods return the node by
+ * default, so a subclass only overrides those for the nodes it rewrites. A
+ * replacement has to fit the place of the node, an {@link Ast.Expr} for an
+ * expression and so on.
+ *
+ * A node is only copied if one of its children was replaced, so a rewrite
+ * copies the spine from the root down to the replaced nodes and shares the
+ * rest of the tree, and a tree with nothing to rewrite is returned as is. A
+ * copy keeps the analysis results of the node it copies, those set on the
+ * node or, for a transformer created with an {@link Analysis}, those in it.
+ * Replacements have to be given theirs by the transformer the same way, if
+ * they are needed later.
+ */
+public abstract class Transformer implements Ast.Visitor<Ast>, PassManager.Pass {
+
+    //makes the copies with the constructors of the nodes
+    private static final AstWalker.Builder COPIES = new AstWalker.Builder() {};
+
+    private final Analysis analysis;
+
+    /**
+     * Creates a transformer for trees analyzed in place, or not at all.
+     */
+    protected Transformer() {
+        this(null);
+    }
+
+    /**
+     * Creates a transformer for trees analyzed with the given {@link
+     * Analysis}, which copies are added to.
+     */
+    protected Transformer(Analysis analysis) {
+        this.analysis = analysis;
+    }
+
+    /**
+     * Returns the rewrite of the tree of {@code ast}.
+     */
+    public final Ast transform(Ast ast) {
+        ArrayDeque<Ast> rewritten = new ArrayDeque<>();
+        AstWalker.walk(ast, new AstWalker.Listener() {
+
+            @Override
+            public void exit(Ast ast) {
+                //the children were rewritten last, and are on top in reverse
+                List<Ast> children = AstWalker.children(ast);
+                Ast[] rewrites = new Ast[children.size()];
+                boolean changed = false;
+                for(int i = rewrites.length - 1; i >= 0; i--) {
+                    rewrites[i] = rewritten.pop();
+                    changed |= rewrites[i] != children.get(i);
+                }
+                Ast node = ast;
+                if(changed) {
+                    node = AstWalker.rebuild(ast, Arrays.asList(rewrites), COPIES);
+                    copy(ast, node);
+                }
+                rewritten.push(visit(node));
+            }
+
+        });
+        return rewritten.pop();
+    }
+
+    @Override
+    public final Ast.Source apply(Ast.Source ast) {
+        return (Ast.Source) transform(ast);
+    }
+
+    @Override
+    public Ast visit(Ast.Source ast) {
+        return ast;
+    }
+
+    @Override
+    public Ast visit(Ast.Field ast) {
+        return ast;
+    }
+
+    @Override
+    public Ast visit(Ast.Method ast) {
+        return ast;
+    }
+
+    @Override
+    public Ast visit(Ast.Stmt.Expression ast) {
+        return ast;
+    }
+
+    @Override
+    public Ast visit(Ast.Stmt.Declaration ast) {
+        return ast;
+    }
+
+    @Override
+    public Ast visit(Ast.Stmt.Assignment ast) {
+        return ast;
+    }
+
+    @Override
+    public Ast visit(Ast.Stmt.If ast) {
+        return ast;
+    }
+
+    @Override
+    public Ast visit(Ast.Stmt.For ast) {
+        return ast;
+    }
+
+    @Override
+    public Ast visit(Ast.Stmt.While ast) {
+        return ast;
+    }
+
+    @Override
+    public Ast visit(Ast.Stmt.Return ast) {
+        return ast;
+    }
+
+    @Override
+    public Ast visit(Ast.Expr.Literal ast) {
+        return ast;
+    }
+
+    @Override
+    public Ast visit(Ast.Expr.Group ast) {
+        return ast;
+    }
+
+    @Override
+    public Ast visit(Ast.Expr.Binary ast) {
+        return ast;
+    }
+
+    @Override
+    public Ast visit(Ast.Expr.Access ast) {
+        return ast;
+    }
+
+    @Override
+    public Ast visit(Ast.Expr.Function ast) {
+        return ast;
+    }
+
+    //the results of the node a copy was made of, from wherever the Analyzer
+    //put them
+    private void copy(Ast ast, Ast copy) {
+        if(analysis != null) {
+            analysis.copy(ast, copy);
+        }
+        else if(ast instanceof Ast.Field) {
+            copy(((Ast.Field) ast)::getVariable, ((Ast.Field) copy)::setVariable);
+        }
+        else if(ast instanceof Ast.Method) {
+            copy(((Ast.Method) ast)::getFunction, ((Ast.Method) copy)::setFunction);
+        }
+        else if(ast instanceof Ast.Stmt.Declaration) {
+            copy(((Ast.Stmt.Declaration) ast)::getVariable, ((Ast.Stmt.Declaration) copy)::setVariable);
+        }
+        else if(ast instanceof Ast.Expr.Group) {
+            copy(((Ast.Expr.Group) ast)::getType, ((Ast.Expr.Group) copy)::setType);
+        }
+        else if(ast instanceof Ast.Expr.Binary) {
+            copy(((Ast.Expr.Binary) ast)::getType, ((Ast.Expr.Binary) copy)::setType);
+        }
+        else if(ast instanceof Ast.Expr.Access) {
+            copy(((Ast.Expr.Access) ast)::getVariable, ((Ast.Expr.Access) copy)::setVariable);
+        }
+        else if(ast instanceof Ast.Expr.Function) {
+            copy(((Ast.Expr.Function) ast)::getFunction, ((Ast.Expr.Function) copy)::setFunction);
+        }
+    }
+
+    //the getters throw for what the Analyzer didn't set
+    private static <T> void copy(Supplier<T> getter, Consumer<T> setter) {
+        try {
+            setter.accept(getter.get());
+        } catch (IllegalStateException ignored) {}
+    }
+
+}
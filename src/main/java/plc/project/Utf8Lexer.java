@@ -0,0 +1,352 @@
+package plc.project;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A lexer which runs the {@link DfaLexer} tables directly over UTF-8 bytes,
+ * such as a file read with {@link java.nio.file.Files#readAllBytes} or mapped
+ * with {@link java.nio.channels.FileChannel#map}, instead of over a decoded
+ * {@link String}.
+ *
+ * Every token but a string, a character or a one char operator is ASCII, so
+ * an ASCII byte is looked up as its char and only a non-ASCII byte (which can
+ * only be in one of those tokens) is decoded, one code point at a time.
+ * Literals are copied out of the bytes as {@code ISO_8859_1} when they are
+ * ASCII and decoded otherwise, and identifiers are interned straight from
+ * the bytes.
+ *
+ * The tokens are the same as {@link DfaLexer} gives for the decoded input,
+ * including indices, which are in chars. Malformed UTF-8 decodes the same as
+ * {@link ByteSource}, a {@code U+FFFD} per bad byte, and a code point outside
+ * of the BMP is two chars.
+ */
+public final class Utf8Lexer {
+
+    private static final DfaLexer.Dfa DFA = DfaLexer.DFA;
+
+    //states after the first char of a whitespace, identifier and string token
+    private static final int WHITESPACE_FIRST = step(0, ' ');
+    private static final int IDENTIFIER_FIRST = step(0, 'a');
+    private static final int STRING_FIRST = step(0, '"');
+    //the state looping over the rest of the run, indexed by the first state
+    private static final int[] LOOPS = new int[DFA.accept.length];
+
+    static {
+        LOOPS[WHITESPACE_FIRST] = step(WHITESPACE_FIRST, ' ');
+        LOOPS[IDENTIFIER_FIRST] = step(IDENTIFIER_FIRST, 'a');
+        LOOPS[STRING_FIRST] = step(STRING_FIRST, 'a');
+        //a run has to be what the DFA does, or the rules have changed
+        for(char c = 0; c < 128; c++) {
+            check(WHITESPACE_FIRST, c, ByteRuns.whitespace(c));
+            check(IDENTIFIER_FIRST, c, ByteRuns.identifier(c));
+            check(STRING_FIRST, c, ByteRuns.string(c));
+        }
+    }
+
+    private final ByteBuffer bytes;
+    private final int limit;
+    private final ByteSource source;
+    private final SymbolTable symbols;
+    private final LineIndex lines;
+    //identifiers are ASCII, so their byte offsets index this view
+    private final CharSequence ascii;
+    //whether runs are skipped with ByteRuns rather than a byte at a time
+    private boolean bulk = true;
+
+    //position of the next token: the byte offset of the code point, the char
+    //index and whether it is at the low surrogate of a pair
+    private int offset = 0;
+    private int index = 0;
+    private boolean low = false;
+    //end of the token matched by scan
+    private int endOffset;
+    private int end;
+    private boolean endLow;
+
+    public Utf8Lexer(byte[] bytes) {
+        this(ByteBuffer.wrap(bytes));
+    }
+
+    public Utf8Lexer(ByteBuffer bytes) {
+        this(bytes, new SymbolTable());
+    }
+
+    public Utf8Lexer(ByteBuffer bytes, SymbolTable symbols) {
+        //little endian so the first byte of a word is its lowest
+        this.bytes = bytes.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        this.bytes.position(0);
+        this.limit = this.bytes.limit();
+        this.source = new ByteSource(this.bytes);
+        this.symbols = symbols;
+        this.lines = new LineIndex(source);
+        this.ascii = new AsciiView(this.bytes, 0, limit);
+    }
+
+    /**
+     * Turns skipping whitespace, identifier and string runs a word at a time
+     * on or off, which doesn't change the tokens.
+     */
+    Utf8Lexer withBulkScanning(boolean bulk) {
+        this.bulk = bulk;
+        return this;
+    }
+
+    /**
+     * Returns the input as chars, which is what token indices refer to.
+     */
+    public ByteSource getSource() {
+        return source;
+    }
+
+    public SymbolTable getSymbols() {
+        return symbols;
+    }
+
+    public LineIndex getLines() {
+        return lines;
+    }
+
+    public List<Token> lex() {
+        List<Token> tokens = new ArrayList<>();
+        Token token;
+        while((token = lexToken()) != null) {
+            tokens.add(token);
+        }
+        return tokens;
+    }
+
+    /**
+     * Lexes the whole input into a {@link TokenBuffer} over {@link
+     * #getSource()}, so no literal is decoded until it is asked for.
+     */
+    public TokenBuffer lexBuffer() {
+        TokenBuffer buffer = new TokenBuffer(source, Math.max(limit / 8, 16));
+        Token.Type type;
+        while((type = scan()) != null) {
+            Token.Keyword keyword = type == Token.Type.IDENTIFIER ? SymbolTable.classify(ascii, offset, endOffset) : null;
+            buffer.add(type, keyword, index, end);
+            advance();
+        }
+        return buffer;
+    }
+
+    /**
+     * Skips whitespace and lexes the next token, returning null at the end of
+     * the input.
+     */
+    public Token lexToken() {
+        Token.Type type = scan();
+        if(type == null) {
+            return null;
+        }
+        Token token;
+        if(type == Token.Type.IDENTIFIER) {
+            int id = symbols.lookup(ascii, offset, endOffset);
+            token = new Token(type, symbols.symbol(id), index, SymbolTable.keyword(id));
+        }
+        else {
+            token = new Token(type, literal(), index);
+        }
+        advance();
+        return token.withLines(lines);
+    }
+
+    private void advance() {
+        offset = endOffset;
+        index = end;
+        low = endLow;
+    }
+
+    /**
+     * Runs the DFA from the current position, skipping whitespace, until the
+     * next token is matched, like {@link DfaLexer}. Returns its type with the
+     * token ending at {@code endOffset}/{@code end}, or null at the end of
+     * the input.
+     */
+    private Token.Type scan() {
+        int[] next = DFA.next;
+        int[] accept = DFA.accept;
+        int classes = DFA.classes;
+        while(offset < limit) {
+            int state = 0;
+            int position = offset;
+            int chars = index;
+            boolean half = low;
+            int rule = -1;
+            if(bulk && !half) {
+                //skips the run of a whitespace, identifier or string token
+                //a word at a time, then carries on from its loop state
+                int first = bytes.get(position);
+                int run = -1;
+                if(first >= 0) {
+                    state = next[DFA.ascii[first]];
+                    if(state == WHITESPACE_FIRST) {
+                        run = ByteRuns.whitespace(bytes, position + 1, limit);
+                    }
+                    else if(state == IDENTIFIER_FIRST) {
+                        run = ByteRuns.identifier(bytes, position + 1, limit);
+                    }
+                    else if(state == STRING_FIRST) {
+                        run = ByteRuns.string(bytes, position + 1, limit);
+                    }
+                    else {
+                        state = 0;
+                    }
+                }
+                if(run >= 0) {
+                    if(run > position + 1) {
+                        state = LOOPS[state];
+                    }
+                    chars += run - position;
+                    position = run;
+                    if(accept[state] >= 0) {
+                        rule = accept[state];
+                        endOffset = position;
+                        end = chars;
+                        endLow = false;
+                    }
+                }
+            }
+            while(position < limit) {
+                int b = bytes.get(position);
+                int following = position + 1;
+                boolean followingHalf = false;
+                int c;
+                if(b >= 0) {
+                    c = DFA.ascii[b];
+                }
+                else {
+                    int codePoint = ByteSource.decode(bytes, position);
+                    int width = ByteSource.width(bytes, position);
+                    following = position + width;
+                    if(Character.isBmpCodePoint(codePoint)) {
+                        c = DFA.classOf((char) codePoint);
+                    }
+                    else if(!half) {
+                        c = DFA.classOf(Character.highSurrogate(codePoint));
+                        following = position;
+                        followingHalf = true;
+                    }
+                    else {
+                        c = DFA.classOf(Character.lowSurrogate(codePoint));
+                    }
+                }
+                state = next[state * classes + c];
+                if(state < 0) {
+                    break;
+                }
+                position = following;
+                half = followingHalf;
+                chars++;
+                if(accept[state] >= 0) {
+                    rule = accept[state];
+                    endOffset = position;
+                    end = chars;
+                    endLow = half;
+                }
+            }
+            if(position == limit && state >= 0 && DFA.acceptAtEnd[state] >= 0
+                    && (rule < 0 || end < chars || DFA.acceptAtEnd[state] < rule)) {
+                rule = DFA.acceptAtEnd[state];
+                endOffset = position;
+                end = chars;
+                endLow = false;
+            }
+            if(rule < 0) {
+                throw new ParseException("Invalid token.", chars, lines);
+            }
+            if(DfaLexer.RULES[rule].type != null) {
+                return DfaLexer.RULES[rule].type;
+            }
+            advance();
+        }
+        return null;
+    }
+
+    private static int step(int state, char c) {
+        return DFA.next[state * DFA.classes + DFA.ascii[c]];
+    }
+
+    private static void check(int first, char c, boolean run) {
+        if(run && (step(first, c) != LOOPS[first] || step(LOOPS[first], c) != LOOPS[first])) {
+            throw new IllegalStateException("Char " + (int) c + " doesn't continue the run of state " + first + ".");
+        }
+    }
+
+    //copies out the literal of the token matched by scan
+    private String literal() {
+        boolean ascii = !low && !endLow;
+        for(int i = offset; ascii && i < endOffset; i++) {
+            ascii = bytes.get(i) >= 0;
+        }
+        if(ascii) {
+            return AsciiView.string(bytes, offset, endOffset);
+        }
+        StringBuilder builder = new StringBuilder(end - index);
+        int position = offset;
+        if(low) {
+            builder.append(Character.lowSurrogate(ByteSource.decode(bytes, position)));
+            position += ByteSource.width(bytes, position);
+        }
+        while(position < endOffset) {
+            builder.appendCodePoint(ByteSource.decode(bytes, position));
+            position += ByteSource.width(bytes, position);
+        }
+        if(endLow) {
+            builder.append(Character.highSurrogate(ByteSource.decode(bytes, position)));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * A {@link CharSequence} of bytes as {@code ISO_8859_1} chars, indexed by
+     * byte offset, which is only read over ASCII.
+     */
+    private static final class AsciiView implements CharSequence {
+
+        private final ByteBuffer bytes;
+        private final int start;
+        private final int end;
+
+        private AsciiView(ByteBuffer bytes, int start, int end) {
+            this.bytes = bytes;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (bytes.get(start + index) & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new AsciiView(bytes, this.start + start, this.start + end);
+        }
+
+        @Override
+        public String toString() {
+            return string(bytes, start, end);
+        }
+
+        private static String string(ByteBuffer bytes, int start, int end) {
+            if(bytes.hasArray()) {
+                return new String(bytes.array(), bytes.arrayOffset() + start, end - start, StandardCharsets.ISO_8859_1);
+            }
+            byte[] copy = new byte[end - start];
+            bytes.get(start, copy);
+            return new String(copy, StandardCharsets.ISO_8859_1);
+        }
+
+    }
+
+}
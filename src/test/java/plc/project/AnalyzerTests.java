@@ -1,15 +1,26 @@
 package plc.project;
 
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
 
@@ -394,6 +405,188 @@ public final class AnalyzerTests {
         );
     }
 
+    //a program the Analyzer gets through, working around what it rejects
+    private static final String PROGRAM = "DEF square(): Integer DO\n" +
+            "    RETURN 3 * 3;\n" +
+            "END\n" +
+            "DEF main(): Integer DO\n" +
+            "    LET name: String = \"a\";\n" +
+            "    LET count: Integer = 1;\n" +
+            "    LET running: Boolean = TRUE;\n" +
+            "    WHILE running AND TRUE DO\n" +
+            "        count = count + square();\n" +
+            "        running = FALSE;\n" +
+            "    END\n" +
+            "    IF running OR FALSE DO print(name); ELSE print(1.5); END\n" +
+            "    RETURN count;\n" +
+            "END\n";
+
+    @Test
+    void testConcurrentAnalysis() throws Exception {
+        Ast.Source ast = new Parser(new Lexer(PROGRAM).lex()).parseSource();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Analysis>> futures = new ArrayList<>();
+        try {
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> {
+                    Analyzer analyzer = new Analyzer(new Scope(null), new Analysis());
+                    ast.getMethods().forEach(analyzer::visit);
+                    return analyzer.getAnalysis();
+                }));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        //the shared tree is left alone
+        Assertions.assertThrows(IllegalStateException.class, () -> ast.getMethods().get(0).getFunction());
+        Ast.Source analyzed = new Parser(new Lexer(PROGRAM).lex()).parseSource();
+        Analyzer analyzer = new Analyzer(new Scope(null));
+        analyzed.getMethods().forEach(analyzer::visit);
+        Ast.Method main = ast.getMethods().get(1);
+        Ast.Stmt.While loop = (Ast.Stmt.While) main.getStatements().get(3);
+        Ast.Stmt.Assignment assignment = (Ast.Stmt.Assignment) loop.getStatements().get(0);
+        Ast.Stmt.Assignment expected = (Ast.Stmt.Assignment) ((Ast.Stmt.While) analyzed.getMethods().get(1).getStatements().get(3)).getStatements().get(0);
+        for (Future<Analysis> future : futures) {
+            Analysis analysis = future.get();
+            Assertions.assertSame(analysis.getVariable(main.getStatements().get(1)), analysis.getVariable(assignment.getReceiver()));
+            Assertions.assertEquals(((Ast.Expr.Access) expected.getReceiver()).getVariable(), analysis.getVariable(assignment.getReceiver()));
+            Assertions.assertSame(expected.getValue().getType(), analysis.getType(assignment.getValue()));
+            Assertions.assertEquals(generate(analyzed.getMethods().get(0), null), generate(ast.getMethods().get(0), analysis));
+        }
+    }
+
+    private static String generate(Ast ast, Analysis analysis) {
+        StringWriter writer = new StringWriter();
+        PrintWriter printer = new PrintWriter(writer);
+        Generator generator = analysis == null ? new Generator(printer) : new Generator(printer, analysis);
+        generator.visit(ast);
+        printer.flush();
+        return writer.toString();
+    }
+
+    @Test
+    void testImage(@TempDir Path directory) throws IOException {
+        Ast.Source ast = new Parser(new Lexer(PROGRAM).lex()).parseSource();
+        //the methods as visit(Ast.Source) does, without its check of main/0
+        Analyzer analyzer = new Analyzer(new Scope(null));
+        ast.getMethods().forEach(analyzer::visit);
+        Path file = directory.resolve("main.plci");
+        AstImage.write(ast, file);
+        Ast.Source loaded = AstImage.load(file);
+        Assertions.assertEquals(ast, loaded);
+        //nodes bound to the same variable or function still share it
+        Ast.Method main = loaded.getMethods().get(1);
+        Ast.Stmt.While loop = (Ast.Stmt.While) main.getStatements().get(3);
+        Ast.Stmt.Assignment assignment = (Ast.Stmt.Assignment) loop.getStatements().get(0);
+        Ast.Expr.Access count = (Ast.Expr.Access) assignment.getReceiver();
+        Assertions.assertSame(((Ast.Stmt.Declaration) main.getStatements().get(1)).getVariable(), count.getVariable());
+        Ast.Expr.Function square = (Ast.Expr.Function) ((Ast.Expr.Binary) assignment.getValue()).getRight();
+        Assertions.assertSame(loaded.getMethods().get(0).getFunction(), square.getFunction());
+        Assertions.assertSame(Environment.Type.INTEGER, square.getType());
+        //the Analyzer only visits one branch of an IF, and the other stays unset
+        Ast.Stmt.If branch = (Ast.Stmt.If) main.getStatements().get(4);
+        Ast.Expr.Function print = (Ast.Expr.Function) ((Ast.Stmt.Expression) branch.getThenStatements().get(0)).getExpression();
+        Assertions.assertThrows(IllegalStateException.class, print::getFunction);
+        //an image of another version isn't loaded
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[7]++;
+        Files.write(file, bytes);
+        Assertions.assertThrows(IOException.class, () -> AstImage.load(file));
+    }
+
+    //folds products of integer literals, for a tree analyzed in place if the
+    //analysis is null
+    private static Transformer fold(Analysis analysis) {
+        return new Transformer(analysis) {
+
+            @Override
+            public Ast visit(Ast.Expr.Binary ast) {
+                if (ast.getOperator().equals("*") && ast.getLeft() instanceof Ast.Expr.Literal && ast.getRight() instanceof Ast.Expr.Literal) {
+                    BigInteger left = (BigInteger) ((Ast.Expr.Literal) ast.getLeft()).getLiteral();
+                    Ast.Expr.Literal product = new Ast.Expr.Literal(left.multiply((BigInteger) ((Ast.Expr.Literal) ast.getRight()).getLiteral()));
+                    if (analysis != null) {
+                        analysis.setType(product, analysis.getType(ast));
+                    } else {
+                        product.setType(ast.getType());
+                    }
+                    return product;
+                }
+                return ast;
+            }
+
+        };
+    }
+
+    //drops the literal from x AND TRUE and x OR FALSE
+    private static Transformer simplify(Analysis analysis) {
+        return new Transformer(analysis) {
+
+            @Override
+            public Ast visit(Ast.Expr.Binary ast) {
+                Object identity = ast.getOperator().equals("AND") ? Boolean.TRUE : ast.getOperator().equals("OR") ? Boolean.FALSE : null;
+                if (identity != null && ast.getRight() instanceof Ast.Expr.Literal && identity.equals(((Ast.Expr.Literal) ast.getRight()).getLiteral())) {
+                    return ast.getLeft();
+                }
+                return ast;
+            }
+
+        };
+    }
+
+    @Test
+    void testPassManager() {
+        Ast.Source ast = new Parser(new Lexer(PROGRAM).lex()).parseSource();
+        Analyzer analyzer = new Analyzer(new Scope(null));
+        ast.getMethods().forEach(analyzer::visit);
+        PassManager manager = new PassManager(10).add("fold", fold(null)).add("simplify", simplify(null));
+        Ast.Source result = manager.run(ast);
+        Assertions.assertEquals(new Ast.Stmt.Return(init(new Ast.Expr.Literal(BigInteger.valueOf(9)), nine -> nine.setType(Environment.Type.INTEGER))), result.getMethods().get(0).getStatements().get(0));
+        Assertions.assertEquals("\n    int square() {\n        return 9;\n    }", generate(result.getMethods().get(0), null));
+        //only the spine down to what changed is copied, keeping its analysis
+        Ast.Method main = ast.getMethods().get(1);
+        Ast.Method rewritten = result.getMethods().get(1);
+        Assertions.assertNotSame(main, rewritten);
+        Assertions.assertSame(main.getFunction(), rewritten.getFunction());
+        Assertions.assertSame(main.getStatements().get(1), rewritten.getStatements().get(1));
+        Ast.Stmt.While loop = (Ast.Stmt.While) rewritten.getStatements().get(3);
+        Assertions.assertSame(((Ast.Stmt.While) main.getStatements().get(3)).getStatements().get(0), loop.getStatements().get(0));
+        Assertions.assertSame(((Ast.Expr.Binary) ((Ast.Stmt.While) main.getStatements().get(3)).getCondition()).getLeft(), loop.getCondition());
+        Assertions.assertSame(Environment.Type.BOOLEAN, loop.getCondition().getType());
+        //both passes change the tree in the first round, and nothing in the second
+        List<PassManager.Statistics> statistics = manager.getStatistics();
+        Assertions.assertEquals(Arrays.asList("fold", "simplify"), Arrays.asList(statistics.get(0).getName(), statistics.get(1).getName()));
+        Assertions.assertEquals(Arrays.asList(2, 1, -2), Arrays.asList(statistics.get(0).getRuns(), statistics.get(0).getChanges(), statistics.get(0).getNodeDelta()));
+        Assertions.assertEquals(Arrays.asList(2, 1, -4), Arrays.asList(statistics.get(1).getRuns(), statistics.get(1).getChanges(), statistics.get(1).getNodeDelta()));
+        //a tree with nothing left to do is returned as is
+        Assertions.assertSame(result, manager.run(result));
+        manager.configure("fold, -simplify");
+        Assertions.assertFalse(manager.isEnabled("simplify"));
+        Ast.Source folded = manager.run(ast);
+        Assertions.assertEquals(result.getMethods().get(0), folded.getMethods().get(0));
+        Assertions.assertSame(main.getStatements().get(3), folded.getMethods().get(1).getStatements().get(3));
+        Assertions.assertEquals(3, manager.getStatistics().get(1).getRuns());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> manager.configure("inline"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> manager.add("fold", fold(null)));
+    }
+
+    @Test
+    void testPassManagerAnalysis() {
+        Ast.Source ast = new Parser(new Lexer(PROGRAM).lex()).parseSource();
+        Analysis analysis = new Analysis();
+        Analyzer analyzer = new Analyzer(new Scope(null), analysis);
+        ast.getMethods().forEach(analyzer::visit);
+        Ast.Source result = new PassManager(10).add("fold", fold(analysis)).add("simplify", simplify(analysis)).run(ast);
+        //the copies of the spine are in the analysis, and the nodes are left alone
+        Ast.Method square = result.getMethods().get(0);
+        Assertions.assertNotSame(ast.getMethods().get(0), square);
+        Assertions.assertSame(analysis.getFunction(ast.getMethods().get(0)), analysis.getFunction(square));
+        Assertions.assertThrows(IllegalStateException.class, square::getFunction);
+        Assertions.assertEquals("\n    int square() {\n        return 9;\n    }", generate(square, analysis));
+        Ast.Stmt.While loop = (Ast.Stmt.While) result.getMethods().get(1).getStatements().get(3);
+        Assertions.assertSame(Environment.Type.BOOLEAN, analysis.getType(loop.getCondition()));
+        Assertions.assertEquals(generate(ast.getMethods().get(1).getStatements().get(3), analysis).replace(" && true", ""), generate(loop, analysis));
+    }
+
     /**
      * Helper function for tests. If {@param expected} is {@code null}, analysis
      * is expected to throw a {@link RuntimeException}.
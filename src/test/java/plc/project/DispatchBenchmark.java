@@ -0,0 +1,215 @@
+package plc.project;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Measures the cost per node of visiting a generated program with each
+ * visitor, run as a plain program rather than a test:
+ *
+ * <pre>java -cp &lt;main and test classes&gt; plc.project.DispatchBenchmark</pre>
+ *
+ * A visitor that only counts nodes shows the cost of dispatch itself, once
+ * through {@link Ast#accept} and once through the chain of {@code instanceof}
+ * checks {@link Ast.Visitor#visit(Ast)} used before. Each time is the best of
+ * several runs, so the JIT has warmed up and noise is filtered out.
+ */
+public final class DispatchBenchmark {
+
+    private interface Task {
+
+        void run();
+
+    }
+
+    public static void main(String[] args) {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 4000; i++) {
+            source.append("DEF m").append(i).append("(): Integer DO\n")
+                    .append("    LET y: Integer = 3 * ").append(i).append(";\n")
+                    .append("    LET ok: Boolean = TRUE;\n")
+                    .append("    WHILE ok AND TRUE DO y = y * 2 - m").append(i).append("(); ok = FALSE; END\n")
+                    .append("    RETURN y;\n")
+                    .append("END\n");
+        }
+        Ast.Source ast = new Parser(new Lexer(source.toString()).lex()).parseSource();
+        //the Interpreter runs straight-line code, as a loop would measure the loop
+        StringBuilder body = new StringBuilder("DEF main(): Integer DO\n    LET s = 1;\n");
+        for (int i = 0; i < 5000; i++) {
+            body.append("    s = s * 1 - 0;\n");
+        }
+        Ast.Source program = new Parser(new Lexer(body.append("    RETURN s;\nEND\n").toString()).lex()).parseSource();
+
+        Count count = new Count();
+        Count chain = new InstanceofCount();
+        int nodes = count.visit(ast);
+        report("count (accept)", nodes, best(50, () -> count.visit(ast)));
+        report("count (instanceof)", nodes, best(50, () -> chain.visit(ast)));
+        report("analyzer", nodes, best(5, () -> {
+            Analyzer analyzer = new Analyzer(new Scope(null));
+            ast.getMethods().forEach(analyzer::visit);
+        }));
+        PrintWriter writer = new PrintWriter(Writer.nullWriter());
+        report("generator", nodes, best(5, () -> {
+            Generator generator = new Generator(writer);
+            ast.getMethods().forEach(generator::visit);
+        }));
+        report("interpreter", count.visit(program), best(20, () -> new Interpreter(new Scope(null)).visit(program)));
+    }
+
+    private static long best(int runs, Task task) {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            task.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    private static void report(String visitor, int nodes, long nanos) {
+        System.out.printf("%-20s %8.2f ns/node (%d nodes)%n", visitor, (double) nanos / nodes, nodes);
+    }
+
+    /**
+     * Counts the nodes of a tree, doing next to nothing besides dispatch.
+     */
+    private static class Count implements Ast.Visitor<Integer> {
+
+        @Override
+        public Integer visit(Ast.Source ast) {
+            return 1 + all(ast.getFields()) + all(ast.getMethods());
+        }
+
+        @Override
+        public Integer visit(Ast.Field ast) {
+            return 1 + optional(ast.getValue());
+        }
+
+        @Override
+        public Integer visit(Ast.Method ast) {
+            return 1 + all(ast.getStatements());
+        }
+
+        @Override
+        public Integer visit(Ast.Stmt.Expression ast) {
+            return 1 + visit(ast.getExpression());
+        }
+
+        @Override
+        public Integer visit(Ast.Stmt.Declaration ast) {
+            return 1 + optional(ast.getValue());
+        }
+
+        @Override
+        public Integer visit(Ast.Stmt.Assignment ast) {
+            return 1 + visit(ast.getReceiver()) + visit(ast.getValue());
+        }
+
+        @Override
+        public Integer visit(Ast.Stmt.If ast) {
+            return 1 + visit(ast.getCondition()) + all(ast.getThenStatements()) + all(ast.getElseStatements());
+        }
+
+        @Override
+        public Integer visit(Ast.Stmt.For ast) {
+            return 1 + visit(ast.getValue()) + all(ast.getStatements());
+        }
+
+        @Override
+        public Integer visit(Ast.Stmt.While ast) {
+            return 1 + visit(ast.getCondition()) + all(ast.getStatements());
+        }
+
+        @Override
+        public Integer visit(Ast.Stmt.Return ast) {
+            return 1 + visit(ast.getValue());
+        }
+
+        @Override
+        public Integer visit(Ast.Expr.Literal ast) {
+            return 1;
+        }
+
+        @Override
+        public Integer visit(Ast.Expr.Group ast) {
+            return 1 + visit(ast.getExpression());
+        }
+
+        @Override
+        public Integer visit(Ast.Expr.Binary ast) {
+            return 1 + visit(ast.getLeft()) + visit(ast.getRight());
+        }
+
+        @Override
+        public Integer visit(Ast.Expr.Access ast) {
+            return 1 + optional(ast.getReceiver());
+        }
+
+        @Override
+        public Integer visit(Ast.Expr.Function ast) {
+            return 1 + optional(ast.getReceiver()) + all(ast.getArguments());
+        }
+
+        private int all(List<? extends Ast> asts) {
+            int count = 0;
+            for (Ast ast : asts) {
+                count += visit(ast);
+            }
+            return count;
+        }
+
+        private int optional(Optional<? extends Ast> ast) {
+            return ast.isPresent() ? visit(ast.get()) : 0;
+        }
+
+    }
+
+    /**
+     * Dispatches as {@link Ast.Visitor#visit(Ast)} did before {@link
+     * Ast#accept}, for comparison.
+     */
+    private static final class InstanceofCount extends Count {
+
+        @Override
+        public Integer visit(Ast ast) {
+            if (ast instanceof Ast.Source) {
+                return visit((Ast.Source) ast);
+            } else if (ast instanceof Ast.Field) {
+                return visit((Ast.Field) ast);
+            } else if (ast instanceof Ast.Method) {
+                return visit((Ast.Method) ast);
+            } else if (ast instanceof Ast.Stmt.Expression) {
+                return visit((Ast.Stmt.Expression) ast);
+            } else if (ast instanceof Ast.Stmt.Declaration) {
+                return visit((Ast.Stmt.Declaration) ast);
+            } else if (ast instanceof Ast.Stmt.Assignment) {
+                return visit((Ast.Stmt.Assignment) ast);
+            } else if (ast instanceof Ast.Stmt.If) {
+                return visit((Ast.Stmt.If) ast);
+            } else if (ast instanceof Ast.Stmt.For) {
+                return visit((Ast.Stmt.For) ast);
+            } else if (ast instanceof Ast.Stmt.While) {
+                return visit((Ast.Stmt.While) ast);
+            } else if (ast instanceof Ast.Stmt.Return) {
+                return visit((Ast.Stmt.Return) ast);
+            } else if (ast instanceof Ast.Expr.Literal) {
+                return visit((Ast.Expr.Literal) ast);
+            } else if (ast instanceof Ast.Expr.Group) {
+                return visit((Ast.Expr.Group) ast);
+            } else if (ast instanceof Ast.Expr.Binary) {
+                return visit((Ast.Expr.Binary) ast);
+            } else if (ast instanceof Ast.Expr.Access) {
+                return visit((Ast.Expr.Access) ast);
+            } else if (ast instanceof Ast.Expr.Function) {
+                return visit((Ast.Expr.Function) ast);
+            } else {
+                throw new AssertionError("Unimplemented AST type: " + ast.getClass().getName() + ".");
+            }
+        }
+
+    }
+
+}
@@ -6,8 +6,16 @@ import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Stream;
 
 public class LexerTests {
@@ -138,6 +146,207 @@ public class LexerTests {
         );
     }
 
+    @ParameterizedTest
+    @MethodSource("testExamples")
+    void testReader(String test, String input, List<Token> expected) {
+        //a tiny buffer makes the stream slide and grow inside of tokens
+        Lexer lexer = new Lexer(new Lexer.CharStream(new StringReader(input), 2));
+        List<Token> tokens = new ArrayList<>();
+        lexer.iterator().forEachRemaining(tokens::add);
+        Assertions.assertEquals(expected, tokens);
+    }
+
+    @ParameterizedTest
+    @MethodSource("testExamples")
+    void testByteSource(String test, String input, List<Token> expected) {
+        ByteSource source = new ByteSource(ByteBuffer.wrap(input.getBytes(StandardCharsets.UTF_8)));
+        Assertions.assertEquals(expected, new Lexer(source).lex());
+    }
+
+    @ParameterizedTest
+    @MethodSource("testExamples")
+    void testBuffer(String test, String input, List<Token> expected) {
+        Assertions.assertEquals(expected, new Lexer(input).lexBuffer().asList());
+    }
+
+    @ParameterizedTest
+    @MethodSource("testExamples")
+    void testDfa(String test, String input, List<Token> expected) {
+        Assertions.assertEquals(expected, new DfaLexer(input).lex());
+        Assertions.assertEquals(expected, new DfaLexer(input).lexBuffer().asList());
+    }
+
+    @ParameterizedTest
+    @MethodSource("testExamples")
+    void testUtf8(String test, String input, List<Token> expected) {
+        byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+        Assertions.assertEquals(expected, new Utf8Lexer(bytes).lex());
+        Assertions.assertEquals(expected, new Utf8Lexer(bytes).lexBuffer().asList());
+    }
+
+    @Test
+    void testUtf8Bulk() {
+        //runs longer than a word, ending at every offset within one
+        StringBuilder input = new StringBuilder();
+        for(int i = 0; i < 20; i++) {
+            input.append("abcdefghij-_0123456789".substring(i)).append(" ".repeat(i)).append('\n');
+            input.append('"').append("x".repeat(i)).append("\\t").append("y".repeat(i)).append("\" ");
+            input.append('"').append("z".repeat(i)).append('\u00E9').append("\";");
+        }
+        byte[] bytes = input.toString().getBytes(StandardCharsets.UTF_8);
+        List<Token> expected = new Lexer(input).lex();
+        Assertions.assertEquals(expected, new Utf8Lexer(bytes).lex());
+        Assertions.assertEquals(expected, new Utf8Lexer(bytes).withBulkScanning(false).lex());
+        Assertions.assertEquals(expected, new Utf8Lexer(bytes).lexBuffer().asList());
+    }
+
+    @Test
+    void testUtf8NonAscii() {
+        //indices are in chars, so the pair in the string counts as two
+        String input = "x = \"\u00E9\uD83D\uDE00\"; '\u00F1' \u00A7";
+        List<Token> expected = new Lexer(input).lex();
+        Assertions.assertEquals(expected, new Utf8Lexer(input.getBytes(StandardCharsets.UTF_8)).lex());
+        Assertions.assertEquals(11, expected.get(4).getIndex());
+        ParseException exception = Assertions.assertThrows(ParseException.class,
+                () -> new Utf8Lexer("\"\uD83D\uDE00\\q\"".getBytes(StandardCharsets.UTF_8)).lex());
+        Assertions.assertEquals(4, exception.getIndex());
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testRelex(String test, String input, int offset, int removed, String inserted) {
+        String edited = input.substring(0, offset) + inserted + input.substring(offset + removed);
+        TokenBuffer tokens = Lexer.relex(new Lexer(input).lexBuffer(), offset, removed, inserted);
+        Assertions.assertEquals(new Lexer(edited).lex(), tokens.asList());
+    }
+
+    private static Stream<Arguments> testRelex() {
+        return Stream.of(
+                Arguments.of("Rename", "LET x = 5; LET y = x;", 4, 1, "name"),
+                Arguments.of("Join Tokens", "x = 1 .5;", 5, 1, ""),
+                Arguments.of("Split Token", "LET xy = 5;", 5, 0, " "),
+                Arguments.of("Sign", "+ 5", 1, 1, ""),
+                Arguments.of("Merge Strings", "x = \"a\" + \"b\";", 6, 5, ""),
+                Arguments.of("Append", "x = 1", 5, 0, ".5;")
+        );
+    }
+
+    @Test
+    void testRelexSequence() {
+        //edits in one place then another move the gaps of the tokens and the
+        //source both ways, and the edits which don't lex are undone
+        String[] fragments = {"x", " ", "1", ".5", "\"s\"", "'c'", ";", "\n", "LET ", "= ", "\"", "+"};
+        StringBuilder expected = new StringBuilder("LET x = 1;\nLET y = \"a\";\n");
+        TokenBuffer tokens = new Lexer(expected).lexBuffer();
+        Random random = new Random(5);
+        for (int i = 0; i < 2000; i++) {
+            int offset = random.nextInt(expected.length() + 1);
+            int removed = random.nextInt(Math.min(3, expected.length() - offset) + 1);
+            String inserted = fragments[random.nextInt(fragments.length)];
+            String edited = new StringBuilder(expected).replace(offset, offset + removed, inserted).toString();
+            try {
+                List<Token> lexed = new Lexer(edited).lex();
+                Lexer.relex(tokens, offset, removed, inserted);
+                Assertions.assertEquals(lexed, tokens.asList(), edited);
+                expected.replace(offset, offset + removed, inserted);
+            } catch (ParseException e) {
+                Assertions.assertThrows(ParseException.class, () -> Lexer.relex(tokens, offset, removed, inserted));
+            }
+            Assertions.assertEquals(expected.toString(), tokens.getSource().toString());
+        }
+    }
+
+    @Test
+    void testParallel() {
+        //strings spanning lines make some of the speculative chunks wrong
+        StringBuilder input = new StringBuilder();
+        for(int i = 0; i < 20000; i++) {
+            input.append("LET x").append(i).append(" = \"multi\n;line\\\"\n\";\n");
+            input.append("x = 1.5 + 'c';\n");
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Assertions.assertEquals(new Lexer(input).lex(), Lexer.lexParallel(input.toString(), pool).asList());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void testByteSourceUtf8() {
+        String input = "x = \"caf\u00e9 \ud83d\ude00\"; y = '\u00e9';";
+        ByteSource source = new ByteSource(ByteBuffer.wrap(input.getBytes(StandardCharsets.UTF_8)));
+        Assertions.assertEquals(new Lexer(input).lex(), new Lexer(source).lex());
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testValue(String test, String input, Object expected) {
+        Token token = new Lexer(input).lexToken();
+        Assertions.assertEquals(expected, token.getValue());
+        //tokens from a buffer or made by hand decode their literal instead
+        Assertions.assertEquals(expected, new Lexer(input).lexBuffer().getValue(0));
+        Assertions.assertEquals(expected, new Token(token.getType(), token.getLiteral(), 0).getValue());
+    }
+
+    private static Stream<Arguments> testValue() {
+        return Stream.of(
+                Arguments.of("Character", "'c'", 'c'),
+                Arguments.of("Character Escape", "'\\n'", '\n'),
+                Arguments.of("String", "\"abc\"", "abc"),
+                Arguments.of("String Escapes", "\"a\\tb\\\"c\\'\"", "a\tb\"c'"),
+                Arguments.of("Escaped Backslash", "\"\\\\n\"", "\\n"),
+                Arguments.of("Integer", "-123", BigInteger.valueOf(-123)),
+                Arguments.of("Decimal Scale", "1.50", new BigDecimal("1.50")),
+                Arguments.of("Integer Overflow", "123456789012345678901234567890", new BigInteger("123456789012345678901234567890")),
+                Arguments.of("Decimal Overflow", "-98765432109876543210.5", new BigDecimal("-98765432109876543210.5")),
+                Arguments.of("Trailing Period", "1.25.", "1.25."),
+                Arguments.of("Identifier", "abc", "abc")
+        );
+    }
+
+    @Test
+    void testSymbols() {
+        String input = "LET name = name; DEF LETTER";
+        for(List<Token> tokens : Arrays.asList(new Lexer(input).lex(), new Lexer(new StringReader(input)).lex())) {
+            Assertions.assertEquals(Token.Keyword.LET, tokens.get(0).getKeyword());
+            Assertions.assertSame(tokens.get(1).getLiteral(), tokens.get(3).getLiteral());
+            Assertions.assertNull(tokens.get(1).getKeyword());
+            Assertions.assertEquals(Token.Keyword.DEF, tokens.get(5).getKeyword());
+            Assertions.assertNull(tokens.get(6).getKeyword());
+        }
+        TokenBuffer buffer = new Lexer(input).lexBuffer();
+        Assertions.assertEquals(Token.Keyword.LET, buffer.getKeyword(0));
+        Assertions.assertEquals(Token.Type.IDENTIFIER, buffer.getType(0));
+        Assertions.assertNull(buffer.getKeyword(6));
+        //tokens made by hand are classified from their literal
+        Assertions.assertEquals(Token.Keyword.END, new Token(Token.Type.IDENTIFIER, "END", 0).getKeyword());
+        Assertions.assertNull(new Token(Token.Type.STRING, "\"END\"", 0).getKeyword());
+    }
+
+    @Test
+    void testLines() {
+        String input = "LET x = 1;\r\n  y\r\rz\n\n  w";
+        int[][] expected = {{1, 1}, {1, 5}, {1, 7}, {1, 9}, {1, 10}, {2, 3}, {4, 1}, {6, 3}};
+        //a reader with a tiny buffer records the line starts as it goes
+        List<List<Token>> lexed = Arrays.asList(
+                new Lexer(input).lex(),
+                new Lexer(new Lexer.CharStream(new StringReader(input), 2)).lex(),
+                new Lexer(input).lexBuffer().asList()
+        );
+        for(List<Token> tokens : lexed) {
+            for(int i = 0; i < expected.length; i++) {
+                Assertions.assertEquals(expected[i][0], tokens.get(i).getLine(), tokens.get(i).toString());
+                Assertions.assertEquals(expected[i][1], tokens.get(i).getColumn(), tokens.get(i).toString());
+            }
+        }
+        ParseException exception = Assertions.assertThrows(ParseException.class,
+                () -> new Lexer("x = 1;\ny = \"\\q\";").lex());
+        Assertions.assertEquals(2, exception.getLine());
+        Assertions.assertEquals(7, exception.getColumn());
+        Assertions.assertEquals(-1, new Token(Token.Type.IDENTIFIER, "x", 0).getLine());
+    }
+
     @Test
     void testException() {
         /*ParseException exception = Assertions.assertThrows(ParseException.class,
@@ -164,6 +373,7 @@ public class LexerTests {
      * single token with the expected type and literal matching the input.
      */
     private static void test(String input, Token.Type expected, boolean success) {
+        testDfa(input);
         try {
             if (success) {
                 Assertions.assertEquals(new Token(expected, input, 0), new Lexer(input).lexToken());
@@ -180,6 +390,7 @@ public class LexerTests {
      * expected token list.
      */
     private static void test(String input, List<Token> expected, boolean success) {
+        testDfa(input);
         try {
             if (success) {
                 Assertions.assertEquals(expected, new Lexer(input).lex());
@@ -191,4 +402,19 @@ public class LexerTests {
         }
     }
 
+    /**
+     * Tests that {@link DfaLexer} agrees with {@link Lexer} on the input, both
+     * on the tokens and on whether it is an error.
+     */
+    private static void testDfa(String input) {
+        List<Token> expected;
+        try {
+            expected = new Lexer(input).lex();
+        } catch (ParseException e) {
+            Assertions.assertThrows(ParseException.class, () -> new DfaLexer(input).lex());
+            return;
+        }
+        Assertions.assertEquals(expected, new DfaLexer(input).lex());
+    }
+
 }
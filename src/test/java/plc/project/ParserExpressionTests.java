@@ -189,6 +189,60 @@ final class ParserExpressionTests {
                                 new Ast.Expr.Access(Optional.empty(), "expr1"),
                                 new Ast.Expr.Access(Optional.empty(), "expr2")
                         )
+                ),
+                Arguments.of("Binary Precedence",
+                        Arrays.asList(
+                                //a OR b <= c + d * e
+                                new Token(Token.Type.IDENTIFIER, "a", 0),
+                                new Token(Token.Type.IDENTIFIER, "OR", 2),
+                                new Token(Token.Type.IDENTIFIER, "b", 5),
+                                new Token(Token.Type.OPERATOR, "<=", 7),
+                                new Token(Token.Type.IDENTIFIER, "c", 10),
+                                new Token(Token.Type.OPERATOR, "+", 12),
+                                new Token(Token.Type.IDENTIFIER, "d", 14),
+                                new Token(Token.Type.OPERATOR, "*", 16),
+                                new Token(Token.Type.IDENTIFIER, "e", 18)
+                        ),
+                        new Ast.Expr.Binary("OR",
+                                new Ast.Expr.Access(Optional.empty(), "a"),
+                                new Ast.Expr.Binary("<=",
+                                        new Ast.Expr.Access(Optional.empty(), "b"),
+                                        new Ast.Expr.Binary("+",
+                                                new Ast.Expr.Access(Optional.empty(), "c"),
+                                                new Ast.Expr.Binary("*",
+                                                        new Ast.Expr.Access(Optional.empty(), "d"),
+                                                        new Ast.Expr.Access(Optional.empty(), "e")
+                                                )
+                                        )
+                                )
+                        )
+                ),
+                Arguments.of("Binary Left Associative",
+                        Arrays.asList(
+                                //a * b - c / d - e
+                                new Token(Token.Type.IDENTIFIER, "a", 0),
+                                new Token(Token.Type.OPERATOR, "*", 2),
+                                new Token(Token.Type.IDENTIFIER, "b", 4),
+                                new Token(Token.Type.OPERATOR, "-", 6),
+                                new Token(Token.Type.IDENTIFIER, "c", 8),
+                                new Token(Token.Type.OPERATOR, "/", 10),
+                                new Token(Token.Type.IDENTIFIER, "d", 12),
+                                new Token(Token.Type.OPERATOR, "-", 14),
+                                new Token(Token.Type.IDENTIFIER, "e", 16)
+                        ),
+                        new Ast.Expr.Binary("-",
+                                new Ast.Expr.Binary("-",
+                                        new Ast.Expr.Binary("*",
+                                                new Ast.Expr.Access(Optional.empty(), "a"),
+                                                new Ast.Expr.Access(Optional.empty(), "b")
+                                        ),
+                                        new Ast.Expr.Binary("/",
+                                                new Ast.Expr.Access(Optional.empty(), "c"),
+                                                new Ast.Expr.Access(Optional.empty(), "d")
+                                        )
+                                ),
+                                new Ast.Expr.Access(Optional.empty(), "e")
+                        )
                 )
         );
     }
@@ -272,11 +326,14 @@ final class ParserExpressionTests {
      * to be thrown (not used in the provided tests).
      */
     private static <T extends Ast> void test(List<Token> tokens, T expected, Function<Parser, T> function) {
-        Parser parser = new Parser(tokens);
-        if (expected != null) {
-            Assertions.assertEquals(expected, function.apply(parser));
-        } else {
-            Assertions.assertThrows(ParseException.class, () -> function.apply(parser));
+        //with and without the explicit stack, which has to give the same trees
+        for (boolean explicitStack : new boolean[] {false, true}) {
+            Parser parser = new Parser(tokens).withExplicitStack(explicitStack);
+            if (expected != null) {
+                Assertions.assertEquals(expected, function.apply(parser));
+            } else {
+                Assertions.assertThrows(ParseException.class, () -> function.apply(parser));
+            }
         }
     }
 
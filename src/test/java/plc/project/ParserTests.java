@@ -2,15 +2,26 @@ package plc.project;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
 
+import java.io.IOException;
+import java.io.StringReader;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Function;
 import java.util.stream.Stream;
 
@@ -142,6 +153,63 @@ final class ParserTests {
                                 new Token(Token.Type.OPERATOR, ";", 42)
                         ),
                         null
+                ),
+                Arguments.of("Method Method",
+                        Arrays.asList(
+                                //DEF first() DO IF x DO stmt; END END
+                                //DEF second() DO stmt; END
+                                new Token(Token.Type.IDENTIFIER, "DEF", 0),
+                                new Token(Token.Type.IDENTIFIER, "first", 4),
+                                new Token(Token.Type.OPERATOR, "(", 9),
+                                new Token(Token.Type.OPERATOR, ")", 10),
+                                new Token(Token.Type.IDENTIFIER, "DO", 12),
+                                new Token(Token.Type.IDENTIFIER, "IF", 15),
+                                new Token(Token.Type.IDENTIFIER, "x", 18),
+                                new Token(Token.Type.IDENTIFIER, "DO", 20),
+                                new Token(Token.Type.IDENTIFIER, "stmt", 23),
+                                new Token(Token.Type.OPERATOR, ";", 27),
+                                new Token(Token.Type.IDENTIFIER, "END", 29),
+                                new Token(Token.Type.IDENTIFIER, "END", 33),
+
+                                new Token(Token.Type.IDENTIFIER, "DEF", 38),
+                                new Token(Token.Type.IDENTIFIER, "second", 42),
+                                new Token(Token.Type.OPERATOR, "(", 48),
+                                new Token(Token.Type.OPERATOR, ")", 49),
+                                new Token(Token.Type.IDENTIFIER, "DO", 51),
+                                new Token(Token.Type.IDENTIFIER, "stmt", 54),
+                                new Token(Token.Type.OPERATOR, ";", 58),
+                                new Token(Token.Type.IDENTIFIER, "END", 60)
+                        ),
+                        new Ast.Source(
+                                Arrays.asList(),
+                                Arrays.asList(
+                                        new Ast.Method("first", Arrays.asList(), Arrays.asList(
+                                                new Ast.Stmt.If(
+                                                        new Ast.Expr.Access(Optional.empty(), "x"),
+                                                        Arrays.asList(new Ast.Stmt.Expression(new Ast.Expr.Access(Optional.empty(), "stmt"))),
+                                                        Arrays.asList()
+                                                )
+                                        )),
+                                        new Ast.Method("second", Arrays.asList(), Arrays.asList(
+                                                new Ast.Stmt.Expression(new Ast.Expr.Access(Optional.empty(), "stmt"))
+                                        ))
+                                )
+                        )
+                ),
+                Arguments.of("Missing Method Name",
+                        Arrays.asList(
+                                //DEF m() DO x; END DEF
+                                new Token(Token.Type.IDENTIFIER, "DEF", 0),
+                                new Token(Token.Type.IDENTIFIER, "m", 4),
+                                new Token(Token.Type.OPERATOR, "(", 5),
+                                new Token(Token.Type.OPERATOR, ")", 6),
+                                new Token(Token.Type.IDENTIFIER, "DO", 8),
+                                new Token(Token.Type.IDENTIFIER, "x", 11),
+                                new Token(Token.Type.OPERATOR, ";", 12),
+                                new Token(Token.Type.IDENTIFIER, "END", 14),
+                                new Token(Token.Type.IDENTIFIER, "DEF", 18)
+                        ),
+                        null
                 )
         );
     }
@@ -796,12 +864,463 @@ final class ParserTests {
         test(input, expected, Parser::parseSource);
     }
 
+    @Test
+    void testLexedExample() {
+        String input = "LET first: Integer = 1;\n" +
+                "DEF main(): Integer DO\n" +
+                "    WHILE first != 10 DO\n" +
+                "        print(first);\n" +
+                "        first = first + 1;\n" +
+                "    END\n" +
+                "END";
+        Ast.Source expected = new Parser(new Lexer(input).lex()).parseSource();
+        Parser parser = new Parser(new Lexer(new Lexer.CharStream(new StringReader(input), 4)).iterator());
+        Assertions.assertEquals(expected, parser.parseSource());
+        Assertions.assertEquals(expected, new Parser(new Lexer(input).lexBuffer()).parseSource());
+    }
+
+    @Test
+    void testErrorPosition() {
+        String input = "LET x: Integer = 1;\nLET y: Integer = (1 + 2;\n";
+        List<Parser> parsers = Arrays.asList(
+                new Parser(new Lexer(input).lex()),
+                new Parser(new Lexer(new StringReader(input)).iterator()),
+                new Parser(new Lexer(input).lexBuffer())
+        );
+        for(Parser parser : parsers) {
+            ParseException exception = Assertions.assertThrows(ParseException.class, parser::parseSource);
+            Assertions.assertEquals(43, exception.getIndex());
+            Assertions.assertEquals(2, exception.getLine());
+            Assertions.assertEquals(24, exception.getColumn());
+        }
+    }
+
+    @Test
+    void testCache(@TempDir Path directory) throws IOException {
+        String input = "LET x: Integer = 1;\nLET s: String = \"a\\tb\";\n"
+                + "DEF main(): Integer DO\n    IF x < 2.50 DO print(s, 'c', NIL); ELSE x = x - 1; END\n"
+                + "    WHILE TRUE DO obj.method(x); RETURN x; END\n    FOR i IN list DO LET y = (x + 1) * 2; END\nEND";
+        Ast.Source expected = new Parser(new Lexer(input).lex()).parseSource();
+        ProgramCache cache = new ProgramCache(directory, 1 << 20);
+        Assertions.assertEquals(expected, cache.parse(input));
+        Assertions.assertEquals(1, cache.getMisses());
+        //a second cache over the directory, as if in another run
+        ProgramCache reopened = new ProgramCache(directory, 1 << 20);
+        Assertions.assertEquals(expected, reopened.parse(input));
+        Assertions.assertEquals(new Lexer(input).lex(), reopened.lex(input).asList());
+        Assertions.assertEquals(2, reopened.getHits());
+        Assertions.assertEquals(0, reopened.getMisses());
+        //programs that don't parse are cached for their tokens
+        Assertions.assertThrows(ParseException.class, () -> reopened.parse("LET x = ;"));
+        Assertions.assertThrows(ParseException.class, () -> reopened.parse("LET x = ;"));
+        Assertions.assertEquals(3, reopened.getHits());
+    }
+
+    @Test
+    void testCacheCorruption(@TempDir Path directory) throws IOException {
+        String input = "LET x: Integer = 1;\nDEF main(): Integer DO\n    WHILE x < 2.50 DO print(\"a\", 'c'); END\nEND";
+        Ast.Source expected = new Parser(new Lexer(input).lex()).parseSource();
+        ProgramCache cache = new ProgramCache(directory, 1 << 20);
+        cache.parse(input);
+        Path file;
+        try (Stream<Path> files = Files.list(directory)) {
+            file = files.findFirst().get();
+        }
+        byte[] entry = Files.readAllBytes(file);
+        //any changed byte is a miss, which parses the source again
+        for (int i = 0; i < entry.length; i++) {
+            byte[] corrupted = entry.clone();
+            corrupted[i] ^= 0x10;
+            Files.write(file, corrupted);
+            Assertions.assertEquals(expected, cache.parse(input), "byte " + i);
+        }
+        Assertions.assertEquals(entry.length + 1, cache.getMisses());
+        Assertions.assertEquals(0, cache.getHits());
+        //a number without bytes is malformed, rather than a NumberFormatException
+        byte[] ast = AstCodec.encode(new Parser(new Lexer("LET x: Integer = 1;").lex()).parseSource());
+        Assertions.assertEquals(1, ast[ast.length - 2]);
+        ast[ast.length - 2] = 0;
+        Assertions.assertThrows(IOException.class, () -> AstCodec.decode(ByteBuffer.wrap(ast)));
+    }
+
+    @Test
+    void testCacheEviction(@TempDir Path directory) throws IOException {
+        //an entry another process is writing, and files which aren't entries
+        Path temporary = Files.write(directory.resolve("0123.plcc1234.tmp"), new byte[1000]);
+        Path other = Files.write(directory.resolve("notes.txt"), new byte[1000]);
+        Files.createDirectory(directory.resolve("sub.plcc"));
+        ProgramCache cache = new ProgramCache(directory, 400);
+        Assertions.assertEquals(0, cache.getSize());
+        for(int i = 0; i < 20; i++) {
+            cache.parse("LET x" + i + ": Integer = " + i + ";");
+        }
+        Assertions.assertTrue(cache.getSize() <= 400, String.valueOf(cache.getSize()));
+        Assertions.assertTrue(cache.getEvictions() > 0);
+        //the newest entry is still there
+        cache.parse("LET x19: Integer = 19;");
+        Assertions.assertEquals(1, cache.getHits());
+        Assertions.assertTrue(Files.exists(temporary));
+        Assertions.assertTrue(Files.exists(other));
+        Assertions.assertTrue(Files.isDirectory(directory.resolve("sub.plcc")));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "LET x: Integer = (1 + 2;",
+            "DEF f(): Integer DO IF x DO f(1, ; END END",
+            "DEF f(): Integer DO WHILE a.b(1, 2 DO END END",
+            "DEF f(): Integer DO FOR i IN (x.y.z) DO END END",
+            "DEF f(): Integer DO IF x DO ELSE WHILE y DO RETURN 1 END END END",
+            "DEF f(): Integer DO FOR i list DO END END",
+            "DEF f(): Integer DO x = a.(1); END",
+            "DEF f(): Integer DO x = f(g(1), (2 * 3 - ) ); END",
+    })
+    void testExplicitStackErrors(String input) {
+        ParseException recursive = Assertions.assertThrows(ParseException.class,
+                () -> new Parser(new Lexer(input).lex()).parseSource());
+        ParseException explicit = Assertions.assertThrows(ParseException.class,
+                () -> new Parser(new Lexer(input).lex()).withExplicitStack(true).parseSource());
+        Assertions.assertEquals(recursive.getMessage(), explicit.getMessage());
+        Assertions.assertEquals(recursive.getIndex(), explicit.getIndex());
+    }
+
+    @Test
+    void testParallelMethods() {
+        //methods with nested blocks, an error in the 30th method, and one the
+        //pre-scan gets wrong since END can be a method name
+        StringBuilder input = new StringBuilder("LET x: Integer = 1;\n");
+        for (int i = 0; i < 40; i++) {
+            input.append("DEF m").append(i).append("(a: Integer): Integer DO\n")
+                    .append("    WHILE a < ").append(i).append(" DO IF a == 2 DO a = a + 1; ELSE FOR i IN b DO print(i); END END END\n")
+                    .append("    RETURN ").append(i == 20 ? "obj.END" : "a").append(";\nEND\n");
+        }
+        String valid = input.toString();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Ast.Source expected = new Parser(new Lexer(valid).lex()).parseSource();
+            Assertions.assertEquals(40, expected.getMethods().size());
+            Assertions.assertEquals(expected, new Parser(new Lexer(valid).lex()).withParallelMethods(pool).parseSource());
+            Assertions.assertEquals(expected, new Parser(new Lexer(valid).lexBuffer()).withParallelMethods(pool).parseSource());
+            String invalid = valid.replace("a < 30 DO", "a < 30 + DO");
+            ParseException sequential = Assertions.assertThrows(ParseException.class,
+                    () -> new Parser(new Lexer(invalid).lex()).parseSource());
+            ParseException parallel = Assertions.assertThrows(ParseException.class,
+                    () -> new Parser(new Lexer(invalid).lexBuffer()).withParallelMethods(pool).parseSource());
+            Assertions.assertEquals(sequential.getMessage(), parallel.getMessage());
+            Assertions.assertEquals(sequential.getIndex(), parallel.getIndex());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void testLazyMethods() throws InterruptedException {
+        String input = "DEF main(): Integer DO\n" +
+                "    WHILE x < 10 DO IF obj.END DO x = END; ELSE FOR i IN list DO ; END END END\n" +
+                "    RETURN x;\n" +
+                "END\n" +
+                "DEF broken(): Integer DO\n" +
+                "    IF x DO RETURN 1 + ; END\n" +
+                "END\n";
+        //the broken body isn't parsed until it is used
+        Ast.Source ast = new Parser(new Lexer(input).lexBuffer()).withLazyMethods(true).parseSource();
+        Ast.Method main = ast.getMethods().get(0);
+        Ast.Method broken = ast.getMethods().get(1);
+        Ast.Source eager = new Parser(new Lexer(input.replace("1 + ;", "1;")).lex()).parseSource();
+        ParseException expected = Assertions.assertThrows(ParseException.class,
+                () -> new Parser(new Lexer(input).lex()).parseSource());
+        ParseException exception = Assertions.assertThrows(ParseException.class, broken::getStatements);
+        Assertions.assertEquals(expected.getIndex(), exception.getIndex());
+        //racing threads all get the same statements
+        List<List<Ast.Stmt>> statements = new CopyOnWriteArrayList<>();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> statements.add(main.getStatements()));
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assertions.assertEquals(eager.getMethods().get(0), main);
+        for (List<Ast.Stmt> list : statements) {
+            Assertions.assertSame(main.getStatements(), list);
+        }
+        //hashing doesn't parse bodies, and agrees with an eager parse
+        Ast.Source lazy = new Parser(new Lexer(input).lexBuffer()).withLazyMethods(true).parseSource();
+        Assertions.assertEquals(2, Assertions.assertDoesNotThrow(() -> new HashSet<>(lazy.getMethods())).size());
+        Assertions.assertEquals(eager.getMethods().get(0).hashCode(), lazy.getMethods().get(0).hashCode());
+    }
+
+    @Test
+    void testIncrementalParser() {
+        StringBuilder input = new StringBuilder("LET first: Integer = 1;\nLET second: Integer = 2;\n");
+        for (int i = 0; i < 10; i++) {
+            input.append("DEF m").append(i).append("(): Integer DO\n    RETURN first + ").append(i).append(";\nEND\n");
+        }
+        IncrementalParser parser = Assertions.assertDoesNotThrow(() -> new IncrementalParser(input.toString()));
+        Ast.Source before = parser.getAst();
+        //inside m3, which is the only node parsed again
+        int offset = input.indexOf("first + 3");
+        Ast.Source after = Assertions.assertDoesNotThrow(() -> parser.edit(offset, 5, "second * second"));
+        assertReparsed(parser);
+        for (int i = 0; i < 10; i++) {
+            if (i == 3) {
+                Assertions.assertNotSame(before.getMethods().get(i), after.getMethods().get(i));
+            } else {
+                Assertions.assertSame(before.getMethods().get(i), after.getMethods().get(i));
+            }
+        }
+        Assertions.assertSame(before.getFields().get(0), after.getFields().get(0));
+        Assertions.assertSame(before.getFields().get(1), after.getFields().get(1));
+        //splitting a method in two, then joining m6 and m7 into one
+        Assertions.assertDoesNotThrow(() -> parser.edit(parser.getSource().toString().indexOf("DEF m5"), 0,
+                "DEF extra(): Integer DO RETURN 0; END\n"));
+        assertReparsed(parser);
+        Assertions.assertEquals(11, parser.getAst().getMethods().size());
+        Assertions.assertDoesNotThrow(() -> parser.edit(parser.getSource().toString().indexOf("END\nDEF m7"), 26, ""));
+        assertReparsed(parser);
+        Assertions.assertEquals(10, parser.getAst().getMethods().size());
+        Assertions.assertThrows(ParseException.class, () -> parser.edit(parser.getSource().toString().indexOf("first + 8"), 5, ""));
+        Assertions.assertNull(parser.getAst());
+        //the edit after one that didn't parse parses everything again
+        Assertions.assertDoesNotThrow(() -> parser.edit(parser.getSource().toString().indexOf("+ 8"), 0, "first "));
+        assertReparsed(parser);
+        //turning the second field into a method, which the first method after
+        //it can't be reused for
+        Ast.Source fields = parser.getAst();
+        int field = parser.getSource().toString().indexOf("LET second");
+        Assertions.assertDoesNotThrow(() -> parser.edit(field, 24, "DEF second(): Integer DO RETURN 2; END"));
+        assertReparsed(parser);
+        Assertions.assertEquals(1, parser.getAst().getFields().size());
+        Assertions.assertSame(fields.getMethods().get(9), parser.getAst().getMethods().get(10));
+    }
+
+    @Test
+    void testVisitorDispatch() {
+        Ast.Expr expr = new Ast.Expr.Access(Optional.empty(), "x");
+        List<Ast> nodes = Arrays.asList(
+                new Ast.Source(Arrays.asList(), Arrays.asList()),
+                new Ast.Field("x", Optional.empty()),
+                new Ast.Method("f", Arrays.asList(), Arrays.asList()),
+                new Ast.Stmt.Expression(expr),
+                new Ast.Stmt.Declaration("x", Optional.empty()),
+                new Ast.Stmt.Assignment(expr, expr),
+                new Ast.Stmt.If(expr, Arrays.asList(), Arrays.asList()),
+                new Ast.Stmt.For("x", expr, Arrays.asList()),
+                new Ast.Stmt.While(expr, Arrays.asList()),
+                new Ast.Stmt.Return(expr),
+                new Ast.Expr.Literal(null),
+                new Ast.Expr.Group(expr),
+                new Ast.Expr.Binary("+", expr, expr),
+                expr,
+                new Ast.Expr.Function(Optional.empty(), "f", Arrays.asList())
+        );
+        //each node reaches the method for its own class
+        Ast.Visitor<Class<?>> visitor = new Ast.Visitor<Class<?>>() {
+            public Class<?> visit(Ast.Source ast) { return Ast.Source.class; }
+            public Class<?> visit(Ast.Field ast) { return Ast.Field.class; }
+            public Class<?> visit(Ast.Method ast) { return Ast.Method.class; }
+            public Class<?> visit(Ast.Stmt.Expression ast) { return Ast.Stmt.Expression.class; }
+            public Class<?> visit(Ast.Stmt.Declaration ast) { return Ast.Stmt.Declaration.class; }
+            public Class<?> visit(Ast.Stmt.Assignment ast) { return Ast.Stmt.Assignment.class; }
+            public Class<?> visit(Ast.Stmt.If ast) { return Ast.Stmt.If.class; }
+            public Class<?> visit(Ast.Stmt.For ast) { return Ast.Stmt.For.class; }
+            public Class<?> visit(Ast.Stmt.While ast) { return Ast.Stmt.While.class; }
+            public Class<?> visit(Ast.Stmt.Return ast) { return Ast.Stmt.Return.class; }
+            public Class<?> visit(Ast.Expr.Literal ast) { return Ast.Expr.Literal.class; }
+            public Class<?> visit(Ast.Expr.Group ast) { return Ast.Expr.Group.class; }
+            public Class<?> visit(Ast.Expr.Binary ast) { return Ast.Expr.Binary.class; }
+            public Class<?> visit(Ast.Expr.Access ast) { return Ast.Expr.Access.class; }
+            public Class<?> visit(Ast.Expr.Function ast) { return Ast.Expr.Function.class; }
+        };
+        for (Ast node : nodes) {
+            Assertions.assertEquals(node.getClass(), visitor.visit(node));
+            Assertions.assertEquals(node.getClass(), node.accept(visitor));
+        }
+    }
+
+    @Test
+    void testAstFactory() {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 3; i++) {
+            input.append("DEF m").append(i).append("() DO\n    IF x + 1 > y DO print(x + 1); END\n    RETURN obj.f(x + 1, \"s\");\nEND\n");
+        }
+        Ast.Source ast = Assertions.assertDoesNotThrow(() -> new Parser(new Lexer(input.toString()).lex()).parseSource());
+        AstFactory factory = new AstFactory();
+        Ast.Source consed = factory.intern(ast);
+        Assertions.assertEquals(ast, consed);
+        Assertions.assertEquals(ast.hashCode(), consed.hashCode());
+        //12 nodes in each method body, the three methods and the source
+        Assertions.assertEquals(16, factory.size());
+        //the methods only differ by name, so their statements are shared
+        Assertions.assertSame(consed.getMethods().get(0).getStatements().get(0), consed.getMethods().get(2).getStatements().get(0));
+        Ast.Stmt.If statement = (Ast.Stmt.If) consed.getMethods().get(1).getStatements().get(0);
+        Ast.Expr.Binary condition = (Ast.Expr.Binary) statement.getCondition();
+        Ast.Expr.Function print = (Ast.Expr.Function) ((Ast.Stmt.Expression) statement.getThenStatements().get(0)).getExpression();
+        Assertions.assertSame(condition.getLeft(), print.getArguments().get(0));
+        Assertions.assertSame(condition.getLeft(), factory.binary("+", factory.access(Optional.empty(), "x"), factory.literal(BigInteger.ONE)));
+        Assertions.assertNotSame(condition.getLeft(), factory.binary("-", factory.access(Optional.empty(), "x"), factory.literal(BigInteger.ONE)));
+        Assertions.assertSame(consed, factory.intern(consed));
+        //the factory keeps copies of lists, so changing them afterwards changes nothing
+        List<Ast.Stmt> body = new ArrayList<>(Arrays.asList(factory.returnStatement(factory.literal(BigInteger.ONE))));
+        Ast.Method method = factory.method("f", Arrays.asList(), Arrays.asList(), Optional.empty(), body);
+        body.add(factory.returnStatement(factory.literal(BigInteger.TEN)));
+        Assertions.assertEquals(1, method.getStatements().size());
+        Assertions.assertSame(method, factory.method("f", Arrays.asList(), Arrays.asList(), Optional.empty(), body.subList(0, 1)));
+    }
+
+    @Test
+    void testArena() {
+        String input = "LET first: Integer = 1;\n" +
+                "LET second: String;\n" +
+                "DEF main(x: Integer): Integer DO\n" +
+                "    LET z = NIL;\n" +
+                "    LET w: Boolean;\n" +
+                "    IF x < 1.50 AND TRUE DO obj.f(x, 'c'); obj.g = \"s\"; ELSE RETURN FALSE; END\n" +
+                "    FOR i IN list DO print((i + 1) * 1.5); END\n" +
+                "    WHILE f() DO x = x - 1; END\n" +
+                "    RETURN x;\n" +
+                "END\n" +
+                "DEF none() DO f(); END\n";
+        Ast.Source ast = Assertions.assertDoesNotThrow(() -> new Parser(new Lexer(input).lex()).parseSource());
+        AstArena arena = AstArena.of(ast);
+        Assertions.assertEquals(ast, arena.toSource());
+        int[] nodes = new int[1];
+        AstWalker.walk(ast, new AstWalker.Listener() {
+
+            @Override
+            public void enter(Ast ast) {
+                nodes[0]++;
+            }
+
+        });
+        Assertions.assertEquals(nodes[0], arena.size());
+        AstArena.Cursor cursor = arena.cursor();
+        Assertions.assertEquals(AstArena.Kind.SOURCE, cursor.getKind());
+        Assertions.assertTrue(cursor.firstChild());
+        Assertions.assertEquals("first", cursor.getName());
+        Assertions.assertEquals("Integer", arena.getTypeName(cursor.getNode()));
+        Assertions.assertTrue(cursor.nextSibling());
+        Assertions.assertFalse(cursor.firstChild());
+        Assertions.assertTrue(cursor.nextSibling());
+        Assertions.assertEquals(AstArena.Kind.METHOD, cursor.getKind());
+        Assertions.assertEquals(Arrays.asList("x"), arena.getParameters(cursor.getNode()));
+        Assertions.assertEquals(Arrays.asList("Integer"), arena.getParameterTypeNames(cursor.getNode()));
+        Assertions.assertEquals(Optional.of("Integer"), arena.getReturnTypeName(cursor.getNode()));
+        Assertions.assertEquals(ast.getMethods().get(0), arena.toAst(cursor.getNode()));
+        Assertions.assertTrue(cursor.firstChild());
+        Assertions.assertTrue(cursor.nextSibling());
+        Assertions.assertTrue(cursor.nextSibling());
+        Assertions.assertEquals(AstArena.Kind.IF, cursor.getKind());
+        Assertions.assertEquals(2, arena.getThenCount(cursor.getNode()));
+        Assertions.assertEquals(4, arena.getChildCount(cursor.getNode()));
+        Assertions.assertEquals(2, cursor.getDepth());
+        Assertions.assertTrue(cursor.parent());
+        Assertions.assertTrue(cursor.nextSibling());
+        Assertions.assertEquals(ast.getMethods().get(1).getReturnTypeName(), arena.getReturnTypeName(cursor.getNode()));
+        Assertions.assertFalse(cursor.nextSibling());
+        Assertions.assertTrue(cursor.parent());
+        Assertions.assertFalse(cursor.parent());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> arena.getLiteral(0));
+    }
+
+    private static void assertReparsed(IncrementalParser parser) {
+        Ast.Source expected = Assertions.assertDoesNotThrow(
+                () -> new Parser(new Lexer(parser.getSource().toString()).lex()).parseSource());
+        Assertions.assertEquals(expected, parser.getAst());
+    }
+
+    @Test
+    void testDeepStatements() throws IOException {
+        //IF, WHILE and FOR statements nested 100k deep, in the then and else
+        //statements of the IFs
+        int depth = 100_000;
+        StringBuilder input = new StringBuilder("DEF main(): Integer DO\n");
+        for (int i = 0; i < depth; i++) {
+            input.append(i % 3 == 0 ? "IF x DO ; " : i % 3 == 1 ? "WHILE y DO " : "FOR i IN list DO ");
+            if (i % 6 == 3) {
+                input.append("print(i); ELSE ");
+            }
+        }
+        input.append("RETURN 1;");
+        for (int i = 0; i < depth; i++) {
+            input.append(" END");
+        }
+        input.append("\nEND");
+        Ast.Source ast = new Parser(new Lexer(input.toString()).lexBuffer()).withExplicitStack(true).parseSource();
+        int[] counts = count(ast);
+        //down to the i of the last print(i), in the innermost IF
+        Assertions.assertEquals(depth + 5, counts[0]);
+        Assertions.assertEquals(depth / 3 + 1, counts[1]);
+        //and through an arena and the codec, which don't recurse either
+        Assertions.assertArrayEquals(counts, count(AstArena.of(ast).toSource()));
+        Assertions.assertArrayEquals(counts, count(AstCodec.decode(ByteBuffer.wrap(AstCodec.encode(ast)))));
+    }
+
+    @Test
+    void testDeepExpressions() throws IOException {
+        //groups, functions and method calls nested 100k deep between binary
+        //operators
+        int depth = 100_000;
+        StringBuilder input = new StringBuilder("LET x: Integer = ");
+        for (int i = 0; i < depth; i++) {
+            input.append(i % 3 == 0 ? "1 + (" : i % 3 == 1 ? "f(a, " : "obj.method(2 * ");
+        }
+        input.append("y");
+        for (int i = 0; i < depth; i++) {
+            input.append(i % 2 == 0 ? ")" : ") - 3");
+        }
+        input.append(";");
+        Ast.Source ast = new Parser(new Lexer(input.toString()).lexBuffer()).withExplicitStack(true).parseSource();
+        int[] counts = count(ast);
+        Assertions.assertTrue(counts[0] > depth, String.valueOf(counts[0]));
+        Assertions.assertEquals(depth / 3 + 1, counts[1]);
+        Assertions.assertArrayEquals(counts, count(AstArena.of(ast).toSource()));
+        Assertions.assertArrayEquals(counts, count(AstCodec.decode(ByteBuffer.wrap(AstCodec.encode(ast)))));
+    }
+
+    /**
+     * Returns the depth of the tree and its number of groups and of IF
+     * statements, walked without recursion since Ast's equals and toString
+     * recurse.
+     */
+    private static int[] count(Ast ast) {
+        int[] counts = new int[2];
+        AstWalker.walk(ast, new AstWalker.Listener() {
+
+            private int depth = 0;
+
+            @Override
+            public void enter(Ast ast) {
+                counts[0] = Math.max(counts[0], ++depth);
+                if (ast instanceof Ast.Expr.Group || ast instanceof Ast.Stmt.If) {
+                    counts[1]++;
+                }
+            }
+
+            @Override
+            public void exit(Ast ast) {
+                depth--;
+            }
+
+        });
+        return counts;
+    }
+
     private static <T extends Ast> void test(List<Token> tokens, T expected, Function<Parser, T> function) {
-        Parser parser = new Parser(tokens);
-        if (expected != null) {
-            Assertions.assertEquals(expected, function.apply(parser));
-        } else {
-            Assertions.assertThrows(ParseException.class, () -> function.apply(parser));
+        //in every mode, which all have to give the same trees
+        List<Parser> parsers = Arrays.asList(
+                new Parser(tokens),
+                new Parser(tokens).withExplicitStack(true),
+                new Parser(tokens).withParallelMethods(ForkJoinPool.commonPool()),
+                new Parser(tokens).withLazyMethods(true)
+        );
+        for (Parser parser : parsers) {
+            if (expected != null) {
+                Assertions.assertEquals(expected, function.apply(parser));
+            } else {
+                Assertions.assertThrows(ParseException.class, () -> function.apply(parser));
+            }
         }
     }
 